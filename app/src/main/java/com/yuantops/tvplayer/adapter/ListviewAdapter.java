@@ -4,40 +4,102 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 import com.yuantops.tvplayer.R;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.yuantops.tvplayer.catalog.CatalogSource;
+import com.yuantops.tvplayer.catalog.CatalogStore;
+import com.yuantops.tvplayer.catalog.VideoItem;
+import com.yuantops.tvplayer.util.PosterLoader;
+import com.yuantops.tvplayer.util.VolleySingleton;
 
 /**
  * Created by yuan on 9/5/15.
  */
-public class ListviewAdapter extends BaseAdapter {
+public class ListviewAdapter extends BaseAdapter implements AbsListView.RecyclerListener {
     private static final String TAG = ListviewAdapter.class.getSimpleName();
+    private static final int DATE_CHARS = 32;
 
     private Context mCtx;
-    private JSONArray mJsonArr;
+    private CatalogSource mSource;
+    private PosterLoader mPosters;
+    private int mLastFirst;
+    private int mPrefetchFrom, mPrefetchTo; // positions whose posters were already requested
 
-    public ListviewAdapter(Context context, JSONArray jsonArray) {
+    public ListviewAdapter(Context context, CatalogSource source) {
         mCtx = context;
-        mJsonArr = jsonArray;
+        mSource = source;
+        mPosters = VolleySingleton.getInstance(context.getApplicationContext()).getPosterLoader();
     }
 
-    public int getCount() {
-        return mJsonArr.length();
+    /**
+     * Show another view of the catalog, e.g. a FilteredCatalog from the index.
+     */
+    public void setSource(CatalogSource source) {
+        mSource = source;
+        mPrefetchFrom = mPrefetchTo = 0;
+        notifyDataSetChanged();
+    }
+
+    public CatalogSource getSource() {
+        return mSource;
     }
 
+    /**
+     * Load the posters of the PREFETCH_ROWS rows past the visible ones, in the
+     * direction the list last moved; call from the list's scroll listener.
+     */
+    public void onViewport(int firstVisible, int lastVisible) {
+        int from, to;
+        if (firstVisible < mLastFirst) {
+            from = Math.max(0, firstVisible - PosterLoader.PREFETCH_ROWS);
+            to   = firstVisible;
+        } else {
+            from = lastVisible + 1;
+            to   = Math.min(getCount(), from + PosterLoader.PREFETCH_ROWS);
+        }
+        mLastFirst = firstVisible;
+        for (int position = from; position < to; position++) {
+            if (position >= mPrefetchFrom && position < mPrefetchTo) {
+                continue;
+            }
+            CatalogStore store = mSource.getStore(position);
+            String url = store == null ? null : store.getPosterUrl(mSource.getStoreIndex(position));
+            if (url != null) {
+                mPosters.prefetch(url);
+            }
+        }
+        mPrefetchFrom = from;
+        mPrefetchTo   = to;
+    }
+
+    /**
+     * A row scrolled away: drop its poster load before it is rebound.
+     */
     @Override
-    public Object getItem(int position) {
-        JSONObject jsonObject = null;
-        try {
-            jsonObject = (JSONObject) mJsonArr.get(position);
-        } catch (JSONException e) {
-            e.printStackTrace();
+    public void onMovedToScrapHeap(View view) {
+        Object tag = view.getTag();
+        if (tag instanceof ViewHolder) {
+            ViewHolder vh = (ViewHolder) tag;
+            mPosters.cancel(vh.imgVwPoster);
+            vh.posterStore = null;
         }
-        return jsonObject;
+    }
+
+    public int getCount() {
+        return mSource.getCount();
+    }
+
+    /**
+     * Materialises the row; getView binds straight from the store instead.
+     * @return item at position, or null while its page is being (re)loaded
+     */
+    @Override
+    public VideoItem getItem(int position) {
+        CatalogStore store = mSource.getStore(position);
+        return store == null ? null : store.getItem(mSource.getStoreIndex(position));
     }
 
     @Override
@@ -56,21 +118,34 @@ public class ListviewAdapter extends BaseAdapter {
             vh.txtVwName  = (TextView) convertView.findViewById(R.id.video_name_view);
             vh.txtVwGenre = (TextView) convertView.findViewById(R.id.video_genre);
             vh.txtVwDate  = (TextView) convertView.findViewById(R.id.video_date);
+            vh.imgVwPoster = (ImageView) convertView.findViewById(R.id.video_poster);
+            vh.dateChars  = new char[DATE_CHARS];
 
             convertView.setTag(vh);
         } else {
             vh = (ViewHolder) convertView.getTag();
         }
 
-        JSONObject jsonItem = (JSONObject) getItem(position);
-        if (jsonItem != null) {
-            try {
-                vh.txtVwName.setText((String) jsonItem.get("videoNameCn"));
-                vh.txtVwGenre.setText((String) jsonItem.get("genre"));
-                vh.txtVwDate.setText((String) jsonItem.get("releaseDate"));
-            } catch (JSONException e) {
-                e.printStackTrace();
+        // the text is bound by array indexing, without allocating; the poster url is
+        // made a String once per row shown, as the image loader takes nothing else
+        CatalogStore store = mSource.getStore(position);
+        if (store != null) {
+            int i = mSource.getStoreIndex(position);
+            vh.txtVwName.setText(store.getNameChars(), store.getNameStart(i), store.getNameLength(i));
+            vh.txtVwGenre.setText(store.getGenre(i));
+            vh.txtVwDate.setText(vh.dateChars, 0, store.formatReleaseDate(i, vh.dateChars));
+            // rebinding the same row, e.g. after notifyDataSetChanged, keeps the poster shown
+            if (vh.posterStore != store || vh.posterIndex != i) {
+                vh.posterStore = store;
+                vh.posterIndex = i;
+                mPosters.display(store.getPosterUrl(i), vh.imgVwPoster);
             }
+        } else {
+            vh.txtVwName.setText(null);
+            vh.txtVwGenre.setText(null);
+            vh.txtVwDate.setText(null);
+            vh.posterStore = null;
+            mPosters.cancel(vh.imgVwPoster);
         }
         return convertView;
     }
@@ -79,5 +154,9 @@ public class ListviewAdapter extends BaseAdapter {
         TextView txtVwName;
         TextView txtVwGenre;
         TextView txtVwDate;
+        char[]   dateChars;  // TextView keeps a reference, so one buffer per row
+        ImageView imgVwPoster;
+        CatalogStore posterStore; // row whose poster the view shows or loads
+        int      posterIndex;
     }
 }
@@ -0,0 +1,362 @@
+package com.yuantops.tvplayer.catalog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache for catalog response bodies, keyed by URL.
+ * Each entry keeps the raw body plus the validators (ETag, Last-Modified) and
+ * freshness lifetime from the response, so {@link CatalogRequest} can render
+ * the cached catalog at once and revalidate it with a conditional GET.
+ * The least recently used entries are evicted once maxBytes is exceeded.
+ * 目录响应的磁盘缓存，支持ETag/Last-Modified条件请求
+ */
+public class CatalogCache {
+    private static final int CACHE_MAGIC = 0x20150905;
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+
+    public static class Entry {
+        final String url;
+        final String etag;
+        final String lastModified;
+        final long   storedAt;
+        final long   maxAgeMs;
+        final long   size;
+        final File   body;
+
+        Entry(String url, String etag, String lastModified, long storedAt,
+              long maxAgeMs, long size, File body) {
+            this.url          = url;
+            this.etag         = etag;
+            this.lastModified = lastModified;
+            this.storedAt     = storedAt;
+            this.maxAgeMs     = maxAgeMs;
+            this.size         = size;
+            this.body         = body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isFresh(long now) {
+            return now < storedAt + maxAgeMs;
+        }
+
+        public InputStream openBody() throws IOException {
+            return new FileInputStream(body);
+        }
+    }
+
+    /**
+     * Counters since process start.
+     */
+    public static class Stats {
+        public long hits;            // fresh entry, no network at all
+        public long misses;          // nothing cached, full download
+        public long notModified;     // revalidated with a 304
+        public long changed;         // revalidated, server sent a new body
+        public long bytesFromCache;  // body bytes not downloaded thanks to the cache
+        public long bytesDownloaded; // body bytes downloaded into the cache
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " notModified=" + notModified
+                    + " changed=" + changed + " bytesFromCache=" + bytesFromCache
+                    + " bytesDownloaded=" + bytesDownloaded;
+        }
+    }
+
+    /**
+     * Pending write of a new body; either commit or abort it.
+     */
+    public class Editor {
+        private final String       url;
+        private final File         temp;
+        private final OutputStream out;
+        private long               written;
+
+        Editor(String url, File temp) throws IOException {
+            this.url  = url;
+            this.temp = temp;
+            this.out  = new BufferedOutputStream(new FileOutputStream(temp));
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+
+        public void commit(String etag, String lastModified, long maxAgeMs) throws IOException {
+            out.close();
+            put(url, temp, written, etag, lastModified, maxAgeMs);
+        }
+
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+            }
+            temp.delete();
+        }
+    }
+
+    private final File mRootDir;
+    private final long mMaxBytes;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, .75f, true);
+    private final Stats mStats = new Stats();
+    private long    mTotalBytes;
+    private boolean mInitialized;
+
+    public CatalogCache(File rootDir, long maxBytes) {
+        mRootDir  = rootDir;
+        mMaxBytes = maxBytes;
+    }
+
+    public synchronized Entry get(String url) {
+        initialize();
+        return mEntries.get(url);
+    }
+
+    public synchronized Editor edit(String url) throws IOException {
+        initialize();
+        return new Editor(url, new File(mRootDir, fileName(url) + ".tmp"));
+    }
+
+    public synchronized void remove(String url) {
+        initialize();
+        Entry entry = mEntries.remove(url);
+        if (entry != null) {
+            mTotalBytes -= entry.size;
+            entry.body.delete();
+            new File(mRootDir, fileName(url) + META_SUFFIX).delete();
+        }
+    }
+
+    public synchronized void recordHit(Entry entry) {
+        mStats.hits++;
+        mStats.bytesFromCache += entry.size;
+    }
+
+    public synchronized void recordMiss() {
+        mStats.misses++;
+    }
+
+    /**
+     * A 304 came back: the cached body is current again for maxAgeMs.
+     */
+    public synchronized void recordNotModified(Entry entry, long maxAgeMs) {
+        mStats.notModified++;
+        mStats.bytesFromCache += entry.size;
+        Entry renewed = new Entry(entry.url, entry.etag, entry.lastModified,
+                System.currentTimeMillis(), maxAgeMs, entry.size, entry.body);
+        if (mEntries.containsKey(entry.url)) {
+            mEntries.put(entry.url, renewed);
+            try {
+                writeMeta(renewed);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public synchronized void recordChanged() {
+        mStats.changed++;
+    }
+
+    public synchronized Stats getStats() {
+        Stats copy = new Stats();
+        copy.hits            = mStats.hits;
+        copy.misses          = mStats.misses;
+        copy.notModified     = mStats.notModified;
+        copy.changed         = mStats.changed;
+        copy.bytesFromCache  = mStats.bytesFromCache;
+        copy.bytesDownloaded = mStats.bytesDownloaded;
+        return copy;
+    }
+
+    private synchronized void put(String url, File temp, long size, String etag,
+                                  String lastModified, long maxAgeMs) throws IOException {
+        String name = fileName(url);
+        File body = new File(mRootDir, name + BODY_SUFFIX);
+        Entry old = mEntries.remove(url);
+        if (old != null) {
+            mTotalBytes -= old.size;
+        }
+        if (!temp.renameTo(body)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+        Entry entry = new Entry(url, etag, lastModified, System.currentTimeMillis(), maxAgeMs, size, body);
+        writeMeta(entry);
+        mEntries.put(url, entry);
+        mTotalBytes += size;
+        mStats.bytesDownloaded += size;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (mTotalBytes > mMaxBytes && it.hasNext()) {
+            Entry e = it.next();
+            it.remove();
+            mTotalBytes -= e.size;
+            e.body.delete();
+            new File(mRootDir, fileName(e.url) + META_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Load the entry index from disk, oldest first so LRU order survives restarts.
+     */
+    private void initialize() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+        if (!mRootDir.exists() && !mRootDir.mkdirs()) {
+            return;
+        }
+        File[] files = mRootDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(".tmp")) {
+                f.delete();
+                continue;
+            }
+            if (!name.endsWith(META_SUFFIX)) {
+                continue;
+            }
+            Entry entry = readMeta(f);
+            if (entry == null || entry.body.length() != entry.size) {
+                f.delete();
+                new File(mRootDir, name.substring(0, name.length() - META_SUFFIX.length()) + BODY_SUFFIX).delete();
+                continue;
+            }
+            mEntries.put(entry.url, entry);
+            mTotalBytes += entry.size;
+        }
+        trim();
+    }
+
+    private Entry readMeta(File meta) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            if (in.readInt() != CACHE_MAGIC) {
+                return null;
+            }
+            String url          = in.readUTF();
+            String etag         = readNullableUTF(in);
+            String lastModified = readNullableUTF(in);
+            long storedAt       = in.readLong();
+            long maxAgeMs       = in.readLong();
+            long size           = in.readLong();
+            return new Entry(url, etag, lastModified, storedAt, maxAgeMs, size,
+                    new File(mRootDir, fileName(url) + BODY_SUFFIX));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(mRootDir, fileName(entry.url) + META_SUFFIX))));
+        try {
+            out.writeInt(CACHE_MAGIC);
+            out.writeUTF(entry.url);
+            writeNullableUTF(out, entry.etag);
+            writeNullableUTF(out, entry.lastModified);
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.maxAgeMs);
+            out.writeLong(entry.size);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Same scheme as Volley's DiskBasedCache: hash of each half of the key.
+     */
+    private static String fileName(String url) {
+        int half = url.length() / 2;
+        return String.valueOf(url.substring(0, half).hashCode())
+                + String.valueOf(url.substring(half).hashCode());
+    }
+
+    /**
+     * Parse the max-age of a Cache-Control header; 0 when absent or no-cache.
+     * @return -1 for no-store
+     */
+    public static long parseMaxAgeMs(String cacheControl) {
+        if (cacheControl == null) {
+            return 0;
+        }
+        long maxAge = 0;
+        String[] tokens = cacheControl.split(",");
+        for (String token : tokens) {
+            token = token.trim();
+            if (token.equals("no-store")) {
+                return -1;
+            } else if (token.equals("no-cache")) {
+                return 0;
+            } else if (token.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(token.substring(8)) * 1000;
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        return maxAge;
+    }
+}
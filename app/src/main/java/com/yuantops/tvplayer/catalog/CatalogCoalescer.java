@@ -0,0 +1,266 @@
+package com.yuantops.tvplayer.catalog;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs identical catalog requests once. A request for a URL that is already
+ * being downloaded joins it: the batches decoded so far are replayed to it
+ * and the rest are fanned out as they arrive, so the body is fetched and
+ * parsed once however many lists asked for it. A completed result stays
+ * available for {@link #MEMO_TTL_MS} to requests for the same URL.
+ * Only results up to {@link #MAX_REPLAY_ITEMS} rows are kept for replay; a
+ * request arriving after a larger body has started runs on its own.
+ * All methods must be called on the main thread.
+ * 合并相同的目录请求：同一URL只下载解析一次，结果分发给所有请求者
+ */
+public class CatalogCoalescer {
+    public static final long MEMO_TTL_MS      = 10 * 1000;
+    private static final int MAX_REPLAY_ITEMS = 2000;
+
+    /**
+     * Runs a request on the network, e.g. on the catalog executor.
+     */
+    public interface Launcher {
+        void launch(CatalogRequest request);
+    }
+
+    /**
+     * Counters since the coalescer was created.
+     */
+    public static class Stats {
+        public long requests;     // submitted
+        public long networkCalls; // actually run
+        public long coalesced;    // joined a request in flight
+        public long memoHits;     // answered from a completed result
+
+        /**
+         * @return share of the requests that did not cause a download
+         */
+        public double getCollapseRatio() {
+            return requests == 0 ? 0 : (double) (coalesced + memoHits) / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + " networkCalls=" + networkCalls + " coalesced=" + coalesced
+                    + " memoHits=" + memoHits + " collapseRatio=" + getCollapseRatio();
+        }
+    }
+
+    private final Launcher           mLauncher;
+    private final Handler            mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Group> mGroups  = new HashMap<String, Group>();
+    private final Stats              mStats   = new Stats();
+
+    public CatalogCoalescer(Launcher launcher) {
+        mLauncher = launcher;
+    }
+
+    /**
+     * Deliver the catalog at request's URL to its listeners, downloading it
+     * only if no identical request is running or recently completed.
+     */
+    public void submit(CatalogRequest request) {
+        mStats.requests++;
+        Group group = mGroups.get(request.getUrl());
+        if (group != null && group.join(request)) {
+            return;
+        }
+        group = new Group(request);
+        mGroups.put(request.getUrl(), group);
+        mStats.networkCalls++;
+        mLauncher.launch(group.leader);
+    }
+
+    public Stats getStats() {
+        Stats copy = new Stats();
+        copy.requests     = mStats.requests;
+        copy.networkCalls = mStats.networkCalls;
+        copy.coalesced    = mStats.coalesced;
+        copy.memoHits     = mStats.memoHits;
+        return copy;
+    }
+
+    /**
+     * A caller's request. It only receives fanned-out callbacks once the
+     * batches delivered before it joined have been replayed to it.
+     */
+    private static class Member {
+        final CatalogRequest request;
+        boolean              live;
+
+        Member(CatalogRequest request, boolean live) {
+            this.request = request;
+            this.live    = live;
+        }
+    }
+
+    /**
+     * The one network request for a URL and the requests waiting on it.
+     */
+    private class Group implements CatalogRequest.Listener, Response.ErrorListener {
+        final String               url;
+        final CatalogRequest       leader;
+        final List<Member>         members   = new ArrayList<Member>(2);
+        List<List<VideoItem>>      delivered = new ArrayList<List<VideoItem>>(); // null once too large
+        int                        deliveredItems;
+        boolean                    complete;
+        int                        total;
+        VolleyError                error;
+
+        Group(CatalogRequest first) {
+            url    = first.getUrl();
+            leader = new CatalogRequest(url, this, this);
+            members.add(new Member(first, true));
+        }
+
+        /**
+         * @return false if the result can no longer be replayed
+         */
+        boolean join(CatalogRequest request) {
+            if (delivered == null) {
+                return false;
+            }
+            if (complete) {
+                mStats.memoHits++;
+            } else {
+                mStats.coalesced++;
+            }
+            final Member member = new Member(request, false);
+            members.add(member);
+            // replay later, as a fresh request would answer: never inside the caller
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    replay(member);
+                }
+            });
+            return true;
+        }
+
+        private void replay(Member member) {
+            CatalogRequest request = member.request;
+            if (request.isCanceled() || delivered == null) {
+                if (delivered == null && !request.isCanceled()) {
+                    // grew too large while the replay was queued: fetch it separately
+                    members.remove(member);
+                    mStats.networkCalls++;
+                    mLauncher.launch(request);
+                }
+                return;
+            }
+            for (List<VideoItem> batch : delivered) {
+                request.getListener().onBatch(batch);
+            }
+            member.live = true;
+            if (complete) {
+                members.remove(member);
+                request.getListener().onComplete(total);
+            } else if (error != null) {
+                members.remove(member);
+                if (request.getErrorListener() != null) {
+                    request.getErrorListener().onErrorResponse(error);
+                }
+            }
+        }
+
+        @Override
+        public void onBatch(List<VideoItem> batch) {
+            if (delivered != null) {
+                deliveredItems += batch.size();
+                if (deliveredItems > MAX_REPLAY_ITEMS) {
+                    delivered = null;
+                } else {
+                    delivered.add(batch);
+                }
+            }
+            boolean anyone = false;
+            for (Member member : members) {
+                if (member.live && !member.request.isCanceled()) {
+                    member.request.getListener().onBatch(batch);
+                    anyone = true;
+                } else if (!member.live) {
+                    anyone = true;
+                }
+            }
+            if (!anyone) {
+                // every caller gave up
+                leader.cancel();
+                if (mGroups.get(url) == this) {
+                    mGroups.remove(url);
+                }
+            }
+        }
+
+        @Override
+        public void onReset() {
+            if (delivered != null) {
+                delivered.clear();
+                deliveredItems = 0;
+            }
+            for (Member member : members) {
+                if (member.live && !member.request.isCanceled()) {
+                    member.request.getListener().onReset();
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(int total) {
+            this.complete = true;
+            this.total    = total;
+            Iterator<Member> it = members.iterator();
+            while (it.hasNext()) {
+                Member member = it.next();
+                if (member.live) {
+                    if (!member.request.isCanceled()) {
+                        member.request.getListener().onComplete(total);
+                    }
+                    it.remove();
+                }
+            }
+            if (delivered == null) {
+                forget();
+                return;
+            }
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    forget();
+                }
+            }, MEMO_TTL_MS);
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            this.error = error;
+            forget();
+            Iterator<Member> it = members.iterator();
+            while (it.hasNext()) {
+                Member member = it.next();
+                if (member.live) {
+                    Response.ErrorListener listener = member.request.getErrorListener();
+                    if (!member.request.isCanceled() && listener != null) {
+                        listener.onErrorResponse(error);
+                    }
+                    it.remove();
+                }
+            }
+        }
+
+        private void forget() {
+            if (mGroups.get(url) == this) {
+                mGroups.remove(url);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.yuantops.tvplayer.catalog;
+
+import android.os.AsyncTask;
+import android.util.Log;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.yuantops.tvplayer.util.VolleySingleton;
+
+import java.util.List;
+
+/**
+ * Loads the whole catalog into one {@link CatalogStore} and builds a
+ * {@link CatalogIndex} and a {@link CatalogSearch} over it on a background
+ * thread once the last row has arrived. Rows are appended to the builder as batches come in, which is
+ * cheap enough for the main thread; sorting them into bitsets is not.
+ * 加载完整目录并在后台线程建立索引
+ */
+public class CatalogIndexLoader implements CatalogRequest.Listener, Response.ErrorListener {
+    private static final String TAG = CatalogIndexLoader.class.getSimpleName();
+    private static final int INITIAL_CAPACITY = 1024;
+
+    public interface Listener {
+        /** Called on the main thread. */
+        void onIndexReady(CatalogIndex index, CatalogSearch search);
+
+        /** Called on the main thread if the catalog could not be loaded. */
+        void onIndexFailed();
+    }
+
+    private final Listener       mListener;
+    private final CatalogRequest mRequest;
+    private CatalogStore.Builder mBuilder = new CatalogStore.Builder(new StringTable(), INITIAL_CAPACITY);
+
+    public CatalogIndexLoader(String url, Listener listener) {
+        mListener = listener;
+        mRequest  = new CatalogRequest(url, this, this);
+    }
+
+    /**
+     * Start the download on the index queue, away from the catalog pages.
+     */
+    public void start(VolleySingleton volley) {
+        volley.addToIndexQueue(mRequest);
+    }
+
+    public void cancel() {
+        mRequest.cancel();
+    }
+
+    @Override
+    public void onBatch(List<VideoItem> batch) {
+        for (VideoItem item : batch) {
+            mBuilder.add(item);
+        }
+    }
+
+    @Override
+    public void onReset() {
+        mBuilder = new CatalogStore.Builder(new StringTable(), INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void onComplete(int total) {
+        final CatalogStore.Builder builder = mBuilder;
+        new AsyncTask<Void, Void, Object[]>() {
+            @Override
+            protected Object[] doInBackground(Void... params) {
+                long start = System.nanoTime();
+                CatalogStore store = builder.build();
+                CatalogIndex index = CatalogIndex.build(store);
+                CatalogSearch search = CatalogSearch.build(store);
+                Log.v(TAG, "indexed " + store.size() + " rows in "
+                        + (System.nanoTime() - start) / 1000000 + "ms");
+                return new Object[] { index, search };
+            }
+
+            @Override
+            protected void onPostExecute(Object[] result) {
+                if (!mRequest.isCanceled()) {
+                    mListener.onIndexReady((CatalogIndex) result[0], (CatalogSearch) result[1]);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @Override
+    public void onErrorResponse(VolleyError error) {
+        Log.e(TAG, "catalog index not built: " + error);
+        mListener.onIndexFailed();
+    }
+}
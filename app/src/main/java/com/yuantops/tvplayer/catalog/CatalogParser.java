@@ -0,0 +1,329 @@
+package com.yuantops.tvplayer.catalog;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming parser for the catalog JSON array served at "/topstv/debug".
+ * Reads the body chunk by chunk and hands decoded {@link VideoItem}s out in
+ * batches, so the caller can show the first rows while the rest of the body
+ * is still on the wire. Unknown keys and nested values are skipped without
+ * being materialised.
+ * 解析目录JSON数组的流式解析器，边下载边分批输出VideoItem
+ */
+public class CatalogParser {
+
+    public interface Callback {
+        /**
+         * Called on the parsing thread for every batch of decoded items.
+         * Throw (e.g. an InterruptedIOException) to abort parsing.
+         */
+        void onBatch(List<VideoItem> batch) throws IOException;
+    }
+
+    /** Thrown when the body is not a well formed catalog array. */
+    public static class SyntaxException extends IOException {
+        public SyntaxException(String message) {
+            super(message);
+        }
+    }
+
+    static final String[] FIELDS = {
+            "videoNameCn", "genre", "releaseDate", "standardDefiUrl", "broadcastUrl",
+            "highDefiUrl", "superDefiUrl", "posterUrl"
+    };
+
+    private final int firstBatchSize;
+    private final int batchSize;
+
+    private final char[]        buf    = new char[8192];
+    private final StringBuilder sb     = new StringBuilder(64);
+    private final String[]      values = new String[FIELDS.length];
+    private Reader in;
+    private int    pos, limit;
+    private long   consumed;
+
+    /**
+     * @param firstBatchSize size of the first batch, roughly one screen of rows
+     * @param batchSize      size of every following batch
+     */
+    public CatalogParser(int firstBatchSize, int batchSize) {
+        this.firstBatchSize = Math.max(1, firstBatchSize);
+        this.batchSize      = Math.max(1, batchSize);
+    }
+
+    /**
+     * Parse the whole array from reader.
+     * @return number of items decoded
+     */
+    public int parse(Reader reader, Callback callback) throws IOException {
+        in = reader;
+        pos = limit = 0;
+        consumed = 0;
+
+        int total = 0;
+        int target = firstBatchSize;
+        List<VideoItem> batch = new ArrayList<VideoItem>(target);
+
+        if (nextNonWhitespace() != '[') {
+            throw syntaxError("Expected '['");
+        }
+        int c = nextNonWhitespace();
+        if (c != ']') {
+            while (true) {
+                if (c == '{') {
+                    batch.add(readItem());
+                    total++;
+                    if (batch.size() >= target) {
+                        callback.onBatch(batch);
+                        target = batchSize;
+                        batch = new ArrayList<VideoItem>(target);
+                    }
+                } else {
+                    skipValue(c);
+                }
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    break;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                c = nextNonWhitespace();
+            }
+        }
+        if (!batch.isEmpty()) {
+            callback.onBatch(batch);
+        }
+        in = null;
+        return total;
+    }
+
+    /**
+     * Read the members of an object whose '{' was already consumed.
+     */
+    private VideoItem readItem() throws IOException {
+        Arrays.fill(values, null);
+        int c = nextNonWhitespace();
+        if (c != '}') {
+            while (true) {
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                readIntoBuilder();
+                int field = matchField();
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                c = nextNonWhitespace();
+                if (field < 0 || c == '{' || c == '[') {
+                    skipValue(c);
+                } else if (c == '"') {
+                    values[field] = readString();
+                } else {
+                    values[field] = readLiteral(c);
+                }
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+                c = nextNonWhitespace();
+            }
+        }
+        return new VideoItem(values[0], values[1], values[2], values[3], values[5], values[6], values[4],
+                values[7]);
+    }
+
+    /**
+     * Compare the name held in sb against FIELDS without allocating a String.
+     */
+    private int matchField() {
+        int len = sb.length();
+        for (int i = 0; i < FIELDS.length; i++) {
+            String f = FIELDS[i];
+            if (f.length() != len) {
+                continue;
+            }
+            int j = 0;
+            while (j < len && f.charAt(j) == sb.charAt(j)) {
+                j++;
+            }
+            if (j == len) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String readString() throws IOException {
+        readIntoBuilder();
+        return sb.toString();
+    }
+
+    /**
+     * Read a string whose opening quote was already consumed into sb.
+     */
+    private void readIntoBuilder() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            // copy unescaped runs straight out of the buffer
+            int start = pos;
+            while (pos < limit) {
+                char ch = buf[pos];
+                if (ch == '"' || ch == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            sb.append(buf, start, pos - start);
+            if (pos == limit) {
+                fill();
+                continue;
+            }
+            char ch = buf[pos++];
+            if (ch == '"') {
+                return;
+            }
+            sb.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException {
+        char ch = nextChar();
+        switch (ch) {
+        case 'n':
+            return '\n';
+        case 't':
+            return '\t';
+        case 'r':
+            return '\r';
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'u':
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                int d = Character.digit(nextChar(), 16);
+                if (d < 0) {
+                    throw syntaxError("Invalid unicode escape");
+                }
+                v = (v << 4) | d;
+            }
+            return (char) v;
+        default:
+            // '"', '\\', '/'
+            return ch;
+        }
+    }
+
+    /**
+     * Read a number, true, false or null. Numbers and booleans keep their
+     * textual form, null becomes null.
+     */
+    private String readLiteral(int first) throws IOException {
+        sb.setLength(0);
+        sb.append((char) first);
+        while (true) {
+            if (pos == limit && !fillOrEof()) {
+                break;
+            }
+            char ch = buf[pos];
+            if (ch == ',' || ch == '}' || ch == ']' || isWhitespace(ch)) {
+                break;
+            }
+            sb.append(ch);
+            pos++;
+        }
+        if (sb.length() == 4 && sb.charAt(0) == 'n' && sb.charAt(1) == 'u'
+                && sb.charAt(2) == 'l' && sb.charAt(3) == 'l') {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    private void skipValue(int first) throws IOException {
+        if (first == '"') {
+            skipString();
+            return;
+        }
+        if (first != '{' && first != '[') {
+            readLiteral(first);
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            char ch = nextChar();
+            if (ch == '"') {
+                skipString();
+            } else if (ch == '{' || ch == '[') {
+                depth++;
+            } else if (ch == '}' || ch == ']') {
+                depth--;
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            char ch = nextChar();
+            if (ch == '"') {
+                return;
+            }
+            if (ch == '\\') {
+                nextChar();
+            }
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        char ch;
+        do {
+            ch = nextChar();
+        } while (isWhitespace(ch));
+        return ch;
+    }
+
+    private char nextChar() throws IOException {
+        if (pos == limit) {
+            fill();
+        }
+        return buf[pos++];
+    }
+
+    private void fill() throws IOException {
+        if (!fillOrEof()) {
+            throw new EOFException("Unexpected end of catalog at offset " + consumed);
+        }
+    }
+
+    private boolean fillOrEof() throws IOException {
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private static boolean isWhitespace(char ch) {
+        return ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t';
+    }
+
+    private SyntaxException syntaxError(String message) {
+        return new SyntaxException(message + " at offset " + (consumed + pos));
+    }
+}
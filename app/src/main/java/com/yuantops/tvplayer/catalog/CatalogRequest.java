@@ -0,0 +1,355 @@
+package com.yuantops.tvplayer.catalog;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.android.volley.NetworkError;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.yuantops.tvplayer.util.BandwidthMeter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Catalog request which parses the response body while it is being downloaded.
+ * Unlike JsonArrayRequest the body is never buffered as byte[]/String/JSONArray;
+ * items are decoded by {@link CatalogParser} and delivered to the main thread
+ * in batches. Run it through {@link com.yuantops.tvplayer.util.VolleySingleton#addToCatalogQueue}.
+ * With a {@link CatalogCache} set, a cached body is rendered first and then
+ * revalidated with a conditional GET (stale-while-revalidate); a 304 leaves
+ * the delivered rows untouched and costs no parsing at all.
+ * 流式目录请求：边下载边解析，分批回调到主线程
+ */
+public class CatalogRequest implements Runnable {
+    private static final String TAG = CatalogRequest.class.getSimpleName();
+
+    private static final int FIRST_BATCH_SIZE   = 20;  // about one screen of rows
+    private static final int BATCH_SIZE         = 200;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS    = 10000;
+
+    public interface Listener {
+        /** Called on the main thread for every decoded batch, in order. */
+        void onBatch(List<VideoItem> batch);
+        /**
+         * Called on the main thread when the server sent a newer body than the
+         * cached one already delivered. Drop the delivered rows; the new ones
+         * follow immediately in the same message loop turn.
+         */
+        void onReset();
+        /** Called on the main thread once the whole array has been read. */
+        void onComplete(int total);
+    }
+
+    private final String                 mUrl;
+    private final Listener               mListener;
+    private final Response.ErrorListener mErrorListener;
+    private final Handler                mHandler = new Handler(Looper.getMainLooper());
+    private CatalogCache                 mCache;
+    private BandwidthMeter               mMeter;
+    private volatile boolean             mCanceled;
+
+    public CatalogRequest(String url, Listener listener, Response.ErrorListener errorListener) {
+        mUrl           = url;
+        mListener      = listener;
+        mErrorListener = errorListener;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    Listener getListener() {
+        return mListener;
+    }
+
+    Response.ErrorListener getErrorListener() {
+        return mErrorListener;
+    }
+
+    /**
+     * Set by VolleySingleton when the request is queued.
+     */
+    public void setCache(CatalogCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Set by VolleySingleton when the request is queued.
+     */
+    public void setBandwidthMeter(BandwidthMeter meter) {
+        mMeter = meter;
+    }
+
+    /**
+     * Stop parsing as soon as possible; no further callbacks are delivered.
+     */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    @Override
+    public void run() {
+        if (mCanceled) {
+            return;
+        }
+        CatalogCache.Entry cached = mCache != null ? mCache.get(mUrl) : null;
+        int cachedTotal = -1;
+        HttpURLConnection conn = null;
+        try {
+            if (cached != null) {
+                cachedTotal = deliverCached(cached);
+                if (cachedTotal >= 0 && cached.isFresh(System.currentTimeMillis())) {
+                    mCache.recordHit(cached);
+                    deliverComplete(cachedTotal);
+                    return;
+                }
+            }
+
+            conn = (HttpURLConnection) new URL(mUrl).openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            if (cachedTotal >= 0) {
+                if (cached.getEtag() != null) {
+                    conn.setRequestProperty("If-None-Match", cached.getEtag());
+                }
+                if (cached.getLastModified() != null) {
+                    conn.setRequestProperty("If-Modified-Since", cached.getLastModified());
+                }
+            }
+            long sentAt = System.nanoTime();
+            int status = conn.getResponseCode();
+            if (mMeter != null) {
+                mMeter.onRtt(System.nanoTime() - sentAt);
+            }
+            long maxAgeMs = CatalogCache.parseMaxAgeMs(conn.getHeaderField("Cache-Control"));
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cachedTotal >= 0) {
+                mCache.recordNotModified(cached, Math.max(0, maxAgeMs));
+                deliverComplete(cachedTotal);
+                return;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                deliverError(new ServerError());
+                return;
+            }
+
+            CatalogCache.Editor editor = null;
+            if (mCache != null) {
+                if (cachedTotal >= 0) {
+                    mCache.recordChanged();
+                } else {
+                    mCache.recordMiss();
+                }
+                if (maxAgeMs >= 0) {
+                    editor = mCache.edit(mUrl);
+                }
+            }
+            CacheWriteInputStream is = new CacheWriteInputStream(conn.getInputStream(), editor);
+            try {
+                int total;
+                if (cachedTotal >= 0) {
+                    // rows from the cache are on screen; swap them in one go
+                    final List<VideoItem> fresh = new ArrayList<VideoItem>();
+                    total = parse(is, new CatalogParser.Callback() {
+                        @Override
+                        public void onBatch(List<VideoItem> batch) throws IOException {
+                            checkCanceled();
+                            fresh.addAll(batch);
+                        }
+                    });
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mCanceled) {
+                                mListener.onReset();
+                                mListener.onBatch(fresh);
+                            }
+                        }
+                    });
+                } else {
+                    total = parse(is, mPostingCallback);
+                }
+                if (editor != null) {
+                    editor.commit(conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), maxAgeMs);
+                    editor = null;
+                }
+                if (mMeter != null) {
+                    mMeter.onTransfer(is.bytes, is.readNanos);
+                }
+                deliverComplete(total);
+            } finally {
+                if (editor != null) {
+                    editor.abort();
+                }
+                is.close();
+            }
+        } catch (SocketTimeoutException e) {
+            deliverErrorUnlessCached(new TimeoutError(), cachedTotal);
+        } catch (InterruptedIOException e) {
+            Log.v(TAG, "canceled: " + mUrl);
+        } catch (CatalogParser.SyntaxException e) {
+            deliverError(new ParseError(e));
+        } catch (IOException e) {
+            deliverErrorUnlessCached(new NetworkError(e), cachedTotal);
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+            if (mCache != null) {
+                Log.v(TAG, "catalog cache " + mCache.getStats());
+            }
+        }
+    }
+
+    /**
+     * Stream the cached body to the listener.
+     * @return number of rows delivered, or -1 if the cached body is unusable
+     */
+    private int deliverCached(CatalogCache.Entry cached) throws InterruptedIOException {
+        InputStream is = null;
+        try {
+            is = cached.openBody();
+            return parse(is, mPostingCallback);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            Log.w(TAG, "dropping unreadable cache entry for " + mUrl);
+            mCache.remove(mUrl);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCanceled) {
+                        mListener.onReset();
+                    }
+                }
+            });
+            return -1;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private int parse(InputStream is, CatalogParser.Callback callback) throws IOException {
+        return new CatalogParser(FIRST_BATCH_SIZE, BATCH_SIZE)
+                .parse(new InputStreamReader(is, "UTF-8"), callback);
+    }
+
+    private final CatalogParser.Callback mPostingCallback = new CatalogParser.Callback() {
+        @Override
+        public void onBatch(final List<VideoItem> batch) throws IOException {
+            checkCanceled();
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCanceled) {
+                        mListener.onBatch(batch);
+                    }
+                }
+            });
+        }
+    };
+
+    private void checkCanceled() throws InterruptedIOException {
+        if (mCanceled) {
+            throw new InterruptedIOException("canceled");
+        }
+    }
+
+    private void deliverComplete(final int total) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled) {
+                    mListener.onComplete(total);
+                }
+            }
+        });
+    }
+
+    /**
+     * A failed revalidation keeps the stale rows on screen.
+     */
+    private void deliverErrorUnlessCached(VolleyError error, int cachedTotal) {
+        if (cachedTotal >= 0) {
+            Log.w(TAG, "revalidation failed, keeping cached catalog: " + error);
+            deliverComplete(cachedTotal);
+        } else {
+            deliverError(error);
+        }
+    }
+
+    private void deliverError(final VolleyError error) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mErrorListener != null) {
+                    mErrorListener.onErrorResponse(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies the body into the cache while the parser reads it, and counts
+     * the bytes and the time spent waiting for them (not parsing them).
+     */
+    private static class CacheWriteInputStream extends FilterInputStream {
+        private final CatalogCache.Editor editor;
+        long bytes;
+        long readNanos;
+
+        CacheWriteInputStream(InputStream in, CatalogCache.Editor editor) {
+            super(in);
+            this.editor = editor;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            readNanos += System.nanoTime() - start;
+            if (b >= 0) {
+                bytes++;
+            }
+            if (b >= 0 && editor != null) {
+                editor.write(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(buffer, off, len);
+            readNanos += System.nanoTime() - start;
+            if (n > 0) {
+                bytes += n;
+            }
+            if (n > 0 && editor != null) {
+                editor.write(buffer, off, n);
+            }
+            return n;
+        }
+    }
+}
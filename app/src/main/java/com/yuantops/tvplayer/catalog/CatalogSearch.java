@@ -0,0 +1,361 @@
+package com.yuantops.tvplayer.catalog;
+
+import com.yuantops.tvplayer.util.PinyinUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Title search over videoNameCn for typing with a remote.
+ * A query matches a title when the title contains it, or when the pinyin
+ * initials of the title contain it ("dhxy" finds 大话西游).
+ * The first keystroke is answered from character / bigram postings of names
+ * and initials; every further keystroke only re-checks the previous matches
+ * ({@link Session}), and backspace pops back to an earlier result.
+ * Postings are kept as one sorted key array plus one id array, which is far
+ * smaller than a map of lists. Immutable once built; build off the UI thread.
+ * 标题搜索：汉字单字/双字索引加拼音首字母，逐字缩小结果集
+ */
+public class CatalogSearch {
+    private static final int  ID_BITS       = 29;
+    private static final long ID_MASK       = (1L << ID_BITS) - 1;
+    private static final int  KIND_NAME     = 0;
+    private static final int  KIND_INITIALS = 1;
+    private static final int  MAX_RESULTS   = 500;
+
+    private final CatalogStore mStore;
+    private final char[]       mNames;        // lowercased copy of the name pool
+    private final char[]       mInitials;
+    private final int[]        mInitialsStart;
+    private final long[]       mKeys;         // sorted posting keys
+    private final int[]        mPostingStart; // mKeys.length + 1 entries
+    private final int[]        mPostings;     // row ids, ascending per key
+
+    private CatalogSearch(CatalogStore store, char[] names, char[] initials, int[] initialsStart,
+                          long[] keys, int[] postingStart, int[] postings) {
+        mStore         = store;
+        mNames         = names;
+        mInitials      = initials;
+        mInitialsStart = initialsStart;
+        mKeys          = keys;
+        mPostingStart  = postingStart;
+        mPostings      = postings;
+    }
+
+    public static CatalogSearch build(CatalogStore store) {
+        int size = store.size();
+        if (size > ID_MASK) {
+            throw new IllegalArgumentException("Too many rows: " + size);
+        }
+        char[] names = store.getNameChars().clone();
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fold(names[i]);
+        }
+        StringBuilder initials = new StringBuilder(size * 4);
+        int[] initialsStart = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            int start = store.getNameStart(i);
+            int end = start + store.getNameLength(i);
+            for (int j = start; j < end; j++) {
+                char c = PinyinUtils.getInitial(names[j]);
+                if (c != 0) {
+                    initials.append(c);
+                }
+            }
+            initialsStart[i + 1] = initials.length();
+        }
+        char[] initialChars = new char[initials.length()];
+        initials.getChars(0, initialChars.length, initialChars, 0);
+
+        // (key, id) pairs packed into longs; sorting groups them by key, then id
+        long[] pairs = new long[2 * (names.length + initialChars.length)];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n = emit(pairs, n, KIND_NAME, names, store.getNameStart(i), store.getNameStart(i + 1), i);
+            n = emit(pairs, n, KIND_INITIALS, initialChars, initialsStart[i], initialsStart[i + 1], i);
+        }
+        Arrays.sort(pairs, 0, n);
+
+        long[] keys = new long[n];
+        int[] postingStart = new int[n + 1];
+        int[] postings = new int[n];
+        int keyCount = 0, postingCount = 0;
+        long prev = -1;
+        for (int i = 0; i < n; i++) {
+            if (pairs[i] == prev) {
+                continue; // same gram twice in one title
+            }
+            prev = pairs[i];
+            long key = pairs[i] >>> ID_BITS;
+            if (keyCount == 0 || keys[keyCount - 1] != key) {
+                keys[keyCount] = key;
+                postingStart[keyCount] = postingCount;
+                keyCount++;
+            }
+            postings[postingCount++] = (int) (pairs[i] & ID_MASK);
+        }
+        postingStart[keyCount] = postingCount;
+        return new CatalogSearch(store, names, initialChars, initialsStart,
+                Arrays.copyOf(keys, keyCount), Arrays.copyOf(postingStart, keyCount + 1),
+                Arrays.copyOf(postings, postingCount));
+    }
+
+    public CatalogStore getStore() {
+        return mStore;
+    }
+
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Search state of one search box. Not thread safe.
+     */
+    public class Session {
+        private final List<String> mQueries = new ArrayList<String>();
+        private final List<int[]>  mMatches = new ArrayList<int[]>();
+
+        /**
+         * @return ranked matches for query (at most MAX_RESULTS), or null for
+         *         an empty query
+         */
+        public FilteredCatalog update(String query) {
+            String q = normalize(query);
+            if (q.length() == 0) {
+                mQueries.clear();
+                mMatches.clear();
+                return null;
+            }
+            // backspace or edit: drop results of queries that are no longer a prefix
+            while (!mQueries.isEmpty() && !q.startsWith(mQueries.get(mQueries.size() - 1))) {
+                mQueries.remove(mQueries.size() - 1);
+                mMatches.remove(mMatches.size() - 1);
+            }
+            int[] matches;
+            if (mQueries.isEmpty()) {
+                matches = lookup(q);
+            } else if (q.equals(mQueries.get(mQueries.size() - 1))) {
+                matches = mMatches.get(mMatches.size() - 1);
+            } else {
+                matches = narrow(mMatches.get(mMatches.size() - 1), q);
+            }
+            if (mQueries.isEmpty() || !q.equals(mQueries.get(mQueries.size() - 1))) {
+                mQueries.add(q);
+                mMatches.add(matches);
+            }
+            return new FilteredCatalog(mStore, rank(matches, q));
+        }
+    }
+
+    /**
+     * Matches of q from the postings, ascending ids.
+     */
+    int[] lookup(String q) {
+        String iq = initialsQuery(q);
+        int[] byName = candidates(KIND_NAME, q);
+        int[] byInitials = iq != null ? candidates(KIND_INITIALS, iq) : new int[0];
+        int[] union = union(byName, byInitials);
+        // bigram hits only guarantee the pairs, not their order: verify longer queries
+        return q.length() > 2 || iq != null && iq.length() > 2 ? narrow(union, q) : union;
+    }
+
+    /**
+     * Keep the ids of base still matching q; base is ascending, so is the result.
+     */
+    int[] narrow(int[] base, String q) {
+        char[] query = q.toCharArray();
+        char[] initials = toChars(initialsQuery(q));
+        int[] out = new int[base.length];
+        int n = 0;
+        for (int id : base) {
+            if (indexOf(mNames, mStore.getNameStart(id), mStore.getNameStart(id + 1), query) >= 0
+                    || initials != null && indexOf(mInitials, mInitialsStart[id], mInitialsStart[id + 1], initials) >= 0) {
+                out[n++] = id;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Order by: name prefix, initials prefix, earliest position in the name,
+     * then shorter titles. Only the best MAX_RESULTS are returned.
+     */
+    int[] rank(int[] matches, String q) {
+        char[] query = q.toCharArray();
+        char[] initials = toChars(initialsQuery(q));
+        long[] scored = new long[matches.length];
+        for (int i = 0; i < matches.length; i++) {
+            int id = matches[i];
+            int start = mStore.getNameStart(id);
+            int len = mStore.getNameLength(id);
+            int pos = indexOf(mNames, start, start + len, query);
+            int score;
+            if (pos == 0) {
+                score = 0;
+            } else if (initials != null && indexOf(mInitials, mInitialsStart[id], mInitialsStart[id + 1], initials) == 0) {
+                score = 1;
+            } else if (pos > 0) {
+                score = 2 + Math.min(pos, 63);
+            } else {
+                score = 66;
+            }
+            long key = ((long) score << 8 | Math.min(len, 255)) << 32;
+            scored[i] = key | id;
+        }
+        Arrays.sort(scored);
+        int n = Math.min(scored.length, MAX_RESULTS);
+        int[] ranked = new int[n];
+        for (int i = 0; i < n; i++) {
+            ranked[i] = (int) scored[i];
+        }
+        return ranked;
+    }
+
+    private int[] candidates(int kind, String q) {
+        if (q.length() == 1) {
+            return postings(key(kind, q.charAt(0), 0));
+        }
+        int[] result = null;
+        for (int i = 0; i + 1 < q.length(); i++) {
+            int[] p = postings(key(kind, q.charAt(i), q.charAt(i + 1)));
+            result = result == null ? p : intersect(result, p);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private int[] postings(long key) {
+        int k = Arrays.binarySearch(mKeys, key);
+        if (k < 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(mPostings, mPostingStart[k], mPostingStart[k + 1]);
+    }
+
+    private static int emit(long[] pairs, int n, int kind, char[] chars, int start, int end, int id) {
+        for (int j = start; j < end; j++) {
+            pairs[n++] = key(kind, chars[j], 0) << ID_BITS | id;
+            if (j + 1 < end) {
+                pairs[n++] = key(kind, chars[j], chars[j + 1]) << ID_BITS | id;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * kind(1 bit) | first char(16) | second char(16), 0 for a single char.
+     */
+    private static long key(int kind, int first, int second) {
+        return (long) kind << 32 | (long) first << 16 | second;
+    }
+
+    private static int indexOf(char[] text, int start, int end, char[] query) {
+        int last = end - query.length;
+        outer:
+        for (int i = start; i <= last; i++) {
+            for (int j = 0; j < query.length; j++) {
+                if (text[i + j] != query[j]) {
+                    continue outer;
+                }
+            }
+            return i - start;
+        }
+        return -1;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || i < a.length && a[i] < b[j]) {
+                out[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                out[n++] = b[j++];
+            } else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return q without spaces if it can be matched against initials
+     *         (letters and digits only), else null
+     */
+    private static String initialsQuery(String q) {
+        StringBuilder sb = null;
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c == ' ') {
+                if (sb == null) {
+                    sb = new StringBuilder(q.substring(0, i));
+                }
+            } else if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                if (sb != null) {
+                    sb.append(c);
+                }
+            } else {
+                return null;
+            }
+        }
+        String iq = sb == null ? q : sb.toString();
+        return iq.length() > 0 ? iq : null;
+    }
+
+    private static char[] toChars(String s) {
+        return s == null ? null : s.toCharArray();
+    }
+
+    /**
+     * Lowercase, full-width to half-width, runs of spaces collapsed, leading
+     * spaces dropped.
+     */
+    private static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(query.length());
+        for (int i = 0; i < query.length(); i++) {
+            char c = fold(query.charAt(i));
+            if (c != ' ' || sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static char fold(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        if (c >= '\uff01' && c <= '\uff5e') {
+            // full-width ASCII typed by some Chinese IMEs
+            return fold((char) (c - 0xfee0));
+        }
+        return c;
+    }
+}
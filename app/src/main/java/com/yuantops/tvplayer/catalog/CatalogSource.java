@@ -0,0 +1,22 @@
+package com.yuantops.tvplayer.catalog;
+
+/**
+ * Positional view of the catalog used by ListviewAdapter.
+ * A row is addressed as (store, index) so binding never allocates.
+ */
+public interface CatalogSource {
+    /**
+     * @return number of rows the list should show
+     */
+    int getCount();
+
+    /**
+     * @return store holding the row at position, or null if it is not loaded (yet)
+     */
+    CatalogStore getStore(int position);
+
+    /**
+     * @return index of the row at position inside {@link #getStore(int)}
+     */
+    int getStoreIndex(int position);
+}
@@ -0,0 +1,413 @@
+package com.yuantops.tvplayer.catalog;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable catalog rows kept as parallel arrays instead of one object per row.
+ * Names and urls live in shared char pools addressed by offsets, genres are
+ * interned to short ids through a {@link StringTable}, and release dates are
+ * parsed once into epoch millis (UTC midnight).
+ * Binding a row is plain array indexing: the name can be handed to
+ * TextView.setText(char[], int, int) and the date is formatted into a caller
+ * owned buffer, so no object is allocated per bind. Urls are only made
+ * Strings on request, e.g. a poster url for the image loader.
+ * Fixed cost is {@link #FIXED_BYTES_PER_ITEM} bytes per row plus 2 bytes per
+ * character of name and urls; see {@link #estimateBytes()}.
+ * 以并行数组保存的不可变目录
+ */
+public class CatalogStore {
+    /** nameStart + URL_SLOTS urlStart + genre + date. */
+    public static final int FIXED_BYTES_PER_ITEM = 4 + 5 * 4 + 2 + 8;
+
+    public static final long UNKNOWN_DATE = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY     = 86400000L;
+    private static final long DAYS_0000_TO_1970  = 719528L;
+    private static final long DAYS_PER_CYCLE     = 146097L;
+    private static final int  DATE_LENGTH        = 10; // yyyy-MM-dd
+    private static final int  URL_SLOTS          = 5;  // standard, high, super, broadcast, poster
+
+    private final int         mSize;
+    private final StringTable mGenres;
+    private final char[]      mNameChars;
+    private final int[]       mNameStart;   // mSize + 1 entries
+    private final char[]      mUrlChars;
+    private final int[]       mUrlStart;    // URL_SLOTS * mSize + 1 entries
+    private final short[]     mGenreIds;
+    private final long[]      mReleaseDates;
+    private final Map<Integer, String> mRawDates; // the rare dates that did not parse
+
+    private CatalogStore(Builder b) {
+        mSize         = b.size;
+        mGenres       = b.genres;
+        mNameChars    = Arrays.copyOf(b.nameChars, b.nameLength);
+        mNameStart    = Arrays.copyOf(b.nameStart, b.size + 1);
+        mUrlChars     = Arrays.copyOf(b.urlChars, b.urlLength);
+        mUrlStart     = Arrays.copyOf(b.urlStart, URL_SLOTS * b.size + 1);
+        mGenreIds     = Arrays.copyOf(b.genreIds, b.size);
+        mReleaseDates = Arrays.copyOf(b.releaseDates, b.size);
+        mRawDates     = b.rawDates.isEmpty() ? null : new HashMap<Integer, String>(b.rawDates);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public StringTable getGenreTable() {
+        return mGenres;
+    }
+
+    /**
+     * Pool holding every name; use with {@link #getNameStart} and {@link #getNameLength}.
+     */
+    public char[] getNameChars() {
+        return mNameChars;
+    }
+
+    public int getNameStart(int index) {
+        return mNameStart[index];
+    }
+
+    public int getNameLength(int index) {
+        return mNameStart[index + 1] - mNameStart[index];
+    }
+
+    public String getVideoNameCn(int index) {
+        return new String(mNameChars, mNameStart[index], getNameLength(index));
+    }
+
+    public int getGenreId(int index) {
+        return mGenreIds[index];
+    }
+
+    /**
+     * @return the interned genre, no allocation
+     */
+    public String getGenre(int index) {
+        return mGenres.get(mGenreIds[index]);
+    }
+
+    /**
+     * @return release date as epoch millis, or UNKNOWN_DATE
+     */
+    public long getReleaseDate(int index) {
+        return mReleaseDates[index];
+    }
+
+    /**
+     * @return release year, or 0 when the date is unknown
+     */
+    public int getReleaseYear(int index) {
+        long millis = mReleaseDates[index];
+        if (millis == UNKNOWN_DATE) {
+            return 0;
+        }
+        return yearOfEpochDay(epochDay(millis));
+    }
+
+    /**
+     * Write the release date as yyyy-MM-dd into dst.
+     * dst should hold at least 10 chars; longer unparsed dates are truncated.
+     * @return number of chars written
+     */
+    public int formatReleaseDate(int index, char[] dst) {
+        long millis = mReleaseDates[index];
+        if (millis == UNKNOWN_DATE) {
+            String raw = mRawDates == null ? null : mRawDates.get(index);
+            if (raw == null) {
+                return 0;
+            }
+            int len = Math.min(raw.length(), dst.length);
+            raw.getChars(0, len, dst, 0);
+            return len;
+        }
+        return formatEpochDay(epochDay(millis), dst);
+    }
+
+    public String getReleaseDateText(int index) {
+        char[] buf = new char[DATE_LENGTH];
+        return new String(buf, 0, formatReleaseDate(index, buf));
+    }
+
+    public String getStandardDefiUrl(int index) {
+        return url(URL_SLOTS * index);
+    }
+
+    public String getHighDefiUrl(int index) {
+        return url(URL_SLOTS * index + 1);
+    }
+
+    public String getSuperDefiUrl(int index) {
+        return url(URL_SLOTS * index + 2);
+    }
+
+    public String getBroadcastUrl(int index) {
+        return url(URL_SLOTS * index + 3);
+    }
+
+    public String getPosterUrl(int index) {
+        return url(URL_SLOTS * index + 4);
+    }
+
+    /**
+     * Materialise one row, e.g. for a click handler. Not for binding.
+     */
+    public VideoItem getItem(int index) {
+        return new VideoItem(getVideoNameCn(index), getGenre(index), getReleaseDateText(index),
+                getStandardDefiUrl(index), getHighDefiUrl(index), getSuperDefiUrl(index),
+                getBroadcastUrl(index), getPosterUrl(index));
+    }
+
+    /**
+     * @return bytes held by the arrays of this store, excluding the shared genre table
+     */
+    public long estimateBytes() {
+        return 2L * mNameChars.length + 4L * mNameStart.length
+                + 2L * mUrlChars.length + 4L * mUrlStart.length
+                + 2L * mGenreIds.length + 8L * mReleaseDates.length;
+    }
+
+    /**
+     * @return a new store with items appended; this store is left untouched
+     */
+    public CatalogStore append(List<VideoItem> items) {
+        Builder b = new Builder(this, items.size());
+        for (VideoItem item : items) {
+            b.add(item);
+        }
+        return b.build();
+    }
+
+    private String url(int slot) {
+        int start = mUrlStart[slot];
+        int len = mUrlStart[slot + 1] - start;
+        return len == 0 ? null : new String(mUrlChars, start, len);
+    }
+
+    /**
+     * Parse the leading yyyy-MM-dd of a date string.
+     * @return epoch millis of that day in UTC, or UNKNOWN_DATE
+     */
+    static long parseDate(String s) {
+        if (s == null || s.length() < DATE_LENGTH || s.charAt(4) != '-' || s.charAt(7) != '-') {
+            return UNKNOWN_DATE;
+        }
+        int year  = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day   = digits(s, 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return UNKNOWN_DATE;
+        }
+        return toEpochDay(year, month, day) * MILLIS_PER_DAY;
+    }
+
+    private static int digits(String s, int from, int count) {
+        int v = 0;
+        for (int i = from; i < from + count; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private static long epochDay(long millis) {
+        long day = millis / MILLIS_PER_DAY;
+        return millis < 0 && day * MILLIS_PER_DAY != millis ? day - 1 : day;
+    }
+
+    private static boolean isLeap(long year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    // proleptic Gregorian calendar, same arithmetic as java.time.LocalDate
+    private static long toEpochDay(long year, long month, long day) {
+        long total = 365 * year;
+        total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeap(year)) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+
+    /**
+     * @return {year, month, dom} packed as year * 10000 + month * 100 + dom
+     */
+    private static long civilOfEpochDay(long epochDay) {
+        long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;  // days since 0000-03-01
+        long adjust = 0;
+        if (zeroDay < 0) {
+            long adjustCycles = (zeroDay + 1) / DAYS_PER_CYCLE - 1;
+            adjust = adjustCycles * 400;
+            zeroDay += -adjustCycles * DAYS_PER_CYCLE;
+        }
+        long yearEst = (400 * zeroDay + 591) / DAYS_PER_CYCLE;
+        long doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+        if (doyEst < 0) {
+            yearEst--;
+            doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+        }
+        yearEst += adjust;
+        int marchDoy0 = (int) doyEst;
+        int marchMonth0 = (marchDoy0 * 5 + 2) / 153;
+        int month = (marchMonth0 + 2) % 12 + 1;
+        int dom = marchDoy0 - (marchMonth0 * 306 + 5) / 10 + 1;
+        yearEst += marchMonth0 / 10;
+        return yearEst * 10000 + month * 100 + dom;
+    }
+
+    static int yearOfEpochDay(long epochDay) {
+        return (int) (civilOfEpochDay(epochDay) / 10000);
+    }
+
+    private static int formatEpochDay(long epochDay, char[] dst) {
+        long civil = civilOfEpochDay(epochDay);
+        int year  = (int) (civil / 10000);
+        int month = (int) (civil / 100 % 100);
+        int dom   = (int) (civil % 100);
+        dst[0] = (char) ('0' + year / 1000 % 10);
+        dst[1] = (char) ('0' + year / 100 % 10);
+        dst[2] = (char) ('0' + year / 10 % 10);
+        dst[3] = (char) ('0' + year % 10);
+        dst[4] = '-';
+        dst[5] = (char) ('0' + month / 10);
+        dst[6] = (char) ('0' + month % 10);
+        dst[7] = '-';
+        dst[8] = (char) ('0' + dom / 10);
+        dst[9] = (char) ('0' + dom % 10);
+        return DATE_LENGTH;
+    }
+
+    /**
+     * Accumulates rows; arrays grow like ArrayList and are trimmed by build().
+     */
+    public static class Builder {
+        private final StringTable genres;
+        private int     size;
+        private char[]  nameChars;
+        private int     nameLength;
+        private int[]   nameStart;
+        private char[]  urlChars;
+        private int     urlLength;
+        private int[]   urlStart;
+        private short[] genreIds;
+        private long[]  releaseDates;
+        private final Map<Integer, String> rawDates = new HashMap<Integer, String>();
+
+        public Builder(StringTable genres, int capacity) {
+            this.genres  = genres;
+            capacity     = Math.max(capacity, 1);
+            nameChars    = new char[capacity * 8];
+            nameStart    = new int[capacity + 1];
+            urlChars     = new char[capacity * 32];
+            urlStart     = new int[URL_SLOTS * capacity + 1];
+            genreIds     = new short[capacity];
+            releaseDates = new long[capacity];
+        }
+
+        /**
+         * Start from a copy of base, with room for extra more rows.
+         */
+        public Builder(CatalogStore base, int extra) {
+            this(base.mGenres, base.mSize + extra);
+            size = base.mSize;
+            nameChars  = grow(nameChars, base.mNameChars.length);
+            System.arraycopy(base.mNameChars, 0, nameChars, 0, base.mNameChars.length);
+            nameLength = base.mNameChars.length;
+            System.arraycopy(base.mNameStart, 0, nameStart, 0, base.mNameStart.length);
+            urlChars   = grow(urlChars, base.mUrlChars.length);
+            System.arraycopy(base.mUrlChars, 0, urlChars, 0, base.mUrlChars.length);
+            urlLength  = base.mUrlChars.length;
+            System.arraycopy(base.mUrlStart, 0, urlStart, 0, base.mUrlStart.length);
+            System.arraycopy(base.mGenreIds, 0, genreIds, 0, base.mSize);
+            System.arraycopy(base.mReleaseDates, 0, releaseDates, 0, base.mSize);
+            if (base.mRawDates != null) {
+                rawDates.putAll(base.mRawDates);
+            }
+        }
+
+        public Builder add(VideoItem item) {
+            return add(item.getVideoNameCn(), item.getGenre(), item.getReleaseDate(),
+                    item.getStandardDefiUrl(), item.getHighDefiUrl(), item.getSuperDefiUrl(),
+                    item.getBroadcastUrl(), item.getPosterUrl());
+        }
+
+        public Builder add(String name, String genre, String releaseDate,
+                           String standardDefiUrl, String broadcastUrl) {
+            return add(name, genre, releaseDate, standardDefiUrl, null, null, broadcastUrl, null);
+        }
+
+        public Builder add(String name, String genre, String releaseDate, String standardDefiUrl,
+                           String highDefiUrl, String superDefiUrl, String broadcastUrl, String posterUrl) {
+            if (size == genreIds.length) {
+                int capacity = size + (size >> 1) + 1;
+                nameStart    = Arrays.copyOf(nameStart, capacity + 1);
+                urlStart     = Arrays.copyOf(urlStart, URL_SLOTS * capacity + 1);
+                genreIds     = Arrays.copyOf(genreIds, capacity);
+                releaseDates = Arrays.copyOf(releaseDates, capacity);
+            }
+            nameLength = appendChars(name, true);
+            nameStart[size + 1] = nameLength;
+            int slot = URL_SLOTS * size;
+            urlLength = appendChars(standardDefiUrl, false);
+            urlStart[slot + 1] = urlLength;
+            urlLength = appendChars(highDefiUrl, false);
+            urlStart[slot + 2] = urlLength;
+            urlLength = appendChars(superDefiUrl, false);
+            urlStart[slot + 3] = urlLength;
+            urlLength = appendChars(broadcastUrl, false);
+            urlStart[slot + 4] = urlLength;
+            urlLength = appendChars(posterUrl, false);
+            urlStart[slot + 5] = urlLength;
+            genreIds[size] = (short) genres.intern(genre);
+            long date = parseDate(releaseDate);
+            releaseDates[size] = date;
+            if (date == UNKNOWN_DATE && releaseDate != null && releaseDate.length() > 0) {
+                rawDates.put(size, releaseDate);
+            }
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public CatalogStore build() {
+            return new CatalogStore(this);
+        }
+
+        private int appendChars(String s, boolean name) {
+            int len = s == null ? 0 : s.length();
+            if (name) {
+                nameChars = grow(nameChars, nameLength + len);
+                if (len > 0) {
+                    s.getChars(0, len, nameChars, nameLength);
+                }
+                return nameLength + len;
+            }
+            urlChars = grow(urlChars, urlLength + len);
+            if (len > 0) {
+                s.getChars(0, len, urlChars, urlLength);
+            }
+            return urlLength + len;
+        }
+
+        private static char[] grow(char[] chars, int needed) {
+            if (needed <= chars.length) {
+                return chars;
+            }
+            return Arrays.copyOf(chars, Math.max(needed, chars.length + (chars.length >> 1)));
+        }
+    }
+}
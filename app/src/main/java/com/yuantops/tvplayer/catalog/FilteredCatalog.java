@@ -0,0 +1,30 @@
+package com.yuantops.tvplayer.catalog;
+
+/**
+ * Subset of a store produced by {@link CatalogIndex#select}: position i of
+ * the list shows row ids[i] of the underlying store.
+ */
+public class FilteredCatalog implements CatalogSource {
+    private final CatalogStore mStore;
+    private final int[]        mIds;
+
+    FilteredCatalog(CatalogStore store, int[] ids) {
+        mStore = store;
+        mIds   = ids;
+    }
+
+    @Override
+    public int getCount() {
+        return mIds.length;
+    }
+
+    @Override
+    public CatalogStore getStore(int position) {
+        return mStore;
+    }
+
+    @Override
+    public int getStoreIndex(int position) {
+        return mIds[position];
+    }
+}
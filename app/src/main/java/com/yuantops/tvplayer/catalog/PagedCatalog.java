@@ -0,0 +1,275 @@
+package com.yuantops.tvplayer.catalog;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.yuantops.tvplayer.util.VolleySingleton;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catalog loaded in fixed-size pages from "/topstv/debug?offset=&limit=".
+ * Pages are fetched when a row of them is bound or when the viewport gets
+ * within PREFETCH_PAGES of them, and dropped again once the viewport is more
+ * than RETAIN_PAGES away, so memory stays flat however large the catalog is.
+ * A server that ignores offset/limit and answers with the whole array is
+ * detected on the first page; the catalog is then kept in full.
+ * A page that failed is not asked for again until a backoff has passed,
+ * doubling with each failure in a row, however often its rows are bound.
+ * All methods must be called on the main thread.
+ * 分页加载目录：按需取页，提前预取，远离可视区域的页会被丢弃
+ */
+public class PagedCatalog implements CatalogSource {
+    private static final String TAG = PagedCatalog.class.getSimpleName();
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int PREFETCH_PAGES   = 2;  // pages loaded ahead of the last visible row
+    private static final int RETAIN_PAGES     = 3;  // pages kept on either side before being dropped
+    private static final long RETRY_BASE_MS   = 1000; // after a page failed, doubled with each failure in a row
+    private static final long RETRY_MAX_MS    = 60 * 1000;
+
+    public interface Listener {
+        /** Rows were added, loaded or dropped. */
+        void onCatalogChanged();
+    }
+
+    private final VolleySingleton        mVolley;
+    private final String                 mBaseUrl;
+    private final int                    mPageSize;
+    private final Listener               mListener;
+    private final Response.ErrorListener mErrorListener;
+
+    private final StringTable                mGenres   = new StringTable();
+    private final Map<Integer, CatalogStore> mPages    = new HashMap<Integer, CatalogStore>();
+    private final Map<Integer, PageLoad>     mInFlight = new HashMap<Integer, PageLoad>();
+    private final Map<Integer, PageFailure>  mFailed   = new HashMap<Integer, PageFailure>();
+    private int     mCount;       // rows known so far; exact once mEndReached
+    private boolean mEndReached;
+    private boolean mUnpaged;     // server sent more than one page for a single request
+
+    public PagedCatalog(VolleySingleton volley, String baseUrl, int pageSize,
+                        Listener listener, Response.ErrorListener errorListener) {
+        mVolley        = volley;
+        mBaseUrl       = baseUrl;
+        mPageSize      = pageSize;
+        mListener      = listener;
+        mErrorListener = errorListener;
+    }
+
+    /**
+     * Load the first page plus the prefetch window.
+     */
+    public void start() {
+        onViewport(0, 0);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public CatalogStore getStore(int position) {
+        int page = position / mPageSize;
+        CatalogStore store = mPages.get(page);
+        if (store == null || position - page * mPageSize >= store.size()) {
+            requestPage(page);
+            return null;
+        }
+        return store;
+    }
+
+    @Override
+    public int getStoreIndex(int position) {
+        return position % mPageSize;
+    }
+
+    public StringTable getGenreTable() {
+        return mGenres;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    public int getLoadedPageCount() {
+        return mPages.size();
+    }
+
+    public boolean isEndReached() {
+        return mEndReached;
+    }
+
+    /**
+     * Report the rows currently on screen (scroll or D-pad selection).
+     * Loads missing pages up to PREFETCH_PAGES past the last row and drops
+     * pages far from the viewport.
+     */
+    public void onViewport(int firstVisible, int lastVisible) {
+        int firstPage = Math.max(0, firstVisible) / mPageSize;
+        int lastPage  = Math.max(firstVisible, lastVisible) / mPageSize;
+        for (int page = firstPage; page <= lastPage + PREFETCH_PAGES; page++) {
+            requestPage(page);
+        }
+        if (!mUnpaged) {
+            retain(firstPage - RETAIN_PAGES, lastPage + PREFETCH_PAGES + RETAIN_PAGES);
+        }
+    }
+
+    /**
+     * Cancel all pending page loads.
+     */
+    public void cancel() {
+        for (PageLoad load : mInFlight.values()) {
+            load.request.cancel();
+        }
+        mInFlight.clear();
+    }
+
+    private void requestPage(int page) {
+        if (mUnpaged || mPages.containsKey(page) || mInFlight.containsKey(page)) {
+            return;
+        }
+        if (mEndReached && page * mPageSize >= mCount) {
+            return;
+        }
+        PageFailure failure = mFailed.get(page);
+        if (failure != null && SystemClock.uptimeMillis() < failure.retryAtMs) {
+            return;
+        }
+        PageLoad load = new PageLoad(page);
+        mInFlight.put(page, load);
+        mVolley.addToCatalogQueue(load.request);
+    }
+
+    private void retain(int fromPage, int toPage) {
+        boolean changed = false;
+        Iterator<Map.Entry<Integer, CatalogStore>> it = mPages.entrySet().iterator();
+        while (it.hasNext()) {
+            int page = it.next().getKey();
+            if (page < fromPage || page > toPage) {
+                it.remove();
+                changed = true;
+            }
+        }
+        Iterator<Map.Entry<Integer, PageLoad>> loads = mInFlight.entrySet().iterator();
+        while (loads.hasNext()) {
+            Map.Entry<Integer, PageLoad> e = loads.next();
+            if (e.getKey() < fromPage || e.getKey() > toPage) {
+                e.getValue().request.cancel();
+                loads.remove();
+            }
+        }
+        if (changed) {
+            mListener.onCatalogChanged();
+        }
+    }
+
+    private String pageUrl(int page) {
+        return mBaseUrl + (mBaseUrl.indexOf('?') < 0 ? '?' : '&')
+                + "offset=" + (page * mPageSize) + "&limit=" + mPageSize;
+    }
+
+    /**
+     * Failures of a page in a row, and when it may be asked for again.
+     */
+    private static class PageFailure {
+        int  failures;
+        long retryAtMs;
+    }
+
+    /**
+     * One in-flight page request. Rows are stored at their absolute
+     * position, so an unpaged response simply spills into following pages.
+     */
+    private class PageLoad implements CatalogRequest.Listener, Response.ErrorListener {
+        final int            page;
+        final CatalogRequest request;
+        int                  received;
+
+        PageLoad(int page) {
+            this.page    = page;
+            this.request = new CatalogRequest(pageUrl(page), this, this);
+        }
+
+        @Override
+        public void onBatch(List<VideoItem> batch) {
+            int i = 0;
+            while (i < batch.size()) {
+                int position = page * mPageSize + received;
+                int target = position / mPageSize;
+                if (target != page && !mUnpaged) {
+                    Log.w(TAG, "server ignored offset/limit, keeping the whole catalog");
+                    mUnpaged = true;
+                    // the other pages would just download the same array again
+                    for (PageLoad load : mInFlight.values()) {
+                        if (load != this) {
+                            load.request.cancel();
+                        }
+                    }
+                    mInFlight.clear();
+                    mInFlight.put(page, this);
+                }
+                int n = Math.min((target + 1) * mPageSize - position, batch.size() - i);
+                List<VideoItem> slice = batch.subList(i, i + n);
+                CatalogStore store = mPages.get(target);
+                if (store == null) {
+                    CatalogStore.Builder builder = new CatalogStore.Builder(mGenres, n);
+                    for (VideoItem item : slice) {
+                        builder.add(item);
+                    }
+                    store = builder.build();
+                } else {
+                    store = store.append(slice);
+                }
+                mPages.put(target, store);
+                received += n;
+                i += n;
+                mCount = Math.max(mCount, position + n);
+            }
+            mListener.onCatalogChanged();
+        }
+
+        @Override
+        public void onReset() {
+            if (received > 0) {
+                int lastPage = (page * mPageSize + received - 1) / mPageSize;
+                for (int p = page; p <= lastPage; p++) {
+                    mPages.remove(p);
+                }
+                received = 0;
+            }
+        }
+
+        @Override
+        public void onComplete(int total) {
+            mInFlight.remove(page);
+            mFailed.remove(page);
+            if (total < mPageSize || mUnpaged) {
+                mEndReached = true;
+                mCount = page * mPageSize + total;
+                mListener.onCatalogChanged();
+            }
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            mInFlight.remove(page);
+            PageFailure failure = mFailed.get(page);
+            if (failure == null) {
+                failure = new PageFailure();
+                mFailed.put(page, failure);
+            }
+            long backoffMs = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(failure.failures, 16));
+            failure.failures++;
+            failure.retryAtMs = SystemClock.uptimeMillis() + backoffMs;
+            if (mErrorListener != null) {
+                mErrorListener.onErrorResponse(error);
+            }
+        }
+    }
+}
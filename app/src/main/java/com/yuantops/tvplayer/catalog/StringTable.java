@@ -0,0 +1,61 @@
+package com.yuantops.tvplayer.catalog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only table interning low-cardinality strings (genres) to small ids.
+ * Id 0 is reserved for null/empty. Shared by all stores of one catalog so ids
+ * stay comparable across pages.
+ */
+public class StringTable {
+    public static final int NONE = 0;
+    private static final int MAX_ID = Short.MAX_VALUE;
+
+    private final Map<String, Integer> mIds    = new HashMap<String, Integer>();
+    private final List<String>         mValues = new ArrayList<String>();
+
+    public StringTable() {
+        mValues.add(null);
+    }
+
+    public synchronized int intern(String value) {
+        if (value == null || value.length() == 0) {
+            return NONE;
+        }
+        Integer id = mIds.get(value);
+        if (id == null) {
+            if (mValues.size() > MAX_ID) {
+                throw new IllegalStateException("More than " + MAX_ID + " distinct values");
+            }
+            id = mValues.size();
+            mValues.add(value);
+            mIds.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return id of value, or -1 if it was never interned
+     */
+    public synchronized int lookup(String value) {
+        if (value == null || value.length() == 0) {
+            return NONE;
+        }
+        Integer id = mIds.get(value);
+        return id == null ? -1 : id;
+    }
+
+    public synchronized String get(int id) {
+        return mValues.get(id);
+    }
+
+    /**
+     * @return number of ids handed out, including NONE
+     */
+    public synchronized int size() {
+        return mValues.size();
+    }
+}
@@ -0,0 +1,76 @@
+package com.yuantops.tvplayer.catalog;
+
+/**
+ * One row of the catalog returned by the web api server.
+ * Only the fields the player actually uses are kept; everything else in the
+ * JSON object is skipped by {@link CatalogParser}.
+ */
+public class VideoItem {
+    private final String videoNameCn;
+    private final String genre;
+    private final String releaseDate;
+    private final String standardDefiUrl;
+    private final String highDefiUrl;     // optional, null when the server has no such rendition
+    private final String superDefiUrl;    // optional, likewise
+    private final String broadcastUrl;
+    private final String posterUrl;       // optional, null when the title has no poster art
+
+    public VideoItem(String videoNameCn, String genre, String releaseDate,
+                     String standardDefiUrl, String broadcastUrl) {
+        this(videoNameCn, genre, releaseDate, standardDefiUrl, null, null, broadcastUrl);
+    }
+
+    public VideoItem(String videoNameCn, String genre, String releaseDate, String standardDefiUrl,
+                     String highDefiUrl, String superDefiUrl, String broadcastUrl) {
+        this(videoNameCn, genre, releaseDate, standardDefiUrl, highDefiUrl, superDefiUrl, broadcastUrl, null);
+    }
+
+    public VideoItem(String videoNameCn, String genre, String releaseDate, String standardDefiUrl,
+                     String highDefiUrl, String superDefiUrl, String broadcastUrl, String posterUrl) {
+        this.videoNameCn     = videoNameCn;
+        this.genre           = genre;
+        this.releaseDate     = releaseDate;
+        this.standardDefiUrl = standardDefiUrl;
+        this.highDefiUrl     = highDefiUrl;
+        this.superDefiUrl    = superDefiUrl;
+        this.broadcastUrl    = broadcastUrl;
+        this.posterUrl       = posterUrl;
+    }
+
+    public String getVideoNameCn() {
+        return videoNameCn;
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public String getReleaseDate() {
+        return releaseDate;
+    }
+
+    public String getStandardDefiUrl() {
+        return standardDefiUrl;
+    }
+
+    public String getHighDefiUrl() {
+        return highDefiUrl;
+    }
+
+    public String getSuperDefiUrl() {
+        return superDefiUrl;
+    }
+
+    public String getBroadcastUrl() {
+        return broadcastUrl;
+    }
+
+    public String getPosterUrl() {
+        return posterUrl;
+    }
+
+    @Override
+    public String toString() {
+        return videoNameCn;
+    }
+}
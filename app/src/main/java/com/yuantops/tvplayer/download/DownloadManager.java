@@ -0,0 +1,966 @@
+package com.yuantops.tvplayer.download;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads titles for offline playback. A file is split into chunks of
+ * {@link #CHUNK_SIZE} fetched with Range requests over several connections
+ * and written where they belong in "name.part" with positional FileChannel
+ * writes. How far each chunk got is kept in "name.state" next to it, written
+ * only after the data is forced to disk, so a download killed at any point
+ * resumes from there: call {@link #restore} once at start up. A download the
+ * user paused is marked so in its state file and stays paused. A finished
+ * download is renamed to "name.video", see {@link #getCompletedFile}.
+ * All downloads share maxConnections connections and maxBytesPerSecond.
+ * A server without range support is downloaded over one connection, from the
+ * start again after each failure.
+ * Thread safe; listeners are called on download threads.
+ * 视频下载：分块并发Range请求，定位写入，断点续传，全局限速与限连接数
+ */
+public class DownloadManager {
+    private static final String TAG = DownloadManager.class.getSimpleName();
+    public static final int     CHUNK_SIZE         = 4 * 1024 * 1024;
+    private static final int    CHECKPOINT_BYTES   = 1024 * 1024; // data forced and chunk state saved this often
+    private static final int    BUFFER_SIZE        = 64 * 1024;
+    private static final int    MAX_RETRIES        = 5;
+    private static final long   RETRY_BASE_MS      = 1000;        // doubled after every failed attempt
+    private static final int    CONNECT_TIMEOUT_MS = 10000;
+    private static final int    READ_TIMEOUT_MS    = 20000;
+    private static final int    STATE_MAGIC        = 0x444c5331;  // "DLS1"
+    private static final String PART_SUFFIX        = ".part";
+    private static final String STATE_SUFFIX       = ".state";
+    private static final String VIDEO_SUFFIX       = ".video";
+
+    public static final int STATE_QUEUED   = 0;
+    public static final int STATE_RUNNING  = 1;
+    public static final int STATE_PAUSED   = 2;
+    public static final int STATE_COMPLETE = 3;
+    public static final int STATE_FAILED   = 4;
+
+    /**
+     * Called on a download thread.
+     */
+    public interface Listener {
+        /** Some more bytes of download arrived, at most once per checkpoint per chunk. */
+        void onProgress(Download download);
+
+        void onComplete(Download download, File file);
+
+        /** download gave up after retrying; enqueue it again to go on. */
+        void onError(Download download, IOException e);
+    }
+
+    /**
+     * Counters since the manager was created.
+     */
+    public static class Stats {
+        public long started;     // downloads enqueued or restored
+        public long completed;
+        public long failed;
+        public long chunks;      // chunks finished
+        public long retries;     // failed requests tried again
+        public long bytes;       // bytes downloaded
+        public long connections; // requests running now
+
+        @Override
+        public String toString() {
+            return "started=" + started + " completed=" + completed + " failed=" + failed + " chunks=" + chunks
+                    + " retries=" + retries + " bytes=" + bytes + " connections=" + connections;
+        }
+    }
+
+    /**
+     * One title being downloaded. The chunk fields are set once the length is known.
+     */
+    public class Download {
+        private final String url;
+        private final String name;
+        private volatile int state = STATE_QUEUED;
+        private volatile IOException error;
+        private final AtomicLong bytesDone = new AtomicLong();
+        private long   length = -1;
+        private long   chunkSize;     // the whole file if the server ignores ranges
+        private long[] done;          // bytes of each chunk on disk; each written by its own task only
+        private boolean[] fetching;   // a task has the chunk, under the manager's lock
+        private long   doneOffset;    // of done[0] in the state file
+        private FileChannel data;
+        private FileChannel stateChannel;
+        private int  tasks;           // chunk tasks queued or running, under the manager's lock
+        private boolean removed;
+        private boolean pausedByUser; // rather than by shutdown, under the manager's lock
+        private boolean savedPaused;  // what the state file says, under the manager's lock
+
+        Download(String url) {
+            this.url = url;
+            this.name = fileName(url);
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /** @return the file length, -1 until the server told it */
+        public long getLength() {
+            return length;
+        }
+
+        public long getBytesDone() {
+            return bytesDone.get();
+        }
+
+        public int getState() {
+            return state;
+        }
+
+        /** @return why the download failed, if it did */
+        public IOException getError() {
+            return error;
+        }
+
+        /** @return how much is done, from 0 to 1 */
+        public float getProgress() {
+            return length <= 0 ? 0 : (float) bytesDone.get() / length;
+        }
+
+        long chunkStart(int index) {
+            return index * chunkSize;
+        }
+
+        long chunkLength(int index) {
+            return Math.min(chunkSize, length - chunkStart(index));
+        }
+
+        boolean isStopped() {
+            return state == STATE_PAUSED || state == STATE_FAILED || removed;
+        }
+
+        @Override
+        public String toString() {
+            return url + " " + bytesDone.get() + "/" + length + " state=" + state;
+        }
+    }
+
+    private final File mDir;
+    private final RateLimiter mLimiter;
+    private final ThreadPoolExecutor mExecutor;
+    private final Map<String, Download> mDownloads = new HashMap<String, Download>();
+    private final Stats mStats = new Stats();
+    private volatile Listener mListener;
+
+    /**
+     * @param dir where downloads are kept; created if missing
+     * @param maxConnections requests running at once, over all downloads
+     * @param maxBytesPerSecond over all downloads, 0 for no limit
+     */
+    public DownloadManager(File dir, int maxConnections, long maxBytesPerSecond) {
+        mDir = dir;
+        mLimiter = new RateLimiter(maxBytesPerSecond);
+        mExecutor = new ThreadPoolExecutor(maxConnections, maxConnections, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, TAG);
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxConnections);
+            mExecutor.setCorePoolSize(maxConnections);
+        } else {
+            mExecutor.setCorePoolSize(maxConnections);
+            mExecutor.setMaximumPoolSize(maxConnections);
+        }
+    }
+
+    /**
+     * @param maxBytesPerSecond 0 for no limit
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        mLimiter.setRate(maxBytesPerSecond);
+    }
+
+    /**
+     * Resume the downloads a previous process left unfinished, in the background;
+     * those the user paused are only listed, paused.
+     */
+    public void restore() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    if (file.getName().endsWith(STATE_SUFFIX)) {
+                        String url = readUrl(file);
+                        if (url == null) {
+                            deleteFiles(file.getName().substring(0, file.getName().length() - STATE_SUFFIX.length()));
+                        } else if (isPaused(file)) {
+                            restorePaused(url);
+                        } else {
+                            enqueue(url);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Start downloading url, or go on with it if paused or failed.
+     * @return the download; complete right away if the file is already there
+     */
+    public synchronized Download enqueue(String url) {
+        Download download = mDownloads.get(url);
+        if (download == null) {
+            download = new Download(url);
+            mDownloads.put(url, download);
+            mStats.started++;
+            if (new File(mDir, download.name + VIDEO_SUFFIX).exists()) {
+                download.state = STATE_COMPLETE;
+                return download;
+            }
+        } else if (download.state == STATE_QUEUED || download.state == STATE_RUNNING
+                || download.state == STATE_COMPLETE) {
+            return download;
+        }
+        download.state = STATE_QUEUED;
+        download.error = null;
+        download.pausedByUser = false;
+        download.tasks++;
+        mExecutor.execute(new StartTask(download));
+        return download;
+    }
+
+    /**
+     * Stop downloading url after the chunks in progress reach a checkpoint;
+     * {@link #enqueue} goes on from there.
+     */
+    public synchronized void pause(String url) {
+        Download download = mDownloads.get(url);
+        if (download != null && (download.state == STATE_QUEUED || download.state == STATE_RUNNING)) {
+            download.state = STATE_PAUSED;
+            download.pausedByUser = true; // saved by the last task, off this thread
+        }
+    }
+
+    /**
+     * List a download a previous process left paused by the user, without starting it.
+     */
+    private synchronized void restorePaused(String url) {
+        if (!mDownloads.containsKey(url)) {
+            Download download = new Download(url);
+            download.state = STATE_PAUSED;
+            download.pausedByUser = true;
+            mDownloads.put(url, download);
+        }
+    }
+
+    /**
+     * Stop downloading url and delete what was downloaded, finished or not.
+     */
+    public synchronized void remove(String url) {
+        Download download = mDownloads.remove(url);
+        String name = fileName(url);
+        if (download != null) {
+            download.removed = true;
+            if (download.tasks > 0) {
+                return; // the last task deletes the files
+            }
+            closeFiles(download);
+        }
+        deleteFiles(name);
+        new File(mDir, name + VIDEO_SUFFIX).delete();
+    }
+
+    public synchronized Download get(String url) {
+        return mDownloads.get(url);
+    }
+
+    public synchronized List<Download> getDownloads() {
+        return new ArrayList<Download>(mDownloads.values());
+    }
+
+    /**
+     * @return the downloaded file of url, or null unless it is complete
+     */
+    public File getCompletedFile(String url) {
+        File file = new File(mDir, fileName(url) + VIDEO_SUFFIX);
+        return file.exists() ? file : null;
+    }
+
+    public Stats getStats() {
+        synchronized (mStats) {
+            Stats copy = new Stats();
+            copy.started     = mStats.started;
+            copy.completed   = mStats.completed;
+            copy.failed      = mStats.failed;
+            copy.chunks      = mStats.chunks;
+            copy.retries     = mStats.retries;
+            copy.bytes       = mStats.bytes;
+            copy.connections = mStats.connections;
+            return copy;
+        }
+    }
+
+    /**
+     * Stop all downloads; they resume with the next manager's {@link #restore}.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            for (Download download : mDownloads.values()) {
+                if (download.state == STATE_QUEUED || download.state == STATE_RUNNING) {
+                    download.state = STATE_PAUSED;
+                }
+            }
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Learns the length, opens or creates the files and queues the chunks not done yet.
+     */
+    private class StartTask implements Runnable {
+        private final Download download;
+
+        StartTask(Download download) {
+            this.download = download;
+        }
+
+        @Override
+        public void run() {
+            IOException failure = null;
+            try {
+                if (!download.isStopped()) {
+                    start(download);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            taskDone(download, -1, failure);
+        }
+    }
+
+    private class ChunkTask implements Runnable {
+        private final Download download;
+        private final int      index;
+
+        ChunkTask(Download download, int index) {
+            this.download = download;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            IOException failure = null;
+            for (int attempt = 0; !download.isStopped(); attempt++) {
+                try {
+                    fetchChunk(download, index);
+                    if (download.done[index] == download.chunkLength(index)) {
+                        synchronized (mStats) {
+                            mStats.chunks++;
+                        }
+                    }
+                    break;
+                } catch (IOException e) {
+                    if (attempt >= MAX_RETRIES || e instanceof ChangedException) {
+                        failure = e;
+                        break;
+                    }
+                    synchronized (mStats) {
+                        mStats.retries++;
+                    }
+                    Log.w(TAG, "chunk " + index + " of " + download.url + " failed, retrying: " + e);
+                    try {
+                        Thread.sleep(RETRY_BASE_MS << attempt);
+                    } catch (InterruptedException ie) {
+                        failure = new IOException("interrupted");
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    failure = new IOException("interrupted");
+                    break;
+                }
+            }
+            taskDone(download, index, failure);
+        }
+    }
+
+    /**
+     * The server's file is no longer the one partly downloaded.
+     */
+    private static class ChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private void start(Download download) throws IOException {
+        // a pause and enqueue can queue another start while the first one still probes
+        synchronized (download) {
+            if (download.data == null) {
+                if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                    throw new IOException("Cannot create " + mDir);
+                }
+                File stateFile = new File(mDir, download.name + STATE_SUFFIX);
+                if (!(stateFile.exists() && openState(download, stateFile))) {
+                    createState(download, stateFile);
+                }
+            }
+        }
+        synchronized (this) {
+            if (download.state != STATE_QUEUED) {
+                return; // paused or removed meanwhile
+            }
+            download.state = STATE_RUNNING;
+            if (download.savedPaused) {
+                savePaused(download, false);
+            }
+            for (int i = 0; i < download.done.length; i++) {
+                // a chunk still fetched by a task from before a pause is left to it
+                if (download.done[i] < download.chunkLength(i) && !download.fetching[i]) {
+                    download.fetching[i] = true;
+                    download.tasks++;
+                    mExecutor.execute(new ChunkTask(download, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Pick up the chunk state a previous run left.
+     * @return false if it is unusable
+     */
+    private boolean openState(Download download, File stateFile) {
+        File part = new File(mDir, download.name + PART_SUFFIX);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(stateFile, "rw");
+            if (raf.readInt() != STATE_MAGIC || !raf.readUTF().equals(download.url)) {
+                raf.close();
+                return false;
+            }
+            long length = raf.readLong();
+            long chunkSize = raf.readLong();
+            int chunks = raf.readInt();
+            if (chunkSize <= 0 || chunks != chunkCount(length, chunkSize) || !part.exists()) {
+                raf.close();
+                return false;
+            }
+            long doneOffset = raf.getFilePointer();
+            long[] done = new long[chunks];
+            long total = 0;
+            download.length = length;
+            download.chunkSize = chunkSize;
+            for (int i = 0; i < chunks; i++) {
+                // the state is saved after the data, so at worst it is behind it
+                done[i] = Math.max(0, Math.min(raf.readLong(), download.chunkLength(i)));
+                total += done[i];
+            }
+            // absent in state files written before the flag was
+            boolean paused = raf.getFilePointer() < raf.length() && raf.readByte() != 0;
+            download.done = done;
+            download.fetching = new boolean[chunks];
+            download.doneOffset = doneOffset;
+            download.savedPaused = paused;
+            download.stateChannel = raf.getChannel();
+            download.data = new RandomAccessFile(part, "rw").getChannel();
+            download.bytesDone.set(total);
+            Log.v(TAG, "resuming " + download);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "unusable state " + stateFile + ": " + e);
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+            download.length = -1;
+            return false;
+        }
+    }
+
+    /**
+     * Ask the server for the length and start a new download of it.
+     */
+    private void createState(Download download, File stateFile) throws IOException {
+        long length;
+        long chunkSize = CHUNK_SIZE;
+        HttpURLConnection connection = open(download.url, 0, 0);
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                length = totalOf(connection.getHeaderField("Content-Range"));
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                // no range support: one chunk over one connection
+                length = lengthOf(connection);
+                chunkSize = Math.max(1, length);
+            } else {
+                throw new IOException("HTTP " + code + " for " + download.url);
+            }
+        } finally {
+            connection.disconnect();
+        }
+        if (length < 0) {
+            throw new IOException("Unknown length of " + download.url);
+        }
+        if (mDir.getUsableSpace() < length) {
+            throw new IOException("Not enough space for " + length + " bytes");
+        }
+        int chunks = chunkCount(length, chunkSize);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(STATE_MAGIC);
+        out.writeUTF(download.url);
+        out.writeLong(length);
+        out.writeLong(chunkSize);
+        out.writeInt(chunks);
+        long doneOffset = header.size();
+        for (int i = 0; i < chunks; i++) {
+            out.writeLong(0);
+        }
+        out.writeByte(0); // paused by the user
+        out.close();
+
+        RandomAccessFile part = new RandomAccessFile(new File(mDir, download.name + PART_SUFFIX), "rw");
+        part.setLength(length);
+        // whole before it is renamed into place: a state file is either absent or complete
+        File tmp = new File(mDir, download.name + STATE_SUFFIX + ".tmp");
+        FileOutputStream tmpOut = new FileOutputStream(tmp);
+        try {
+            tmpOut.write(header.toByteArray());
+            tmpOut.getFD().sync();
+        } finally {
+            tmpOut.close();
+        }
+        if (!tmp.renameTo(stateFile)) {
+            part.close();
+            throw new IOException("Cannot rename " + tmp);
+        }
+        download.length = length;
+        download.chunkSize = chunkSize;
+        download.done = new long[chunks];
+        download.fetching = new boolean[chunks];
+        download.doneOffset = doneOffset;
+        download.savedPaused = false;
+        download.data = part.getChannel();
+        download.stateChannel = new RandomAccessFile(stateFile, "rw").getChannel();
+        download.bytesDone.set(0);
+        Log.v(TAG, "starting " + download + " in " + chunks + " chunks");
+    }
+
+    private void fetchChunk(Download download, int index) throws IOException, InterruptedException {
+        long chunkEnd = download.chunkStart(index) + download.chunkLength(index);
+        long position = download.chunkStart(index) + download.done[index];
+        if (position >= chunkEnd) {
+            return;
+        }
+        HttpURLConnection connection = open(download.url, position, chunkEnd - 1);
+        synchronized (mStats) {
+            mStats.connections++;
+        }
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                if (totalOf(contentRange) != download.length) {
+                    throw new ChangedException("Length of " + download.url + " changed: " + contentRange);
+                }
+                if (!contentRange.contains(" " + position + "-")) {
+                    throw new IOException("Unexpected range " + contentRange);
+                }
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                if (lengthOf(connection) != download.length) {
+                    throw new ChangedException("Length of " + download.url + " changed");
+                }
+                if (download.done.length > 1) {
+                    // the whole file where one chunk was asked for: the server stopped serving
+                    // ranges, so start over and let the probe pick a single chunk
+                    throw new ChangedException(download.url + " no longer serves ranges");
+                }
+                if (download.done[index] > 0) {
+                    // the whole file again: what is on disk is rewritten with the same bytes
+                    download.bytesDone.addAndGet(-download.done[index]);
+                    download.done[index] = 0;
+                    position = 0;
+                }
+            } else {
+                throw new IOException("HTTP " + code + " for " + download.url);
+            }
+            InputStream in = connection.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            int sinceCheckpoint = 0;
+            try {
+                while (position < chunkEnd) {
+                    if (download.isStopped()) {
+                        return;
+                    }
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, chunkEnd - position));
+                    if (n < 0) {
+                        throw new IOException("Short body at " + position + " of " + download.url);
+                    }
+                    mLimiter.acquire(n);
+                    wrapped.clear().limit(n);
+                    while (wrapped.hasRemaining()) {
+                        position += download.data.write(wrapped, position);
+                    }
+                    download.done[index] += n;
+                    download.bytesDone.addAndGet(n);
+                    synchronized (mStats) {
+                        mStats.bytes += n;
+                    }
+                    sinceCheckpoint += n;
+                    if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+                        checkpoint(download, index);
+                        sinceCheckpoint = 0;
+                    }
+                }
+            } finally {
+                if (sinceCheckpoint > 0) {
+                    checkpoint(download, index);
+                }
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+            synchronized (mStats) {
+                mStats.connections--;
+            }
+        }
+    }
+
+    /**
+     * Save how far chunk index got, once its data is on disk.
+     */
+    private void checkpoint(Download download, int index) throws IOException {
+        download.data.force(false);
+        ByteBuffer value = ByteBuffer.allocate(8);
+        value.putLong(0, download.done[index]);
+        long offset = download.doneOffset + 8L * index;
+        while (value.hasRemaining()) {
+            download.stateChannel.write(value, offset + value.position());
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onProgress(download);
+        }
+    }
+
+    /**
+     * A task of download ended; the last one settles the download's state.
+     * @param index chunk of a chunk task, -1 for the start task
+     * @param failure why the task gave up, or null
+     */
+    private void taskDone(Download download, int index, IOException failure) {
+        File completed = null;
+        boolean finished;
+        synchronized (this) {
+            if (index >= 0) {
+                if (failure == null && download.state == STATE_RUNNING && !download.removed
+                        && download.done[index] < download.chunkLength(index)) {
+                    // stopped by a pause, and resumed before this task was done: start() left
+                    // the chunk to it, so it goes on in a new task
+                    download.tasks++;
+                    mExecutor.execute(new ChunkTask(download, index));
+                } else {
+                    download.fetching[index] = false;
+                }
+            }
+            if (failure != null && !download.removed && download.state != STATE_FAILED) {
+                Log.w(TAG, "download of " + download.url + " failed: " + failure);
+                download.error = failure;
+                download.state = STATE_FAILED;
+                synchronized (mStats) {
+                    mStats.failed++;
+                }
+            }
+            download.tasks--;
+            finished = download.tasks == 0;
+            if (finished && download.removed) {
+                closeFiles(download);
+                deleteFiles(download.name);
+                return;
+            }
+            if (finished && download.done != null && download.state == STATE_RUNNING) {
+                if (countLeft(download) == 0) {
+                    completed = complete(download);
+                }
+            }
+            if (finished && download.state == STATE_PAUSED && download.pausedByUser != download.savedPaused) {
+                savePaused(download, download.pausedByUser);
+            }
+            if (finished && download.state != STATE_RUNNING && download.state != STATE_COMPLETE) {
+                if (download.error instanceof ChangedException) {
+                    // start over with the new file on the next enqueue
+                    closeFiles(download);
+                    deleteFiles(download.name);
+                    download.done = null;
+                    download.length = -1;
+                    download.bytesDone.set(0);
+                } else {
+                    closeFiles(download);
+                }
+            }
+        }
+        Listener listener = mListener;
+        if (!finished || listener == null) {
+            return;
+        }
+        if (completed != null) {
+            listener.onComplete(download, completed);
+        } else if (download.state == STATE_FAILED) {
+            listener.onError(download, download.error);
+        }
+    }
+
+    /**
+     * All chunks are on disk: move the file into place.
+     * @return the file, null if that failed
+     */
+    private File complete(Download download) {
+        File part = new File(mDir, download.name + PART_SUFFIX);
+        File video = new File(mDir, download.name + VIDEO_SUFFIX);
+        try {
+            download.data.force(true);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot sync " + part + ": " + e);
+        }
+        closeFiles(download);
+        if (!part.renameTo(video)) {
+            download.error = new IOException("Cannot rename " + part);
+            download.state = STATE_FAILED;
+            synchronized (mStats) {
+                mStats.failed++;
+            }
+            return null;
+        }
+        new File(mDir, download.name + STATE_SUFFIX).delete();
+        download.state = STATE_COMPLETE;
+        synchronized (mStats) {
+            mStats.completed++;
+        }
+        Log.v(TAG, "completed " + download + ", " + getStats());
+        return video;
+    }
+
+    private static int countLeft(Download download) {
+        int left = 0;
+        for (int i = 0; i < download.done.length; i++) {
+            if (download.done[i] < download.chunkLength(i)) {
+                left++;
+            }
+        }
+        return left;
+    }
+
+    private void closeFiles(Download download) {
+        try {
+            if (download.data != null) {
+                download.data.close();
+            }
+            if (download.stateChannel != null) {
+                download.stateChannel.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot close files of " + download.url + ": " + e);
+        }
+        download.data = null;
+        download.stateChannel = null;
+    }
+
+    private void deleteFiles(String name) {
+        new File(mDir, name + PART_SUFFIX).delete();
+        new File(mDir, name + STATE_SUFFIX).delete();
+    }
+
+    /**
+     * Mark in the state file whether the user paused download, so a restart
+     * leaves it paused.
+     */
+    private void savePaused(Download download, boolean paused) {
+        ByteBuffer value = ByteBuffer.allocate(1);
+        value.put(0, (byte) (paused ? 1 : 0));
+        RandomAccessFile raf = null;
+        try {
+            FileChannel channel = download.stateChannel;
+            long offset;
+            if (channel != null) {
+                offset = download.doneOffset + 8L * download.done.length;
+            } else {
+                // paused before it was started
+                File stateFile = new File(mDir, download.name + STATE_SUFFIX);
+                if (!stateFile.exists()) {
+                    return;
+                }
+                raf = new RandomAccessFile(stateFile, "rw");
+                offset = pausedOffset(raf);
+                if (offset < 0) {
+                    return;
+                }
+                channel = raf.getChannel();
+            }
+            while (value.hasRemaining()) {
+                channel.write(value, offset + value.position());
+            }
+            download.savedPaused = paused;
+        } catch (IOException e) {
+            Log.w(TAG, "cannot save the pause of " + download.url + ": " + e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the state file is marked paused by the user
+     */
+    private static boolean isPaused(File stateFile) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(stateFile, "r");
+            long offset = pausedOffset(raf);
+            if (offset < 0 || offset >= raf.length()) {
+                return false;
+            }
+            raf.seek(offset);
+            return raf.readByte() != 0;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return offset of the paused flag in a state file, after the chunk
+     *         progress; -1 if it is not a state file
+     */
+    private static long pausedOffset(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        if (raf.readInt() != STATE_MAGIC) {
+            return -1;
+        }
+        raf.readUTF();
+        raf.readLong();
+        raf.readLong();
+        int chunks = raf.readInt();
+        return raf.getFilePointer() + 8L * chunks;
+    }
+
+    /**
+     * @return the url saved in a state file, null if it is unreadable
+     */
+    private static String readUrl(File stateFile) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(stateFile, "r");
+            return raf.readInt() == STATE_MAGIC ? raf.readUTF() : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * GET bytes [from, to] of url.
+     */
+    private static HttpURLConnection open(String url, long from, long to) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Range", "bytes=" + from + "-" + to);
+        return connection;
+    }
+
+    /**
+     * @return the total length in a Content-Range header, -1 if unknown
+     */
+    private static long totalOf(String contentRange) throws IOException {
+        int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+        if (slash < 0 || contentRange.endsWith("*")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad Content-Range " + contentRange);
+        }
+    }
+
+    private static int chunkCount(long length, long chunkSize) {
+        return (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * @return Content-Length, which may not fit getContentLength()'s int
+     */
+    private static long lengthOf(HttpURLConnection connection) throws IOException {
+        String length = connection.getHeaderField("Content-Length");
+        try {
+            return length == null ? -1 : Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad Content-Length " + length);
+        }
+    }
+
+    /**
+     * Same naming as the media cache: a hash of each half of the url.
+     */
+    private static String fileName(String url) {
+        int half = url.length() / 2;
+        return String.valueOf(url.substring(0, half).hashCode())
+                + String.valueOf(url.substring(half).hashCode());
+    }
+}
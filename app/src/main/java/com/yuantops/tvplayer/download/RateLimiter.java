@@ -0,0 +1,50 @@
+package com.yuantops.tvplayer.download;
+
+/**
+ * Paces byte transfers shared by several threads to a common rate. Each
+ * thread reserves the time its bytes take at the rate and sleeps until then,
+ * so the rate holds however many threads there are. Up to
+ * {@link #BURST_NANOS} of unused time is kept as credit.
+ * 多线程共享的带宽限速器
+ */
+class RateLimiter {
+    private static final long BURST_NANOS = 500 * 1000000L;
+
+    private long mBytesPerSecond;
+    private long mNextFree; // nanoTime from which the rate is free again
+
+    /**
+     * @param bytesPerSecond 0 for no limit
+     */
+    RateLimiter(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+        mNextFree = System.nanoTime();
+    }
+
+    synchronized void setRate(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    synchronized long getRate() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * Wait until bytes may be transferred.
+     */
+    void acquire(int bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (mBytesPerSecond <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long start = Math.max(mNextFree, now - BURST_NANOS);
+            mNextFree = start + bytes * 1000000000L / mBytesPerSecond;
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.yuantops.tvplayer.player;
+
+import com.yuantops.tvplayer.util.BandwidthMeter;
+
+/**
+ * Picks the definition (STANDARD, HIGH or SUPER) to play from the screen
+ * size, the throughput measured on video downloads and how much video is
+ * buffered ahead of the playhead.
+ * A progressive stream cannot be spliced, so the player only asks at points
+ * where playback is interrupted anyway: start, a stall, a seek, resume after
+ * pause. Going up needs a healthy buffer, throughput well above the next
+ * bitrate, and some time since the last switch; going down happens when the
+ * buffer runs low on a link slower than the current bitrate. The gap between
+ * the two thresholds keeps the choice from flapping.
+ * Plain Java; the throughput comes from the app-wide {@link BandwidthMeter}.
+ * 码率自适应：根据屏幕、吞吐量和缓冲选择清晰度
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class AbrController {
+	public static final byte STANDARD = 1, HIGH = 2, SUPER = 3;
+
+	// nominal bitrate of each definition in bits/s, by tier
+	private static final long[] BITRATES = { 0, 1200000, 2500000, 5000000 };
+	private static final double UP_SHARE           = 0.7;   //bitrate must fit in this share of throughput
+	private static final long   UP_BUFFER_MS       = 15000;
+	private static final long   LOW_BUFFER_MS      = 4000;
+	private static final long   MIN_UP_INTERVAL_MS = 20000;
+
+	private final BandwidthMeter meter;
+	private byte   screenTier = SUPER;
+	private int    switchesUp, switchesDown;
+
+	public AbrController(BandwidthMeter meter) {
+		this.meter = meter;
+	}
+
+	/**
+	 * @return nominal bitrate of tier in bits/s
+	 */
+	public static long getBitrate(byte tier) {
+		return BITRATES[tier];
+	}
+
+	/**
+	 * Renditions larger than the screen are a waste of bandwidth.
+	 */
+	public synchronized void setScreen(int width, int height) {
+		int lines = Math.min(width, height);
+		if (lines >= 1080) {
+			screenTier = SUPER;
+		} else if (lines >= 720) {
+			screenTier = HIGH;
+		} else {
+			screenTier = STANDARD;
+		}
+	}
+
+	public synchronized byte getScreenTier() {
+		return screenTier;
+	}
+
+	/**
+	 * @param urls by tier, null where the title has no such definition
+	 * @return the tier to start with: STANDARD until throughput is known
+	 */
+	public synchronized byte initialTier(String[] urls) {
+		long throughputBps = meter.getThroughputBps();
+		byte tier = lowest(urls);
+		for (byte t = (byte) (tier + 1); t <= screenTier; t++) {
+			if (available(urls, t) && BITRATES[t] <= throughputBps * UP_SHARE) {
+				tier = t;
+			}
+		}
+		return tier;
+	}
+
+	/**
+	 * @param current tier playing now
+	 * @param urls by tier, null where the title has no such definition
+	 * @param bufferAheadMs video buffered beyond the playhead
+	 * @param msSinceSwitch time since the session last changed tier
+	 * @return tier to continue with, current if no change
+	 */
+	public synchronized byte decide(byte current, String[] urls, long bufferAheadMs, long msSinceSwitch) {
+		long throughputBps = meter.getThroughputBps();
+		if (bufferAheadMs < LOW_BUFFER_MS && throughputBps > 0 && throughputBps < BITRATES[current]) {
+			// falling behind: the highest tier the link sustains, at least one down
+			byte tier = current;
+			for (byte t = (byte) (current - 1); t >= STANDARD; t--) {
+				if (available(urls, t)) {
+					tier = t;
+					if (BITRATES[t] <= throughputBps * UP_SHARE) {
+						break;
+					}
+				}
+			}
+			if (tier != current) {
+				switchesDown++;
+			}
+			return tier;
+		}
+		if (bufferAheadMs >= UP_BUFFER_MS && msSinceSwitch >= MIN_UP_INTERVAL_MS) {
+			for (byte t = (byte) (current + 1); t <= screenTier; t++) {
+				if (available(urls, t)) {
+					if (BITRATES[t] <= throughputBps * UP_SHARE) {
+						switchesUp++;
+						return t; //one step at a time
+					}
+					break;
+				}
+			}
+		}
+		return current;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "throughputBps=" + meter.getThroughputBps() + " screenTier=" + screenTier
+				+ " switchesUp=" + switchesUp + " switchesDown=" + switchesDown;
+	}
+
+	private static boolean available(String[] urls, int tier) {
+		return tier < urls.length && urls[tier] != null;
+	}
+
+	private static byte lowest(String[] urls) {
+		for (byte t = STANDARD; t <= SUPER; t++) {
+			if (available(urls, t)) {
+				return t;
+			}
+		}
+		return STANDARD;
+	}
+}
@@ -0,0 +1,136 @@
+package com.yuantops.tvplayer.player;
+
+/**
+ * Keeps a live stream near a target distance behind the live edge.
+ * The latency is estimated from how far the playhead has fallen behind the
+ * wall clock since the stream was joined (every stall adds its length), on
+ * top of the target buffer the stream was joined with. Slightly too far
+ * behind: play a little faster until back on target; far too far behind:
+ * rejoin at the live edge; too close with a thin buffer: play a little slower
+ * so the buffer can refill. Nothing is changed while the player rebuffers.
+ * Plain Java; the player feeds it clock and position readings.
+ * 直播时延控制：按目标缓冲调整播放速度或跳到直播点
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class LiveLatencyController {
+	public static final long  DEFAULT_TARGET_MS = 3000;
+	public static final float MAX_SPEED_UP      = 0.10f; //at most 10% faster
+	public static final float MAX_SLOW_DOWN     = 0.05f; //at most 5% slower
+	private static final long TOLERANCE_MS      = 500;   //no correction within target +/- this
+	private static final long RAMP_MS           = 5000;  //excess at which the full speed-up applies
+	private static final long RESYNC_EXCESS_MS  = 15000; //rejoin beyond target + this
+	private static final float MIN_RATE_STEP    = 0.01f;
+
+	/** What the player should do after a tick */
+	public static final int NONE = 0, SET_RATE = 1, RESYNC = 2;
+
+	private final long targetMs;
+	private long  joinedAtMs = -1;   //wall clock at join
+	private long  joinedPosMs;       //playhead at join
+	private long  latencyMs;
+	private long  maxLatencyMs;
+	private float rate = 1f;
+	private boolean buffering;
+	private int   resyncs, rebuffers;
+	private long  correctedMs;        //wall time spent at a rate other than 1
+	private long  lastTickMs = -1;
+
+	/**
+	 * @param targetMs wanted distance behind the live edge, also the buffer to join with
+	 */
+	public LiveLatencyController(long targetMs) {
+		this.targetMs = targetMs;
+	}
+
+	public long getTargetMs() {
+		return targetMs;
+	}
+
+	/**
+	 * The stream started playing (first time, after a channel switch or a rejoin).
+	 */
+	public void onJoined(long nowMs, long positionMs) {
+		joinedAtMs  = nowMs;
+		joinedPosMs = positionMs;
+		latencyMs   = targetMs;
+		rate        = 1f;
+		buffering   = false;
+		lastTickMs  = nowMs;
+	}
+
+	public void onBufferingStart() {
+		buffering = true;
+		rebuffers++;
+	}
+
+	public void onBufferingEnd() {
+		buffering = false;
+	}
+
+	/**
+	 * A position reading while playing.
+	 * @return NONE, SET_RATE (see {@link #getRate}) or RESYNC
+	 */
+	public int onTick(long nowMs, long positionMs) {
+		if (joinedAtMs < 0) {
+			return NONE;
+		}
+		if (rate != 1f && lastTickMs >= 0) {
+			correctedMs += nowMs - lastTickMs;
+		}
+		lastTickMs = nowMs;
+		long drift = (nowMs - joinedAtMs) - (positionMs - joinedPosMs);
+		latencyMs = targetMs + Math.max(-targetMs, drift);
+		maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+		if (buffering) {
+			return setRate(1f);
+		}
+		long excess = latencyMs - targetMs;
+		if (excess > RESYNC_EXCESS_MS) {
+			resyncs++;
+			joinedAtMs = -1; //until onJoined
+			rate = 1f;
+			return RESYNC;
+		}
+		float wanted;
+		if (excess > TOLERANCE_MS) {
+			wanted = 1f + MAX_SPEED_UP * Math.min(1f, (float) excess / RAMP_MS);
+		} else if (excess < -TOLERANCE_MS) {
+			wanted = 1f - MAX_SLOW_DOWN;
+		} else if (Math.abs(excess) < TOLERANCE_MS / 4) {
+			wanted = 1f; //back on target
+		} else {
+			wanted = rate; //within tolerance: keep going the way we were
+		}
+		return setRate(wanted);
+	}
+
+	/**
+	 * @return playback rate the player should use
+	 */
+	public float getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return estimated distance behind the live edge in ms
+	 */
+	public long getLatencyMs() {
+		return latencyMs;
+	}
+
+	@Override
+	public String toString() {
+		return "latencyMs=" + latencyMs + " targetMs=" + targetMs + " maxLatencyMs=" + maxLatencyMs
+				+ " rate=" + rate + " rebuffers=" + rebuffers + " resyncs=" + resyncs
+				+ " correctedMs=" + correctedMs;
+	}
+
+	private int setRate(float wanted) {
+		if (Math.abs(wanted - rate) < MIN_RATE_STEP && !(wanted == 1f && rate != 1f)) {
+			return NONE;
+		}
+		rate = wanted;
+		return SET_RATE;
+	}
+}
@@ -0,0 +1,270 @@
+package com.yuantops.tvplayer.player;
+
+import io.vov.vitamio.MediaPlayer;
+import io.vov.vitamio.MediaPlayer.OnPreparedListener;
+import io.vov.vitamio.MediaPlayer.OnVideoSizeChangedListener;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.yuantops.tvplayer.util.BandwidthMeter;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps the channels next to the one on screen connected and lightly
+ * buffered by standby Vitamio players without a display, so channel up/down
+ * only has to attach the surface and start instead of setting up the RTSP
+ * session and buffering from scratch.
+ * The budget is a number of neighbours on each side and a buffer size per
+ * standby; on a link too slow to carry them all next to the channel being
+ * watched, fewer standbys are kept.
+ * 直播快速换台：预先连接并少量缓冲相邻频道，换台时直接切换
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class LiveZapper {
+	private static final String TAG = LiveZapper.class.getSimpleName();
+	public static final int  DEFAULT_NEIGHBOURS   = 1;          //on each side
+	static final long LIVE_BITRATE_BPS            = 1500000;    //assumed rate of a live channel
+
+	/**
+	 * A channel being kept ready; listeners are replaced once it is taken.
+	 */
+	public static class Standby implements OnPreparedListener, OnVideoSizeChangedListener {
+		private final String      url;
+		private final MediaPlayer player;
+		private boolean           prepared;
+		private int               width, height;
+
+		Standby(String url, MediaPlayer player) {
+			this.url    = url;
+			this.player = player;
+		}
+
+		@Override
+		public void onPrepared(MediaPlayer mp) {
+			prepared = true;
+		}
+
+		@Override
+		public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+			this.width  = width;
+			this.height = height;
+		}
+
+		public MediaPlayer getPlayer() {
+			return player;
+		}
+
+		public boolean isPrepared() {
+			return prepared;
+		}
+
+		/** 0 until the stream reported its size */
+		public int getVideoWidth() {
+			return width;
+		}
+
+		public int getVideoHeight() {
+			return height;
+		}
+	}
+
+	/**
+	 * Channel switch counters since the zapper was created.
+	 */
+	public static class Stats {
+		public long warmZaps;  //to a prepared standby
+		public long coldZaps;
+		public long warmZapMs; //sum over warm zaps
+		public long coldZapMs; //sum over cold zaps
+		public long standbys;  //standby players set up
+		public long dropped;   //standbys released unused
+
+		@Override
+		public String toString() {
+			return "warmZaps=" + warmZaps + " avgWarmZapMs=" + (warmZaps == 0 ? 0 : warmZapMs / warmZaps)
+					+ " coldZaps=" + coldZaps + " avgColdZapMs=" + (coldZaps == 0 ? 0 : coldZapMs / coldZaps)
+					+ " standbys=" + standbys + " dropped=" + dropped;
+		}
+	}
+
+	private final Context             mContext;
+	private final int                 neighbours;
+	private final long                bufferBytes;
+	private final BandwidthMeter      meter;
+	private final LinkedList<Standby> standbys = new LinkedList<Standby>();
+	private final Stats               stats    = new Stats();
+	private String[]                  channels = new String[0];
+
+	/**
+	 * @return buffer holding latencyMs of a live channel; what a player joins
+	 *         with, and so what a standby must hold for a zap to land at the
+	 *         same distance behind the live edge
+	 */
+	public static long bufferBytes(long latencyMs) {
+		return latencyMs * LIVE_BITRATE_BPS / 8000;
+	}
+
+	/**
+	 * @param neighbours  channels kept ready on each side of the current one
+	 * @param bufferBytes buffer of each standby player, see {@link #bufferBytes(long)}
+	 * @param meter       to keep fewer standbys on a slow link; may be null
+	 */
+	public LiveZapper(Context context, int neighbours, long bufferBytes, BandwidthMeter meter) {
+		this.mContext    = context;
+		this.neighbours  = neighbours;
+		this.bufferBytes = bufferBytes;
+		this.meter       = meter;
+	}
+
+	/**
+	 * @param urls channels in list order; up/down wraps around
+	 */
+	public void setChannels(String[] urls) {
+		channels = urls;
+	}
+
+	public int getChannelCount() {
+		return channels.length;
+	}
+
+	public String getChannel(int index) {
+		return channels[index];
+	}
+
+	/**
+	 * @return index of the channel step places from index, wrapping around
+	 */
+	public int step(int index, int step) {
+		int n = channels.length;
+		return ((index + step) % n + n) % n;
+	}
+
+	/**
+	 * The channel at index is playing: get its neighbours ready and drop
+	 * standbys that are no longer next to it. Call once it is on screen, so
+	 * the standbys do not compete with it while it starts.
+	 */
+	public void onTuned(int index) {
+		int keep = affordableNeighbours();
+		Iterator<Standby> it = standbys.iterator();
+		while (it.hasNext()) {
+			Standby standby = it.next();
+			if (!isNeighbour(standby.url, index, keep)) {
+				it.remove();
+				drop(standby);
+			}
+		}
+		for (int d = 1; d <= keep; d++) {
+			prepare(channels[step(index, d)]);
+			prepare(channels[step(index, -d)]);
+		}
+	}
+
+	/**
+	 * Hand over the standby for url; the caller sets its own listeners and
+	 * display and owns the player from now on.
+	 * @return null if url has no standby
+	 */
+	public Standby take(String url) {
+		Iterator<Standby> it = standbys.iterator();
+		while (it.hasNext()) {
+			Standby standby = it.next();
+			if (standby.url.equals(url)) {
+				it.remove();
+				return standby;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A channel switch completed: the new channel started zapMs after the key press.
+	 */
+	public void onZapped(String url, boolean warm, long zapMs) {
+		if (warm) {
+			stats.warmZaps++;
+			stats.warmZapMs += zapMs;
+		} else {
+			stats.coldZaps++;
+			stats.coldZapMs += zapMs;
+		}
+		Log.v(TAG, (warm ? "warm" : "cold") + " zap to " + url + " in " + zapMs + "ms, " + stats);
+	}
+
+	public Stats getStats() {
+		Stats copy = new Stats();
+		copy.warmZaps  = stats.warmZaps;
+		copy.coldZaps  = stats.coldZaps;
+		copy.warmZapMs = stats.warmZapMs;
+		copy.coldZapMs = stats.coldZapMs;
+		copy.standbys  = stats.standbys;
+		copy.dropped   = stats.dropped;
+		return copy;
+	}
+
+	/**
+	 * Release all standbys
+	 */
+	public void release() {
+		while (!standbys.isEmpty()) {
+			drop(standbys.removeFirst());
+		}
+	}
+
+	/**
+	 * The configured neighbours, fewer if the measured link cannot carry them
+	 * next to the channel on screen, and fewer than there are other channels.
+	 */
+	private int affordableNeighbours() {
+		int keep = Math.min(neighbours, channels.length / 2);
+		long bps = meter == null ? 0 : meter.getThroughputBps();
+		if (bps > 0) {
+			long streams = bps / LIVE_BITRATE_BPS - 1;
+			keep = (int) Math.max(0, Math.min(keep, streams / 2));
+		}
+		return keep;
+	}
+
+	private boolean isNeighbour(String url, int index, int keep) {
+		for (int d = 1; d <= keep; d++) {
+			if (url.equals(channels[step(index, d)]) || url.equals(channels[step(index, -d)])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void prepare(String url) {
+		if (url == null) {
+			return;
+		}
+		for (Standby standby : standbys) {
+			if (standby.url.equals(url)) {
+				return;
+			}
+		}
+		MediaPlayer player = PlayerPools.getVitamioPool(mContext).acquire();
+		Standby standby = new Standby(url, player);
+		try {
+			player.setBufferSize(bufferBytes);
+			player.setOnPreparedListener(standby);
+			player.setOnVideoSizeChangedListener(standby);
+			player.setDataSource(url);
+			player.prepareAsync();
+		} catch (Exception e) {
+			Log.w(TAG, "standby for " + url + " failed: " + e);
+			PlayerPools.getVitamioPool(mContext).recycle(player);
+			return;
+		}
+		standbys.add(standby);
+		stats.standbys++;
+	}
+
+	private void drop(Standby standby) {
+		stats.dropped++;
+		PlayerPools.getVitamioPool(mContext).recycle(standby.player);
+	}
+}
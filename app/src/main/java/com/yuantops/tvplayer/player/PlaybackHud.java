@@ -0,0 +1,112 @@
+package com.yuantops.tvplayer.player;
+
+import com.yuantops.tvplayer.util.StringUtils;
+
+import android.widget.SeekBar;
+import android.widget.TextView;
+
+/**
+ * Current time, total time and progress bar of a player, updated without
+ * creating garbage: times are formatted into char buffers owned by this
+ * object, and a view is only touched when what it shows would change (a new
+ * second on the clock, a new pixel on the bar).
+ * TextView keeps a reference to the chars passed to setText(char[], int, int),
+ * so each view has its own buffer.
+ * 播放进度显示：复用字符缓冲区，内容不变时不刷新控件
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class PlaybackHud {
+	private final TextView currentView, totalView;
+	private final SeekBar  seekBar;
+	private final char[]   currentChars = new char[StringUtils.TIME_CHARS];
+	private final char[]   totalChars   = new char[StringUtils.TIME_CHARS];
+
+	private long shownSecond      = Long.MIN_VALUE;
+	private long shownTotalSecond = Long.MIN_VALUE;
+	private int  shownPixel       = -1;
+	private int  shownBuffered    = -1;
+
+	public PlaybackHud(TextView currentView, TextView totalView, SeekBar seekBar) {
+		this.currentView = currentView;
+		this.totalView   = totalView;
+		this.seekBar     = seekBar;
+	}
+
+	/**
+	 * Show a playback position. Call on the UI thread.
+	 * @param position ms
+	 * @param duration ms, 0 or less if unknown
+	 */
+	public void update(int position, int duration) {
+		updateTime(position, duration);
+		if (duration > 0) {
+			setProgress(progressOf(position, duration));
+		}
+	}
+
+	/**
+	 * Show a time without moving the bar, e.g. the time under the thumb
+	 * while the user drags it.
+	 */
+	public void updateTime(int position, int duration) {
+		long second = position / 1000;
+		if (second != shownSecond) {
+			shownSecond = second;
+			currentView.setText(currentChars, 0, StringUtils.millisToChars(position, currentChars));
+		}
+		long totalSecond = duration / 1000;
+		if (totalSecond != shownTotalSecond) {
+			shownTotalSecond = totalSecond;
+			totalView.setText(totalChars, 0, StringUtils.millisToChars(duration, totalChars));
+		}
+	}
+
+	/**
+	 * @return playback position of a seek bar progress, in ms
+	 */
+	public int positionOf(int progress, int duration) {
+		int max = seekBar.getMax();
+		return max > 0 ? (int) ((long) progress * duration / max) : 0;
+	}
+
+	/**
+	 * @return seek bar progress for a position, in [0, getMax()]
+	 */
+	public int progressOf(int position, int duration) {
+		if (duration <= 0) {
+			return 0;
+		}
+		return (int) ((long) seekBar.getMax() * position / duration);
+	}
+
+	/**
+	 * Move the bar, unless the thumb would land on the pixel it is on already.
+	 */
+	public void setProgress(int progress) {
+		int max = seekBar.getMax();
+		int width = seekBar.getWidth() - seekBar.getPaddingLeft() - seekBar.getPaddingRight();
+		int pixel = width > 0 && max > 0 ? (int) ((long) progress * width / max) : progress;
+		if (pixel != shownPixel) {
+			shownPixel = pixel;
+			seekBar.setProgress(progress);
+		}
+	}
+
+	public void setBufferedPercent(int percent) {
+		if (percent != shownBuffered) {
+			shownBuffered = percent;
+			seekBar.setSecondaryProgress(percent);
+		}
+	}
+
+	/**
+	 * Forget what is on screen, e.g. after the views were changed elsewhere
+	 * or the user dragged the bar; the next update redraws everything.
+	 */
+	public void invalidate() {
+		shownSecond      = Long.MIN_VALUE;
+		shownTotalSecond = Long.MIN_VALUE;
+		shownPixel       = -1;
+		shownBuffered    = -1;
+	}
+}
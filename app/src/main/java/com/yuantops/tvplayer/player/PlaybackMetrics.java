@@ -0,0 +1,258 @@
+package com.yuantops.tvplayer.player;
+
+/**
+ * Quality-of-experience figures of one playback session: time to first
+ * frame, rebuffers, seek-to-resume latency, dropped frames and bitrate.
+ * Players call the on* methods with {@code SystemClock.uptimeMillis()} as the
+ * events happen, on the main thread; recording is a few field updates and
+ * never allocates. Numbers are {@link #UNKNOWN} where a player cannot tell.
+ * 播放体验指标：首帧时间、卡顿、拖动恢复时延、丢帧、码率
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class PlaybackMetrics {
+	public static final long UNKNOWN = -1;
+
+	/**
+	 * Counts of values in buckets 12.5% wide (exact below 16), so recording
+	 * is a couple of shifts and percentiles, taken at bucket middles, are
+	 * within about 6%.
+	 */
+	public static class Histogram {
+		private static final int LINEAR  = 16;
+		private static final int SUB     = 8; //buckets per power of two
+		private static final int BUCKETS = LINEAR + (63 - 4) * SUB;
+
+		private final long[] counts = new long[BUCKETS];
+		private long count, sum, max;
+
+		public void record(long value) {
+			if (value < 0) {
+				return;
+			}
+			counts[indexOf(value)]++;
+			count++;
+			sum += value;
+			max = Math.max(max, value);
+		}
+
+		public void merge(Histogram other) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += other.counts[i];
+			}
+			count += other.count;
+			sum += other.sum;
+			max = Math.max(max, other.max);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public long getMean() {
+			return count == 0 ? 0 : sum / count;
+		}
+
+		/**
+		 * @param p in (0, 1]
+		 * @return middle of the first bucket with at least p of the values at or below it
+		 */
+		public long getPercentile(double p) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(p * count);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					long low = lowerBound(i);
+					return Math.min(max, low + (lowerBound(i + 1) - low) / 2);
+				}
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "{\"n\":" + count + ",\"mean\":" + getMean() + ",\"p50\":" + getPercentile(0.5)
+					+ ",\"p90\":" + getPercentile(0.9) + ",\"p99\":" + getPercentile(0.99) + ",\"max\":" + max + "}";
+		}
+
+		static int indexOf(long value) {
+			if (value < LINEAR) {
+				return (int) value;
+			}
+			int exp = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >> (exp - 3)) & (SUB - 1);
+			return LINEAR + (exp - 4) * SUB + sub;
+		}
+
+		static long lowerBound(int index) {
+			if (index < LINEAR) {
+				return index;
+			}
+			int exp = (index - LINEAR) / SUB + 4;
+			int sub = (index - LINEAR) % SUB;
+			return (long) (SUB + sub) << (exp - 3);
+		}
+	}
+
+	private final String type;
+	private long startedAt      = UNKNOWN;
+	private long firstFrameAt   = UNKNOWN;
+	private long stoppedAt      = UNKNOWN;
+	private long bufferingSince = UNKNOWN;
+	private long seekingSince   = UNKNOWN;
+	private int  rebuffers;
+	private long rebufferMs;
+	private int  seeks;
+	private long droppedFrames  = UNKNOWN;
+	private long bitrateBps     = UNKNOWN;
+	private final Histogram rebufferHist = new Histogram(); //ms per stall
+	private final Histogram seekHist     = new Histogram(); //ms from seek to playing again
+	private final Histogram bitrateHist  = new Histogram(); //kbit/s samples
+
+	/**
+	 * @param type e.g. "VOD" or "LIVE", for telling sessions apart when exported
+	 */
+	public PlaybackMetrics(String type) {
+		this.type = type;
+	}
+
+	/** Playback was requested */
+	public void onStart(long now) {
+		startedAt = now;
+	}
+
+	/** The first frame is on screen; later calls are ignored */
+	public void onFirstFrame(long now) {
+		if (firstFrameAt == UNKNOWN && startedAt != UNKNOWN) {
+			firstFrameAt = now;
+		}
+	}
+
+	/** Playback stalled for lack of data; ignored before the first frame */
+	public void onBufferingStart(long now) {
+		if (firstFrameAt != UNKNOWN && bufferingSince == UNKNOWN && seekingSince == UNKNOWN) {
+			bufferingSince = now;
+		}
+	}
+
+	public void onBufferingEnd(long now) {
+		if (bufferingSince != UNKNOWN) {
+			long ms = now - bufferingSince;
+			rebuffers++;
+			rebufferMs += ms;
+			rebufferHist.record(ms);
+			bufferingSince = UNKNOWN;
+		}
+	}
+
+	public boolean isBuffering() {
+		return bufferingSince != UNKNOWN;
+	}
+
+	/** A seek was issued; a stall until it resumes counts as seek latency */
+	public void onSeek(long now) {
+		onBufferingEnd(now);
+		seekingSince = now;
+	}
+
+	/** Playback continues after a seek */
+	public void onSeekResumed(long now) {
+		if (seekingSince != UNKNOWN) {
+			seeks++;
+			seekHist.record(now - seekingSince);
+			seekingSince = UNKNOWN;
+		}
+	}
+
+	/** Frames dropped so far, for players that report them */
+	public void setDroppedFrames(long frames) {
+		droppedFrames = frames;
+	}
+
+	/** The stream's bitrate changed, or a new measurement of it */
+	public void onBitrate(long bps) {
+		bitrateBps = bps;
+		bitrateHist.record(bps / 1000);
+	}
+
+	public void onStop(long now) {
+		onBufferingEnd(now);
+		stoppedAt = now;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public long getTtffMs() {
+		return firstFrameAt == UNKNOWN ? UNKNOWN : firstFrameAt - startedAt;
+	}
+
+	public int getRebufferCount() {
+		return rebuffers;
+	}
+
+	public long getRebufferMs() {
+		return rebufferMs;
+	}
+
+	public int getSeekCount() {
+		return seeks;
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	public long getBitrateBps() {
+		return bitrateBps;
+	}
+
+	/**
+	 * @return ms from the first frame to stop without the stalls, UNKNOWN if not stopped
+	 */
+	public long getPlayMs() {
+		if (firstFrameAt == UNKNOWN || stoppedAt == UNKNOWN) {
+			return UNKNOWN;
+		}
+		return stoppedAt - firstFrameAt - rebufferMs;
+	}
+
+	public Histogram getRebufferHistogram() {
+		return rebufferHist;
+	}
+
+	public Histogram getSeekHistogram() {
+		return seekHist;
+	}
+
+	public Histogram getBitrateHistogram() {
+		return bitrateHist;
+	}
+
+	/**
+	 * @return the session as one line of JSON
+	 */
+	public String toJson() {
+		return "{\"type\":\"" + type + "\",\"ttffMs\":" + getTtffMs() + ",\"playMs\":" + getPlayMs()
+				+ ",\"rebuffers\":" + rebuffers + ",\"rebufferMs\":" + rebufferMs
+				+ ",\"seeks\":" + seeks + ",\"droppedFrames\":" + droppedFrames + ",\"bitrateBps\":" + bitrateBps
+				+ ",\"rebuffer\":" + rebufferHist + ",\"seek\":" + seekHist + ",\"bitrateKbps\":" + bitrateHist + "}";
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+}
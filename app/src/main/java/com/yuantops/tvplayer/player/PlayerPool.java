@@ -0,0 +1,158 @@
+package com.yuantops.tvplayer.player;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bounded pool of idle media player instances. A player handed back with
+ * {@link #recycle} is reset and kept for the next {@link #acquire}, so the
+ * next playback skips constructing and initialising a new native player.
+ * Idle players are released after {@link #IDLE_TIMEOUT_MS} (checked whenever
+ * the pool is used, no timer) or at once on {@link #trim}, which
+ * {@link PlayerPools} calls under memory pressure.
+ * 播放器实例池：复用已重置的MediaPlayer，减少创建开销
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class PlayerPool<T> {
+	public static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+	/**
+	 * Creates, resets and releases one kind of player.
+	 */
+	public interface Factory<T> {
+		T create();
+		/** Back to the idle state, with no listeners or display attached. */
+		void reset(T player);
+		void release(T player);
+	}
+
+	public static class Stats {
+		public long acquires;
+		public long reuses;
+		public long creates;
+		public long evictions;
+		public long createNanos;  // spent constructing new players
+		public long resetNanos;   // spent resetting recycled players
+
+		public double getReuseRate() {
+			return acquires == 0 ? 0 : (double) reuses / acquires;
+		}
+
+		/**
+		 * @return construction time avoided by reuse, at the average cost of a
+		 *         construction, minus the time spent resetting
+		 */
+		public long getSetupTimeSavedMs() {
+			if (creates == 0) {
+				return 0;
+			}
+			return (reuses * (createNanos / creates) - resetNanos) / 1000000;
+		}
+
+		@Override
+		public String toString() {
+			return "acquires=" + acquires + " reuses=" + reuses + " creates=" + creates
+					+ " evictions=" + evictions + " reuseRate=" + getReuseRate()
+					+ " setupTimeSavedMs=" + getSetupTimeSavedMs();
+		}
+	}
+
+	private static class Idle<T> {
+		final T    player;
+		final long since;
+
+		Idle(T player, long since) {
+			this.player = player;
+			this.since  = since;
+		}
+	}
+
+	private final Factory<T>          factory;
+	private final int                 maxIdle;
+	private final ArrayDeque<Idle<T>> idle  = new ArrayDeque<Idle<T>>();
+	private final Stats               stats = new Stats();
+
+	public PlayerPool(Factory<T> factory, int maxIdle) {
+		this.factory = factory;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return an idle player, most recently used first, or a new one
+	 */
+	public synchronized T acquire() {
+		evictExpired(System.currentTimeMillis());
+		stats.acquires++;
+		Idle<T> reused = idle.pollFirst();
+		if (reused != null) {
+			stats.reuses++;
+			return reused.player;
+		}
+		long start = System.nanoTime();
+		T player = factory.create();
+		stats.createNanos += System.nanoTime() - start;
+		stats.creates++;
+		return player;
+	}
+
+	/**
+	 * Hand a player back; it is reset and kept if there is room, else released.
+	 */
+	public synchronized void recycle(T player) {
+		long now = System.currentTimeMillis();
+		evictExpired(now);
+		if (idle.size() >= maxIdle) {
+			factory.release(player);
+			stats.evictions++;
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			factory.reset(player);
+		} catch (RuntimeException e) {
+			// a player in the error or end state cannot be reset
+			factory.release(player);
+			return;
+		}
+		stats.resetNanos += System.nanoTime() - start;
+		idle.addFirst(new Idle<T>(player, now));
+	}
+
+	/**
+	 * Release idle players until at most keep are left, oldest first.
+	 */
+	public synchronized void trim(int keep) {
+		while (idle.size() > keep) {
+			factory.release(idle.pollLast().player);
+			stats.evictions++;
+		}
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	public synchronized Stats getStats() {
+		Stats copy = new Stats();
+		copy.acquires    = stats.acquires;
+		copy.reuses      = stats.reuses;
+		copy.creates     = stats.creates;
+		copy.evictions   = stats.evictions;
+		copy.createNanos = stats.createNanos;
+		copy.resetNanos  = stats.resetNanos;
+		return copy;
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Idle<T>> it = idle.descendingIterator();
+		while (it.hasNext()) {
+			Idle<T> entry = it.next();
+			if (now - entry.since < IDLE_TIMEOUT_MS) {
+				break;
+			}
+			it.remove();
+			factory.release(entry.player);
+			stats.evictions++;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.yuantops.tvplayer.player;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.media.MediaPlayer;
+import android.util.Log;
+
+/**
+ * The process-wide pools of native and Vitamio players used by
+ * {@link VideoPlayer_native} and {@link VideoPlayer_vitamio}. Idle players are
+ * dropped when the system asks the app to trim memory.
+ * 原生与Vitamio播放器实例池，内存紧张时释放空闲实例
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class PlayerPools {
+	private static final String TAG = PlayerPools.class.getSimpleName();
+	private static final int MAX_IDLE = 2;
+
+	private static PlayerPool<MediaPlayer>                nativePool;
+	private static PlayerPool<io.vov.vitamio.MediaPlayer> vitamioPool;
+	private static boolean                                callbacksRegistered;
+
+	public static synchronized PlayerPool<MediaPlayer> getNativePool(Context context) {
+		if (nativePool == null) {
+			nativePool = new PlayerPool<MediaPlayer>(new PlayerPool.Factory<MediaPlayer>() {
+				@Override
+				public MediaPlayer create() {
+					return new MediaPlayer();
+				}
+
+				@Override
+				public void reset(MediaPlayer player) {
+					player.reset();
+					player.setDisplay(null);
+					player.setOnBufferingUpdateListener(null);
+					player.setOnPreparedListener(null);
+					player.setOnInfoListener(null);
+					player.setOnCompletionListener(null);
+					player.setOnErrorListener(null);
+					player.setOnSeekCompleteListener(null);
+				}
+
+				@Override
+				public void release(MediaPlayer player) {
+					player.release();
+				}
+			}, MAX_IDLE);
+			registerTrimCallbacks(context);
+		}
+		return nativePool;
+	}
+
+	public static synchronized PlayerPool<io.vov.vitamio.MediaPlayer> getVitamioPool(Context context) {
+		if (vitamioPool == null) {
+			final Context appContext = context.getApplicationContext();
+			vitamioPool = new PlayerPool<io.vov.vitamio.MediaPlayer>(new PlayerPool.Factory<io.vov.vitamio.MediaPlayer>() {
+				@Override
+				public io.vov.vitamio.MediaPlayer create() {
+					return new io.vov.vitamio.MediaPlayer(appContext);
+				}
+
+				@Override
+				public void reset(io.vov.vitamio.MediaPlayer player) {
+					player.reset();
+					player.setDisplay(null);
+					player.setOnBufferingUpdateListener(null);
+					player.setOnCompletionListener(null);
+					player.setOnPreparedListener(null);
+					player.setOnVideoSizeChangedListener(null);
+					player.setOnInfoListener(null);
+					player.setOnSeekCompleteListener(null);
+				}
+
+				@Override
+				public void release(io.vov.vitamio.MediaPlayer player) {
+					player.release();
+				}
+			}, MAX_IDLE);
+			registerTrimCallbacks(context);
+		}
+		return vitamioPool;
+	}
+
+	/**
+	 * Release idle players: all of them once the app is in the background or
+	 * memory runs low, otherwise keep one of each.
+	 */
+	public static synchronized void onTrimMemory(int level) {
+		int keep = level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ? 0 : 1;
+		if (nativePool != null) {
+			nativePool.trim(keep);
+			Log.v(TAG, "native " + nativePool.getStats());
+		}
+		if (vitamioPool != null) {
+			vitamioPool.trim(keep);
+			Log.v(TAG, "vitamio " + vitamioPool.getStats());
+		}
+	}
+
+	private static void registerTrimCallbacks(Context context) {
+		if (callbacksRegistered) {
+			return;
+		}
+		callbacksRegistered = true;
+		context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+			@Override
+			public void onTrimMemory(int level) {
+				PlayerPools.onTrimMemory(level);
+			}
+
+			@Override
+			public void onLowMemory() {
+				PlayerPools.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+			}
+
+			@Override
+			public void onConfigurationChanged(Configuration newConfig) {
+			}
+		});
+	}
+}
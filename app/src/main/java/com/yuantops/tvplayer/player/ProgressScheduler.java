@@ -0,0 +1,135 @@
+package com.yuantops.tvplayer.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One progress clock for every player in the process, run on the main
+ * looper instead of a Timer thread per player. A client is only called when
+ * it asked to be, and says itself when it wants the next tick (e.g. when the
+ * clock flips to the next second) or that it does not want any more, so a
+ * paused player costs no wakeups at all.
+ * All methods must be called on the main thread.
+ * 所有播放器共用的进度刷新调度器，运行在主线程
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class ProgressScheduler {
+	/** Returned by {@link Client#onProgressTick()} to stop ticking. */
+	public static final long STOP = -1;
+
+	public interface Client {
+		/**
+		 * @return ms until the next tick, or {@link #STOP}
+		 */
+		long onProgressTick();
+	}
+
+	private static ProgressScheduler instance;
+
+	private final Handler      handler = new Handler(Looper.getMainLooper());
+	private final List<Client> clients = new ArrayList<Client>();
+	private long[]             dueAt   = new long[4]; // uptime ms, parallel to clients
+	private Client[]           due     = new Client[4]; // reused by tick
+	private long               postedFor = Long.MAX_VALUE;
+
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			postedFor = Long.MAX_VALUE;
+			long now = SystemClock.uptimeMillis();
+			// collect first: a client may schedule or cancel players while ticking
+			int n = 0;
+			for (int i = 0; i < clients.size(); i++) {
+				if (dueAt[i] <= now) {
+					if (n == due.length) {
+						Client[] grown = new Client[n * 2];
+						System.arraycopy(due, 0, grown, 0, n);
+						due = grown;
+					}
+					due[n++] = clients.get(i);
+				}
+			}
+			for (int k = 0; k < n; k++) {
+				Client client = due[k];
+				due[k] = null;
+				long delay = client.onProgressTick();
+				int i = clients.indexOf(client);
+				if (i < 0 || dueAt[i] > now) {
+					continue; // cancelled or rescheduled during the tick
+				}
+				if (delay < 0) {
+					remove(i);
+				} else {
+					dueAt[i] = now + delay;
+				}
+			}
+			postNext();
+		}
+	};
+
+	public static ProgressScheduler getInstance() {
+		if (instance == null) {
+			instance = new ProgressScheduler();
+		}
+		return instance;
+	}
+
+	/**
+	 * Tick client after delay ms, replacing any tick it had scheduled.
+	 */
+	public void schedule(Client client, long delay) {
+		long due = SystemClock.uptimeMillis() + Math.max(delay, 0);
+		int i = clients.indexOf(client);
+		if (i < 0) {
+			i = clients.size();
+			clients.add(client);
+			if (i == dueAt.length) {
+				long[] grown = new long[i * 2];
+				System.arraycopy(dueAt, 0, grown, 0, i);
+				dueAt = grown;
+			}
+		}
+		dueAt[i] = due;
+		postNext();
+	}
+
+	public void cancel(Client client) {
+		int i = clients.indexOf(client);
+		if (i >= 0) {
+			remove(i);
+			postNext();
+		}
+	}
+
+	public boolean isScheduled(Client client) {
+		return clients.contains(client);
+	}
+
+	private void remove(int i) {
+		int last = clients.size() - 1;
+		System.arraycopy(dueAt, i + 1, dueAt, i, last - i);
+		clients.remove(i);
+	}
+
+	/**
+	 * Keep exactly one message queued, for the earliest due client.
+	 */
+	private void postNext() {
+		long next = Long.MAX_VALUE;
+		for (int i = 0; i < clients.size(); i++) {
+			next = Math.min(next, dueAt[i]);
+		}
+		if (next == postedFor) {
+			return;
+		}
+		handler.removeCallbacks(tick);
+		postedFor = next;
+		if (next != Long.MAX_VALUE) {
+			handler.postAtTime(tick, next);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.yuantops.tvplayer.player;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Where finished playback sessions go: one JSON line per session to logcat
+ * and appended to {@link #FILE_NAME} in the app's files dir (rotated to
+ * FILE_NAME.1 at {@link #MAX_FILE_BYTES}), ready to be collected and
+ * aggregated off the device. Histograms over all sessions of the process
+ * are kept too and logged with every session.
+ * 播放体验指标的导出：logcat与本地文件
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class QoeLog {
+	private static final String TAG = QoeLog.class.getSimpleName();
+	public static final String FILE_NAME      = "qoe.log";
+	public static final long   MAX_FILE_BYTES = 1024 * 1024;
+
+	private static final PlaybackMetrics.Histogram ttff     = new PlaybackMetrics.Histogram();
+	private static final PlaybackMetrics.Histogram rebuffer = new PlaybackMetrics.Histogram();
+	private static final PlaybackMetrics.Histogram seek     = new PlaybackMetrics.Histogram();
+	private static long sessions, sessionsWithRebuffer;
+	private static ExecutorService writer;
+
+	/**
+	 * Export a stopped session; file writes happen on a background thread.
+	 */
+	public static synchronized void record(Context context, PlaybackMetrics metrics) {
+		sessions++;
+		if (metrics.getRebufferCount() > 0) {
+			sessionsWithRebuffer++;
+		}
+		ttff.record(metrics.getTtffMs());
+		rebuffer.merge(metrics.getRebufferHistogram());
+		seek.merge(metrics.getSeekHistogram());
+
+		final String line = metrics.toJson();
+		Log.i(TAG, line);
+		Log.i(TAG, dump());
+		final File file = getFile(context);
+		if (writer == null) {
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, TAG);
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+		}
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				append(file, line);
+			}
+		});
+	}
+
+	/**
+	 * @return the histograms over this process's sessions as a JSON line
+	 */
+	public static synchronized String dump() {
+		return "{\"sessions\":" + sessions + ",\"sessionsWithRebuffer\":" + sessionsWithRebuffer
+				+ ",\"ttffMs\":" + ttff + ",\"rebufferMs\":" + rebuffer + ",\"seekMs\":" + seek + "}";
+	}
+
+	public static File getFile(Context context) {
+		return new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+	}
+
+	private static void append(File file, String line) {
+		if (file.length() > MAX_FILE_BYTES) {
+			File old = new File(file.getPath() + ".1");
+			old.delete();
+			file.renameTo(old);
+		}
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file, true);
+			out.write((line + "\n").getBytes("UTF-8"));
+		} catch (IOException e) {
+			Log.w(TAG, "cannot write " + file + ": " + e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,453 @@
+package com.yuantops.tvplayer.player;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Where each title was left off, so playback can resume there.
+ * Positions live in an in-memory index, read and updated in O(1) from the
+ * main thread; a background thread appends the changed ones, at most every
+ * {@link #WRITE_DELAY_MS} or at once on {@link #flush}, to a log file mapped
+ * into memory. When the log is full it is compacted: the live entries, the
+ * {@link #MAX_ENTRIES} most recently played at most, are written to a new
+ * file that replaces the log by a rename.
+ * Every record carries a CRC, and the log is only read up to the first bad
+ * or empty record, so recovering after a crash reads at most
+ * {@link #CAPACITY} bytes and loses at most the records written since the
+ * last {@link #flush}; a process crash loses none, since the mapped pages
+ * belong to the kernel.
+ * Titles watched to within {@link #END_MARGIN_MS} of the end or for less than
+ * {@link #MIN_RESUME_MS} are forgotten, so they start from the beginning.
+ * 续播位置存储：内存索引，后台线程追加写入内存映射日志，定期压缩
+ * @author yuan (Email: yuan.tops@gmail.com)
+ */
+public class ResumeStore {
+	private static final String TAG = ResumeStore.class.getSimpleName();
+	public static final String FILE_NAME      = "resume.log";
+	public static final long   MIN_RESUME_MS  = 10 * 1000;
+	public static final long   END_MARGIN_MS  = 30 * 1000;
+	public static final long   WRITE_DELAY_MS = 5 * 1000;
+	public static final int    MAX_ENTRIES    = 500;
+	static final int           CAPACITY       = 256 * 1024;
+
+	private static final int     MAGIC   = 0x52534c31; //"RSL1"
+	private static final int     HEADER  = 4;
+	private static final int     MAX_KEY = 1024;       //bytes of UTF-8; longer keys are not stored
+	private static final int     FIXED   = 4 + 2 + 4 + 4; //crc, key length, position, duration
+	private static final Charset UTF_8   = Charset.forName("UTF-8");
+
+	public static class Stats {
+		public long entries;
+		public long appends;     //records written
+		public long compactions;
+		public long recovered;   //records read at startup
+		public long loadMs;
+		public boolean torn;     //the log ended in a damaged record at startup
+
+		@Override
+		public String toString() {
+			return "entries=" + entries + " appends=" + appends + " compactions=" + compactions
+					+ " recovered=" + recovered + " loadMs=" + loadMs + " torn=" + torn;
+		}
+	}
+
+	private static class Position {
+		final int positionMs;
+		final int durationMs;
+
+		Position(int positionMs, int durationMs) {
+			this.positionMs = positionMs;
+			this.durationMs = durationMs;
+		}
+	}
+
+	private final File file;
+	private final ScheduledExecutorService writer;
+	//recency ordered: an update moves the title to the end
+	private final LinkedHashMap<String, Position> index = new LinkedHashMap<String, Position>();
+	private LinkedHashMap<String, Position> dirty = new LinkedHashMap<String, Position>(); //forgotten titles map to null
+	private final Stats stats = new Stats();
+	private boolean loaded;
+	private ScheduledFuture<?> scheduledWrite; //null if none pending
+
+	//writer thread only
+	private RandomAccessFile   raf;
+	private MappedByteBuffer   log;
+	private int                writeOffset;
+	private final CRC32        crc     = new CRC32();
+	private byte[]             scratch = new byte[FIXED + 256];
+
+	private final Runnable writeTask = new Runnable() {
+		@Override
+		public void run() {
+			write(false);
+		}
+	};
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			write(true);
+		}
+	};
+
+	public ResumeStore(File file) {
+		this.file = file;
+		this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, TAG);
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Start loading the log in the background; until it is loaded
+	 * {@link #getPosition} knows only what was put since.
+	 */
+	public void open() {
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		});
+	}
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @return ms to resume key at, 0 to start from the beginning
+	 */
+	public synchronized long getPosition(String key) {
+		Position p = index.get(key);
+		return p == null ? 0 : p.positionMs;
+	}
+
+	/**
+	 * Remember that key is at positionMs; cheap enough for every playback tick.
+	 * Written to the log later, in the background.
+	 */
+	public synchronized void put(String key, long positionMs, long durationMs) {
+		if (key == null || durationMs <= 0) {
+			return;
+		}
+		Position p = null;
+		if (positionMs >= MIN_RESUME_MS && positionMs < durationMs - END_MARGIN_MS) {
+			p = new Position((int) positionMs, (int) durationMs);
+		}
+		Position old = index.remove(key);
+		if (p == null && old == null) {
+			return;
+		}
+		if (p != null) {
+			index.put(key, p);
+			trimIndex();
+			if (old != null && old.positionMs / 1000 == p.positionMs / 1000) {
+				return; //same second: nothing worth writing
+			}
+		}
+		dirty.remove(key);
+		dirty.put(key, p);
+		if (scheduledWrite == null) {
+			scheduledWrite = writer.schedule(writeTask, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Write what changed now and force it to storage, e.g. when playback
+	 * pauses or stops. Returns at once.
+	 */
+	public void flush() {
+		writer.execute(flushTask);
+	}
+
+	/**
+	 * Flush and stop the writer thread, waiting at most timeoutMs.
+	 */
+	public void close(long timeoutMs) throws InterruptedException {
+		synchronized (this) {
+			//the flush writes it; left queued, the writer would wait it out before stopping
+			if (scheduledWrite != null) {
+				scheduledWrite.cancel(false);
+			}
+		}
+		writer.execute(flushTask);
+		writer.shutdown();
+		writer.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized Stats getStats() {
+		Stats copy = new Stats();
+		copy.entries     = index.size();
+		copy.appends     = stats.appends;
+		copy.compactions = stats.compactions;
+		copy.recovered   = stats.recovered;
+		copy.loadMs      = stats.loadMs;
+		copy.torn        = stats.torn;
+		return copy;
+	}
+
+	//---- writer thread ----
+
+	private void load() {
+		long start = System.nanoTime();
+		LinkedHashMap<String, Position> loadedIndex = new LinkedHashMap<String, Position>();
+		int records = 0;
+		boolean torn = false;
+		try {
+			map(file);
+			if (log.getInt(0) != MAGIC) {
+				torn = log.getInt(0) != 0;
+				clear();
+			}
+			int offset = HEADER;
+			while (true) {
+				int end = readRecord(offset, loadedIndex);
+				if (end < 0) {
+					torn |= end == -2;
+					break;
+				}
+				offset = end;
+				records++;
+			}
+			writeOffset = offset;
+		} catch (IOException e) {
+			Log.e(TAG, "cannot open " + file + ": " + e);
+			log = null;
+		}
+		List<Map.Entry<String, Position>> kept;
+		synchronized (this) {
+			//titles put while loading are newer than the log
+			for (Map.Entry<String, Position> e : index.entrySet()) {
+				loadedIndex.remove(e.getKey());
+				loadedIndex.put(e.getKey(), e.getValue());
+			}
+			for (Map.Entry<String, Position> e : dirty.entrySet()) {
+				if (e.getValue() == null) {
+					loadedIndex.remove(e.getKey());
+				}
+			}
+			index.clear();
+			index.putAll(loadedIndex);
+			trimIndex();
+			loaded = true;
+			stats.recovered = records;
+			stats.torn = torn;
+			stats.loadMs = (System.nanoTime() - start) / 1000000;
+			kept = new ArrayList<Map.Entry<String, Position>>(index.entrySet());
+		}
+		if (torn && log != null) {
+			//rewrite, so nothing after the damage can be mistaken for a record
+			compact(kept);
+		}
+		Log.v(TAG, "loaded " + getStats());
+	}
+
+	/**
+	 * Append the changed titles; compact instead when they do not fit.
+	 */
+	private void write(boolean force) {
+		LinkedHashMap<String, Position> changes;
+		List<Map.Entry<String, Position>> snapshot = null;
+		synchronized (this) {
+			scheduledWrite = null;
+			if (!loaded || dirty.isEmpty()) {
+				if (force && log != null) {
+					log.force();
+				}
+				return;
+			}
+			changes = dirty;
+			dirty = new LinkedHashMap<String, Position>();
+		}
+		if (log == null) {
+			return;
+		}
+		for (Map.Entry<String, Position> e : changes.entrySet()) {
+			if (!append(e.getKey(), e.getValue())) {
+				synchronized (this) {
+					snapshot = new ArrayList<Map.Entry<String, Position>>(index.entrySet());
+				}
+				break;
+			}
+		}
+		if (snapshot != null) {
+			compact(snapshot);
+		} else if (force) {
+			log.force();
+		}
+	}
+
+	/**
+	 * @return false if the log is full
+	 */
+	private boolean append(String key, Position p) {
+		byte[] keyBytes = key.getBytes(UTF_8);
+		if (keyBytes.length > MAX_KEY) {
+			return true;
+		}
+		int length = FIXED + keyBytes.length;
+		if (writeOffset + length > CAPACITY) {
+			return false;
+		}
+		if (scratch.length < length) {
+			scratch = new byte[length];
+		}
+		ByteBuffer body = ByteBuffer.wrap(scratch, 0, length);
+		body.putInt(0);
+		body.putShort((short) keyBytes.length);
+		body.put(keyBytes);
+		body.putInt(p == null ? -1 : p.positionMs); //-1: forgotten
+		body.putInt(p == null ? 0 : p.durationMs);
+		crc.reset();
+		crc.update(scratch, 4, length - 4);
+		//body first, CRC last: a record cut short by a crash does not check out
+		log.position(writeOffset + 4);
+		log.put(scratch, 4, length - 4);
+		log.putInt(writeOffset, (int) crc.getValue());
+		writeOffset += length;
+		synchronized (this) {
+			stats.appends++;
+		}
+		return true;
+	}
+
+	/**
+	 * @return offset after the record at offset, -1 at the end of the log,
+	 *         -2 if the record is damaged
+	 */
+	private int readRecord(int offset, LinkedHashMap<String, Position> into) {
+		if (offset + FIXED > CAPACITY) {
+			return -1;
+		}
+		int sum = log.getInt(offset);
+		int keyLength = log.getShort(offset + 4) & 0xffff;
+		if (keyLength == 0) {
+			return sum == 0 ? -1 : -2;
+		}
+		int length = FIXED + keyLength;
+		if (keyLength > MAX_KEY || offset + length > CAPACITY) {
+			return -2;
+		}
+		if (scratch.length < length) {
+			scratch = new byte[length];
+		}
+		log.position(offset);
+		log.get(scratch, 0, length);
+		crc.reset();
+		crc.update(scratch, 4, length - 4);
+		if ((int) crc.getValue() != sum) {
+			return -2;
+		}
+		String key = new String(scratch, 6, keyLength, UTF_8);
+		ByteBuffer tail = ByteBuffer.wrap(scratch, 6 + keyLength, 8);
+		int position = tail.getInt();
+		int duration = tail.getInt();
+		into.remove(key);
+		if (position >= 0) {
+			into.put(key, new Position(position, duration));
+		}
+		return offset + length;
+	}
+
+	/**
+	 * Write entries to a fresh log and swap it in.
+	 */
+	private void compact(List<Map.Entry<String, Position>> entries) {
+		File tmp = new File(file.getPath() + ".tmp");
+		tmp.delete();
+		try {
+			closeLog();
+			map(tmp);
+			clear();
+			writeOffset = HEADER;
+			//the most recent MAX_ENTRIES fit: MAX_ENTRIES * (FIXED + MAX_KEY) < CAPACITY is not
+			//guaranteed for long keys, so drop the oldest that do not
+			int from = 0;
+			long bytes = HEADER;
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				bytes += FIXED + entries.get(i).getKey().getBytes(UTF_8).length;
+				if (bytes > CAPACITY / 2) {
+					from = i + 1;
+					break;
+				}
+			}
+			for (int i = from; i < entries.size(); i++) {
+				append(entries.get(i).getKey(), entries.get(i).getValue());
+			}
+			log.force();
+			closeLog();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("cannot rename " + tmp);
+			}
+			map(file);
+			synchronized (this) {
+				stats.compactions++;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "compaction failed: " + e);
+			closeLog();
+			log = null;
+		}
+	}
+
+	private void map(File f) throws IOException {
+		raf = new RandomAccessFile(f, "rw");
+		if (raf.length() < CAPACITY) {
+			raf.setLength(CAPACITY);
+		}
+		log = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+	}
+
+	private void clear() {
+		for (int i = 0; i < CAPACITY; i += 8) {
+			log.putLong(i, 0);
+		}
+		log.putInt(0, MAGIC);
+	}
+
+	private void closeLog() {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+			}
+			raf = null;
+		}
+	}
+
+	/**
+	 * Keep the MAX_ENTRIES most recent titles.
+	 */
+	private void trimIndex() {
+		Iterator<String> it = index.keySet().iterator();
+		while (index.size() > MAX_ENTRIES && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+}
@@ -12,4 +12,14 @@ public interface VideoPlayer {
 	boolean isPlaying(); 
 	int getDuration();
 	void seekTo(int progress);
+	/**
+	 * The user started (true) or stopped (false) dragging the seek bar;
+	 * players with a progress display follow the thumb meanwhile.
+	 */
+	void setSeeking(boolean seeking);
+	/**
+	 * Startup, rebuffer, seek and bitrate figures of this playback so far;
+	 * final once stop() has been called.
+	 */
+	PlaybackMetrics getMetrics();
 }
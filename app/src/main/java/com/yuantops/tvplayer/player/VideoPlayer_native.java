@@ -1,23 +1,23 @@
 package com.yuantops.tvplayer.player;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
-import com.yuantops.tvplayer.util.StringUtils;
 
 import android.content.Context;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnInfoListener;
 import android.media.MediaPlayer.OnPreparedListener;
-import android.os.Handler;
-import android.os.Message;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import com.yuantops.tvplayer.util.BandwidthMeter;
+import com.yuantops.tvplayer.util.VolleySingleton;
+
 /**
  * Videoplayer based on native MediaPlayer provided by official Android library;
  * Used for playing on-demand video stream in HTTP protocol;
@@ -30,70 +30,67 @@ import android.widget.TextView;
  */
 public class VideoPlayer_native implements VideoPlayer{
 	private static final String TAG = VideoPlayer_native.class.getSimpleName();	
-	private static final int CURR_TIME_VALUE = 8;
+	private static final long SEEK_TICK_MS = 50; //clock refresh while the seek bar is dragged
 	
 	private Context       mContext;
 	private SurfaceHolder surHolder;
 	private SeekBar       seekBar;
 	private MediaPlayer   mePlayer;
 	private TextView      vpCurrentTime, vpTotalTime;//currentTime, total video time length
+	private PlaybackHud   hud;
 	private int           vpWidth, vpHeight;
 	
 	private String   vUrl;
 	private int      vpBeginTime;//seekbar position when initializing
-	private boolean  flag  = true;
-	private Timer    timer = new Timer();
+	private boolean  seeking;//seek bar is being dragged
+	private long     createdAt;//uptime when playback was requested, for time to first frame
+	private boolean  firstFrameShown;
+	private OnFirstFrameListener firstFrameListener;
+	private PlaybackMetrics metrics = new PlaybackMetrics("VOD");
+	
+	private String[]      tierUrls;//by definition tier, null if adaptive switching is off
+	private byte          tier;
+	private AbrController abr;
+	private long          tierSince;//uptime of the last switch
+	private int           bufferedPercent;
+	private long          bufferedAt;//uptime of the last buffering update
+	private BandwidthMeter meter;
+	private ResumeStore   resumeStore;//null if positions are not remembered
+	private String        resumeKey;
 	
-	private TimerTask mTimerTask = new TimerTask() {
+	/**
+	 * Told once when the first video frame is on screen
+	 */
+	public interface OnFirstFrameListener {
+		void onFirstFrame(long ttffMs);
+	}
+	
+	/**
+	 * Ticks on the main thread: once per displayed second while playing, fast
+	 * while the seek bar is dragged, never while paused or stopped.
+	 */
+	private ProgressScheduler.Client progressClient = new ProgressScheduler.Client() {
 		@Override
-		public void run() {
+		public long onProgressTick() {
 			if (mePlayer == null) {
-				return;
-			} else
-				try {
-					if (mePlayer.isPlaying()) {
-						int position = (int) mePlayer.getCurrentPosition();
-						int max = seekBar.getMax();
-						if (position != 0) {
-							Message msg = mHandler.obtainMessage(
-									CURR_TIME_VALUE, position, max);
-							mHandler.sendMessage(msg);
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								e.printStackTrace();
-							}
-						}
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-		}		
-	};
-	
-	Handler mHandler = new Handler() {
-		public void handleMessage(android.os.Message msg) {
-			switch (msg.what) {
-			case CURR_TIME_VALUE:
-				int position = msg.arg1;
-				int max = msg.arg2;
-				int duration = (int) mePlayer.getDuration();
-				vpCurrentTime.setText(StringUtils.millisToString(position));
-				vpTotalTime.setText(StringUtils.millisToString(duration));
-				if (duration > 0) {
-					int pos = max * position / duration;
-					seekBar.setProgress(pos);
-				}
-				if (vpBeginTime != 0 && flag) {
-					mePlayer.seekTo(vpBeginTime);
-					seekBar.setProgress(max * vpBeginTime / duration);
-					flag = false;
-				}
-				break;
-			case 1:
-				break;
+				return ProgressScheduler.STOP;
+			}
+			int duration = mePlayer.getDuration();
+			if (seeking) {
+				hud.updateTime(hud.positionOf(seekBar.getProgress(), duration), duration);
+				return SEEK_TICK_MS;
+			}
+			if (!mePlayer.isPlaying()) {
+				return ProgressScheduler.STOP;
 			}
-		};
+			int position = mePlayer.getCurrentPosition();
+			if (position > 0) {
+				onFirstFrame();//devices below API 17 do not report rendering start
+			}
+			hud.update(position, duration);
+			savePosition(position, duration, false);
+			return 1000 - position % 1000; //wake up when the clock shows the next second
+		}
 	};
 	
 	private SurfaceHolder.Callback surCallbackListener = new SurfaceHolder.Callback() {		
@@ -102,11 +99,17 @@ public class VideoPlayer_native implements VideoPlayer{
 		}		
 		@Override
 		public void surfaceCreated(SurfaceHolder arg0) {
-			mePlayer = new MediaPlayer();
+			PlayerPool<MediaPlayer> pool = PlayerPools.getNativePool(mContext);
+			if (mePlayer != null) {
+				pool.recycle(mePlayer);//surface recreated: start over
+			}
+			mePlayer = pool.acquire();
 			mePlayer.setDisplay(surHolder);
 			mePlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 			mePlayer.setOnBufferingUpdateListener(onBufferingUpdateListener);
 			mePlayer.setOnPreparedListener(onPreparedListener);
+			mePlayer.setOnInfoListener(onInfoListener);
+			mePlayer.setOnSeekCompleteListener(onSeekCompleteListener);
 			
 			try {
 				mePlayer.reset();
@@ -125,17 +128,55 @@ public class VideoPlayer_native implements VideoPlayer{
 	private OnBufferingUpdateListener onBufferingUpdateListener = new OnBufferingUpdateListener() {
 		@Override
 		public void onBufferingUpdate(MediaPlayer mp, int percent) {
-			seekBar.setSecondaryProgress(percent);
+			long now = SystemClock.uptimeMillis();
+			if (percent > bufferedPercent && bufferedAt > 0) {
+				//media time buffered since the last update, against wall time
+				meter.onBufferFill((long) (percent - bufferedPercent) * mp.getDuration() / 100,
+						(now - bufferedAt) * 1000000);
+			}
+			bufferedAt = now;
+			bufferedPercent = percent;
+			hud.setBufferedPercent(percent);
+		}
+	};
+	
+	private OnInfoListener onInfoListener = new OnInfoListener() {
+		@Override
+		public boolean onInfo(MediaPlayer mp, int what, int extra) {
+			if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START) {
+				onFirstFrame();
+			} else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+				metrics.onBufferingStart(SystemClock.uptimeMillis());
+				adapt(mp.getCurrentPosition());//stalled: playback is interrupted anyway
+			} else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+				metrics.onBufferingEnd(SystemClock.uptimeMillis());
+			}
+			return false;
+		}
+	};
+	
+	private OnSeekCompleteListener onSeekCompleteListener = new OnSeekCompleteListener() {
+		@Override
+		public void onSeekComplete(MediaPlayer mp) {
+			metrics.onSeekResumed(SystemClock.uptimeMillis());
 		}
 	};
 	
 	private OnPreparedListener onPreparedListener = new OnPreparedListener() {
 		@Override
 		public void onPrepared(MediaPlayer mp) {
+			metrics.onBufferingEnd(SystemClock.uptimeMillis());//a stall that switched definition ends here
+			if (tierUrls != null) {
+				metrics.onBitrate(AbrController.getBitrate(tier));
+			}
 			vpHeight = mp.getVideoHeight();
 			vpWidth = mp.getVideoWidth();
+			if (vpBeginTime > 0) {
+				mp.seekTo(vpBeginTime);
+			}
 			if (vpHeight != 0 && vpWidth != 0) {
 				mp.start();// 播放视频
+				ProgressScheduler.getInstance().schedule(progressClient, 0);
 			}
 			Log.v("mediaPlayer", "onPrepared");
 		}
@@ -161,30 +202,61 @@ public class VideoPlayer_native implements VideoPlayer{
 		this.vpCurrentTime = vpCurrentTime;
 		this.vpTotalTime   = vpTotalTime;
 		this.vpBeginTime   = vpBeginTime;
+		this.hud           = new PlaybackHud(vpCurrentTime, vpTotalTime, seekBar);
+		this.createdAt     = SystemClock.uptimeMillis();
+		this.metrics.onStart(createdAt);
+		this.meter         = VolleySingleton.getInstance(context.getApplicationContext()).getBandwidthMeter();
 		
 		surHolder = surView.getHolder();
 		surHolder.addCallback(surCallbackListener);
 		surHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
-		
-		timer.schedule(mTimerTask, 0, 1000);
+	}
+	
+	/**
+	 * Remember the position under key while playing, for resuming later
+	 */
+	public void setResumeStore(ResumeStore store, String key) {
+		this.resumeStore = store;
+		this.resumeKey   = key;
+	}
+	
+	/**
+	 * Let the player switch definition at interruptions: stalls, seeks and
+	 * resume after pause
+	 * @param tierUrls urls by AbrController tier, null where missing
+	 * @param tier     the tier vUrl belongs to
+	 */
+	public void setAdaptive(String[] tierUrls, byte tier, AbrController abr) {
+		this.tierUrls  = tierUrls;
+		this.tier      = tier;
+		this.abr       = abr;
+		this.tierSince = SystemClock.uptimeMillis();
 	}
 	
 	@Override
 	public void play() {
-		mePlayer.start();		
+		if (adapt(mePlayer.getCurrentPosition())) {
+			return;//resumes once the new stream is prepared
+		}
+		mePlayer.start();
+		ProgressScheduler.getInstance().schedule(progressClient, 0);
 	}
 
 	@Override
 	public void pause() {
 		mePlayer.pause();
+		ProgressScheduler.getInstance().cancel(progressClient);
+		hud.update(mePlayer.getCurrentPosition(), mePlayer.getDuration());
+		savePosition(mePlayer.getCurrentPosition(), mePlayer.getDuration(), true);
 	}
 
 	@Override
 	public void stop() {
 		if (mePlayer != null) {
-			mePlayer.stop();
-			mePlayer.release();
-			mTimerTask.cancel();
+			savePosition(mePlayer.getCurrentPosition(), mePlayer.getDuration(), true);
+			metrics.onStop(SystemClock.uptimeMillis());
+			ProgressScheduler.getInstance().cancel(progressClient);
+			PlayerPools.getNativePool(mContext).recycle(mePlayer);
 			mePlayer = null;
 		}
 	}
@@ -213,7 +285,97 @@ public class VideoPlayer_native implements VideoPlayer{
 	}
 
 	public void seekTo(int progress) {
+		metrics.onSeek(SystemClock.uptimeMillis());
+		if (mePlayer.isPlaying() && adapt(progress)) {
+			return;//the new stream starts at progress
+		}
 		mePlayer.seekTo(progress);
 		//Log.v(TAG, "seekTo() " + progress);
 	}
+
+	public void setOnFirstFrameListener(OnFirstFrameListener listener) {
+		this.firstFrameListener = listener;
+	}
+
+	/**
+	 * Ask the controller whether to change definition, and if so restart on
+	 * the new url at position.
+	 * @return true if switched
+	 */
+	private boolean adapt(int position) {
+		if (tierUrls == null || mePlayer == null) {
+			return false;
+		}
+		long now = SystemClock.uptimeMillis();
+		long duration = mePlayer.getDuration();
+		long bufferAhead = Math.max(0, bufferedPercent * duration / 100 - position);
+		byte next = abr.decide(tier, tierUrls, bufferAhead, now - tierSince);
+		if (next == tier) {
+			return false;
+		}
+		Log.v(TAG, "definition " + tier + " -> " + next + " at " + position + "ms, " + abr);
+		tier = next;
+		tierSince = now;
+		vUrl = tierUrls[next];
+		vpBeginTime = position;
+		bufferedPercent = 0;
+		bufferedAt = 0;
+		ProgressScheduler.getInstance().cancel(progressClient);
+		try {
+			mePlayer.reset();
+			mePlayer.setDisplay(surHolder);
+			mePlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+			mePlayer.setDataSource(vUrl);
+			mePlayer.prepareAsync();//onPrepared seeks to vpBeginTime and starts
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 * @param flush also write it out now, as playback is interrupted
+	 */
+	private void savePosition(int position, int duration, boolean flush) {
+		//before the first frame the position is not where the viewer left off
+		if (resumeStore == null || !firstFrameShown) {
+			return;
+		}
+		resumeStore.put(resumeKey, position, duration);
+		if (flush) {
+			resumeStore.flush();
+		}
+	}
+
+	private void onFirstFrame() {
+		if (firstFrameShown) {
+			return;
+		}
+		firstFrameShown = true;
+		long now = SystemClock.uptimeMillis();
+		metrics.onFirstFrame(now);
+		long ttff = now - createdAt;
+		Log.v(TAG, "first frame after " + ttff + "ms");
+		if (firstFrameListener != null) {
+			firstFrameListener.onFirstFrame(ttff);
+		}
+	}
+
+	@Override
+	public PlaybackMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void setSeeking(boolean seeking) {
+		this.seeking = seeking;
+		if (seeking) {
+			ProgressScheduler.getInstance().schedule(progressClient, 0);
+		} else {
+			hud.invalidate();
+			if (isPlaying()) {
+				ProgressScheduler.getInstance().schedule(progressClient, 0);
+			}
+		}
+	}
 }
@@ -3,10 +3,12 @@ package com.yuantops.tvplayer.player;
 import io.vov.vitamio.MediaPlayer;
 import io.vov.vitamio.MediaPlayer.OnBufferingUpdateListener;
 import io.vov.vitamio.MediaPlayer.OnCompletionListener;
+import io.vov.vitamio.MediaPlayer.OnInfoListener;
 import io.vov.vitamio.MediaPlayer.OnPreparedListener;
 import io.vov.vitamio.MediaPlayer.OnVideoSizeChangedListener;
 import android.content.Context;
 import android.graphics.PixelFormat;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -23,7 +25,7 @@ import android.view.SurfaceView;
  */
 public class VideoPlayer_vitamio implements VideoPlayer,
 		OnBufferingUpdateListener, OnCompletionListener, OnPreparedListener,
-		OnVideoSizeChangedListener, SurfaceHolder.Callback {
+		OnVideoSizeChangedListener, OnInfoListener, SurfaceHolder.Callback {
 	private static final String TAG = VideoPlayer.class.getSimpleName();
 	private int mVideoWidth;
 	private int mVideoHeight;
@@ -33,6 +35,37 @@ public class VideoPlayer_vitamio implements VideoPlayer,
 	private String        videoUrl;      // 视频流URL
 	private boolean       mIsVideoSizeKnown = false;
 	private boolean       mIsVideoReadyToBePlayed = false;
+	private LiveZapper    zapper;        // 换台时使用的预连接频道
+	private int           channelIndex;
+	private long          zapStartedAt;  // uptime of the channel key press, 0 if not zapping
+	private boolean       zapWarm;
+	private LiveLatencyController latency = new LiveLatencyController(LiveLatencyController.DEFAULT_TARGET_MS);
+	private boolean       buffering;
+	private PlaybackMetrics metrics = new PlaybackMetrics("LIVE");
+
+	/**
+	 * Once a second while playing: keep the stream near its target latency
+	 */
+	private ProgressScheduler.Client latencyClient = new ProgressScheduler.Client() {
+		@Override
+		public long onProgressTick() {
+			if (mediaPlayer == null || !(buffering || mediaPlayer.isPlaying())) {
+				return ProgressScheduler.STOP;
+			}
+			switch (latency.onTick(SystemClock.uptimeMillis(), mediaPlayer.getCurrentPosition())) {
+			case LiveLatencyController.SET_RATE:
+				Log.v(TAG, "playback rate " + latency);
+				mediaPlayer.setPlaybackSpeed(latency.getRate());
+				break;
+			case LiveLatencyController.RESYNC:
+				rejoin();
+				return ProgressScheduler.STOP;
+			default:
+				break;
+			}
+			return 1000;
+		}
+	};
 
 	public VideoPlayer_vitamio(SurfaceView surfaceView, String videoUrl,
 			Context context) {
@@ -40,6 +73,7 @@ public class VideoPlayer_vitamio implements VideoPlayer,
 		this.surfaceHolder = surfaceView.getHolder();
 		this.videoUrl = videoUrl;
 		this.mContext = context;
+		this.metrics.onStart(SystemClock.uptimeMillis());
 
 		this.surfaceHolder.addCallback(this);
 		this.surfaceHolder.setFormat(PixelFormat.RGBX_8888);
@@ -55,16 +89,24 @@ public class VideoPlayer_vitamio implements VideoPlayer,
 
 		doCleanUp();
 
-		mediaPlayer = new MediaPlayer(mContext);
+		//Vitamio players are costly to create: take a reset one from the pool
+		PlayerPool<MediaPlayer> pool = PlayerPools.getVitamioPool(mContext);
+		if (mediaPlayer != null) {
+			pool.recycle(mediaPlayer);
+		}
+		mediaPlayer = pool.acquire();
+		openVideo();
+	}
+
+	private void openVideo() {
 		try {
 			Log.v(TAG + " >>videoUrl", videoUrl);
 			mediaPlayer.setDataSource(videoUrl);
+			//join with about the target latency buffered
+			mediaPlayer.setBufferSize(LiveZapper.bufferBytes(latency.getTargetMs()));
 			mediaPlayer.setDisplay(surfaceHolder);
 			mediaPlayer.prepareAsync();
-			mediaPlayer.setOnBufferingUpdateListener(this);
-			mediaPlayer.setOnCompletionListener(this);
-			mediaPlayer.setOnPreparedListener(this);
-			mediaPlayer.setOnVideoSizeChangedListener(this);
+			setListeners();
 			// this.mContext.getSystemService(arg0)setVolumeControlStream(AudioManager.STREAM_MUSIC);
 		} catch (Exception e) {
 			//Log.e(TAG, "error: " + e.getMessage(), e);
@@ -72,6 +114,14 @@ public class VideoPlayer_vitamio implements VideoPlayer,
 		}
 	}
 
+	private void setListeners() {
+		mediaPlayer.setOnBufferingUpdateListener(this);
+		mediaPlayer.setOnCompletionListener(this);
+		mediaPlayer.setOnPreparedListener(this);
+		mediaPlayer.setOnVideoSizeChangedListener(this);
+		mediaPlayer.setOnInfoListener(this);
+	}
+
 	@Override
 	public void surfaceDestroyed(SurfaceHolder arg0) {
 		Log.v(TAG, "surfaceDestroyed called");
@@ -113,31 +163,141 @@ public class VideoPlayer_vitamio implements VideoPlayer,
 		Log.d(TAG, "onBufferingUpdate called");
 	}
 
+	@Override
+	public boolean onInfo(MediaPlayer mp, int what, int extra) {
+		if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+			buffering = true;
+			latency.onBufferingStart();
+			metrics.onBufferingStart(SystemClock.uptimeMillis());
+		} else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+			buffering = false;
+			latency.onBufferingEnd();
+			metrics.onBufferingEnd(SystemClock.uptimeMillis());
+		} else if (what == MediaPlayer.MEDIA_INFO_DOWNLOAD_RATE_CHANGED) {
+			metrics.onBitrate(extra * 1000L);//kbit/s the stream arrives at, its bitrate once steady
+		}
+		return false;
+	}
+
 	private void doCleanUp() {
 		mVideoWidth = 0;
 		mVideoHeight = 0;
 		mIsVideoReadyToBePlayed = false;
 		mIsVideoSizeKnown = false;
+		buffering = false;
 	}
 
 	private void startVideoPlayback() {
 		Log.v(TAG, "startVideoPlayback");
 		surfaceHolder.setFixedSize(mVideoWidth, mVideoHeight);
 		mediaPlayer.start();
+		metrics.onFirstFrame(SystemClock.uptimeMillis());//no rendering-start event: counted to start()
+		latency.onJoined(SystemClock.uptimeMillis(), mediaPlayer.getCurrentPosition());
+		ProgressScheduler.getInstance().schedule(latencyClient, 1000);
+		if (zapper != null) {
+			if (zapStartedAt > 0) {
+				zapper.onZapped(videoUrl, zapWarm, SystemClock.uptimeMillis() - zapStartedAt);
+				zapStartedAt = 0;
+			}
+			zapper.onTuned(channelIndex);//on screen: now get the neighbours ready
+		}
+	}
+
+	/**
+	 * Too far behind the live edge: reopen the stream, which joins at the edge
+	 */
+	private void rejoin() {
+		Log.v(TAG, "rejoining live edge, " + latency);
+		ProgressScheduler.getInstance().cancel(latencyClient);
+		mediaPlayer.reset();
+		doCleanUp();
+		openVideo();
+	}
+
+	/**
+	 * @param targetMs distance behind the live edge to keep, also the buffer to join with
+	 */
+	public void setTargetLatency(long targetMs) {
+		latency = new LiveLatencyController(targetMs);
+	}
+
+	/**
+	 * @return estimated distance behind the live edge in ms
+	 */
+	public long getLiveLatencyMs() {
+		return latency.getLatencyMs();
+	}
+
+	/**
+	 * @return distance behind the live edge the player joins at and keeps to, in ms;
+	 *         standby players should buffer as much
+	 */
+	public long getLatencyTargetMs() {
+		return latency.getTargetMs();
+	}
+
+	/**
+	 * Enable channel up/down
+	 * @param zapper       holds the channel list and the standby players
+	 * @param channelIndex index of videoUrl in the list
+	 */
+	public void setZapper(LiveZapper zapper, int channelIndex) {
+		this.zapper       = zapper;
+		this.channelIndex = channelIndex;
+	}
+
+	/**
+	 * Switch to the channel step places up (negative: down) the list; a
+	 * channel kept ready by the zapper only needs the surface attached.
+	 */
+	public void zap(int step) {
+		if (zapper == null || zapper.getChannelCount() < 2 || mediaPlayer == null) {
+			return;
+		}
+		zapStartedAt = SystemClock.uptimeMillis();
+		channelIndex = zapper.step(channelIndex, step);
+		videoUrl = zapper.getChannel(channelIndex);
+		PlayerPool<MediaPlayer> pool = PlayerPools.getVitamioPool(mContext);
+		pool.recycle(mediaPlayer);
+		doCleanUp();
+		LiveZapper.Standby standby = zapper.take(videoUrl);
+		zapWarm = standby != null;
+		if (standby == null) {
+			mediaPlayer = pool.acquire();
+			openVideo();
+			return;
+		}
+		mediaPlayer = standby.getPlayer();
+		mediaPlayer.setDisplay(surfaceHolder);
+		setListeners();
+		mVideoWidth  = standby.getVideoWidth();
+		mVideoHeight = standby.getVideoHeight();
+		mIsVideoSizeKnown = mVideoWidth != 0 && mVideoHeight != 0;
+		mIsVideoReadyToBePlayed = standby.isPrepared();
+		if (mIsVideoReadyToBePlayed && mIsVideoSizeKnown) {
+			startVideoPlayback();
+		}
 	}
 
 	public void play() {
 		mediaPlayer.start();
+		ProgressScheduler.getInstance().schedule(latencyClient, 1000);
 	}
 
 	public void pause() {
-		mediaPlayer.pause();
+		mediaPlayer.pause();//still counts: behind live by the pause when resumed
 	}
 
 	public void stop() {
+		ProgressScheduler.getInstance().cancel(latencyClient);
+		metrics.onStop(SystemClock.uptimeMillis());
+		Log.v(TAG, "live latency " + latency);
+		if (zapper != null) {
+			Log.v(TAG, "zapper " + zapper.getStats());
+			zapper.release();
+		}
 		if (mediaPlayer != null) {
-			// mediaPlayer.stop();
-			mediaPlayer.release();
+			PlayerPools.getVitamioPool(mContext).recycle(mediaPlayer);
 			mediaPlayer = null;
 		}
 	}
@@ -162,4 +322,12 @@ public class VideoPlayer_vitamio implements VideoPlayer,
 	public void seekTo(int progress) {
 		return;
 	}
+
+	public PlaybackMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setSeeking(boolean seeking) {
+		//no progress display for live streams
+	}
 }
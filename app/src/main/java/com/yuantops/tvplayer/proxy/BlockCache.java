@@ -0,0 +1,262 @@
+package com.yuantops.tvplayer.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of fixed-size blocks of media files, keyed by URL and block
+ * index (block i holds bytes [i * blockSize, (i + 1) * blockSize) of the file,
+ * the last block of a file may be shorter). Only whole blocks are stored, so a
+ * cached block never needs to be merged with a later download.
+ * Besides the blocks, the length and content type of every file seen are kept,
+ * which lets the proxy answer a Range request without asking the server.
+ * The least recently used blocks are evicted once maxBytes is exceeded.
+ * 视频文件分块磁盘缓存，按URL和块序号索引，LRU淘汰
+ */
+public class BlockCache {
+    private static final int    RESOURCE_MAGIC   = 0x20150906;
+    private static final String BLOCK_SUFFIX     = ".blk";
+    private static final String RESOURCE_SUFFIX  = ".res";
+
+    /**
+     * Length and type of a cached file.
+     */
+    public static class Resource {
+        final String url;
+        final long   length;
+        final String contentType;
+
+        Resource(String url, long length, String contentType) {
+            this.url         = url;
+            this.length      = length;
+            this.contentType = contentType;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private final File mRootDir;
+    private final int  mBlockSize;
+    private final long mMaxBytes;
+    private final Map<String, Long>     mBlocks    = new LinkedHashMap<String, Long>(64, .75f, true);
+    private final Map<String, Resource> mResources = new HashMap<String, Resource>();
+    private long    mTotalBytes;
+    private boolean mInitialized;
+
+    public BlockCache(File rootDir, int blockSize, long maxBytes) {
+        mRootDir   = rootDir;
+        mBlockSize = blockSize;
+        mMaxBytes  = maxBytes;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    public synchronized Resource getResource(String url) {
+        initialize();
+        return mResources.get(fileName(url));
+    }
+
+    public synchronized Resource putResource(String url, long length, String contentType) throws IOException {
+        initialize();
+        String name = fileName(url);
+        Resource old = mResources.get(name);
+        if (old != null && old.length != length) {
+            // the file changed on the server: its blocks are useless now
+            removeBlocks(name);
+        }
+        Resource resource = new Resource(url, length, contentType);
+        mResources.put(name, resource);
+        writeResource(name, resource);
+        return resource;
+    }
+
+    /**
+     * @return the file of a cached block, or null; marks the block as used
+     */
+    public synchronized File getBlock(String url, long index) {
+        initialize();
+        String key = blockName(fileName(url), index);
+        return mBlocks.get(key) != null ? new File(mRootDir, key + BLOCK_SUFFIX) : null;
+    }
+
+    public synchronized boolean hasBlock(String url, long index) {
+        initialize();
+        return mBlocks.containsKey(blockName(fileName(url), index));
+    }
+
+    /**
+     * Store block index of url. Written to a temporary file first, so readers
+     * never see a partial block.
+     */
+    public void putBlock(String url, long index, byte[] data, int length) throws IOException {
+        String key;
+        synchronized (this) {
+            initialize();
+            key = blockName(fileName(url), index);
+        }
+        File temp = new File(mRootDir, key + "." + Thread.currentThread().getId() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+        synchronized (this) {
+            File block = new File(mRootDir, key + BLOCK_SUFFIX);
+            if (!temp.renameTo(block)) {
+                temp.delete();
+                throw new IOException("Could not rename " + temp);
+            }
+            Long old = mBlocks.put(key, Long.valueOf(length));
+            if (old != null) {
+                mTotalBytes -= old.longValue();
+            }
+            mTotalBytes += length;
+            trim();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        initialize();
+        return mTotalBytes;
+    }
+
+    private void removeBlocks(String name) {
+        String prefix = name + "_";
+        Iterator<Map.Entry<String, Long>> it = mBlocks.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                it.remove();
+                mTotalBytes -= e.getValue().longValue();
+                new File(mRootDir, e.getKey() + BLOCK_SUFFIX).delete();
+            }
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = mBlocks.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            it.remove();
+            mTotalBytes -= e.getValue().longValue();
+            new File(mRootDir, e.getKey() + BLOCK_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Load the block index from disk, oldest first so LRU order survives restarts.
+     */
+    private void initialize() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+        if (!mRootDir.exists() && !mRootDir.mkdirs()) {
+            return;
+        }
+        File[] files = mRootDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(".tmp")) {
+                f.delete();
+            } else if (name.endsWith(BLOCK_SUFFIX)) {
+                mBlocks.put(name.substring(0, name.length() - BLOCK_SUFFIX.length()), Long.valueOf(f.length()));
+                mTotalBytes += f.length();
+            } else if (name.endsWith(RESOURCE_SUFFIX)) {
+                Resource resource = readResource(f);
+                if (resource == null) {
+                    f.delete();
+                } else {
+                    mResources.put(name.substring(0, name.length() - RESOURCE_SUFFIX.length()), resource);
+                }
+            }
+        }
+        trim();
+    }
+
+    private Resource readResource(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != RESOURCE_MAGIC) {
+                return null;
+            }
+            String url = in.readUTF();
+            long length = in.readLong();
+            String contentType = in.readBoolean() ? in.readUTF() : null;
+            return new Resource(url, length, contentType);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private void writeResource(String name, Resource resource) throws IOException {
+        if (!mRootDir.exists() && !mRootDir.mkdirs()) {
+            throw new IOException("Could not create " + mRootDir);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(mRootDir, name + RESOURCE_SUFFIX))));
+        try {
+            out.writeInt(RESOURCE_MAGIC);
+            out.writeUTF(resource.url);
+            out.writeLong(resource.length);
+            out.writeBoolean(resource.contentType != null);
+            if (resource.contentType != null) {
+                out.writeUTF(resource.contentType);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String blockName(String name, long index) {
+        return name + "_" + index;
+    }
+
+    /**
+     * Same scheme as Volley's DiskBasedCache: hash of each half of the key.
+     */
+    private static String fileName(String url) {
+        int half = url.length() / 2;
+        return String.valueOf(url.substring(0, half).hashCode())
+                + String.valueOf(url.substring(half).hashCode());
+    }
+}
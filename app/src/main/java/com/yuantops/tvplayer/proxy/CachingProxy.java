@@ -0,0 +1,628 @@
+package com.yuantops.tvplayer.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP proxy on the loopback interface between a media player and the VOD
+ * server. The player is given {@link #getProxyUrl} instead of the video URL;
+ * Range requests are answered from the {@link BlockCache} where possible and
+ * only the missing blocks are fetched from the server, a few blocks beyond
+ * what was asked for (read-ahead), so replays and backward seeks cost no
+ * network at all.
+ * Plain Java (no Android classes): it can be run against a local server on a
+ * desktop JVM.
+ * 本地回环缓存代理：播放器通过它请求视频，已缓存的块直接从磁盘返回
+ */
+public class CachingProxy {
+    public static final int     DEFAULT_BLOCK_SIZE = 256 * 1024;
+    private static final int    READ_AHEAD_BLOCKS  = 4;
+    private static final int    MAX_CONNECTIONS    = 8;
+    private static final int    CONNECT_TIMEOUT_MS = 5000;
+    private static final int    READ_TIMEOUT_MS    = 10000;
+    private static final int    MAX_LINE_LENGTH    = 8192;
+    private static final String PATH               = "/media?url=";
+
+    /**
+     * Counters since the proxy was created.
+     */
+    public static class Stats {
+        public long requests;
+        public long blockHits;       // blocks served from disk
+        public long blockMisses;     // blocks fetched from the server
+        public long bytesFromCache;  // bytes served without the network: bytes saved
+        public long bytesFromOrigin; // bytes downloaded, including read-ahead
+        public long bytesServed;     // bytes sent to players
+        public long bytesPrefetched; // downloaded by prefetch() before anyone asked
+
+        /**
+         * @return share of the bytes sent to players that came from the cache
+         */
+        public double getHitRatio() {
+            return bytesServed == 0 ? 0 : (double) bytesFromCache / bytesServed;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + " blockHits=" + blockHits + " blockMisses=" + blockMisses
+                    + " bytesFromCache=" + bytesFromCache + " bytesFromOrigin=" + bytesFromOrigin
+                    + " bytesServed=" + bytesServed + " bytesPrefetched=" + bytesPrefetched
+                    + " hitRatio=" + getHitRatio();
+        }
+    }
+
+    /**
+     * Told how long each block took to download, e.g. to estimate the bandwidth.
+     */
+    public interface TransferListener {
+        /** Called on a proxy thread after bytes arrived from the server in nanos. */
+        void onTransfer(long bytes, long nanos);
+    }
+
+    /**
+     * An open response from the server, positioned at a byte of the file.
+     */
+    private static class Origin {
+        HttpURLConnection connection;
+        InputStream       in;
+        long              position;
+        long              end    = -1; // last byte of this response, -1 if unknown
+        long              length = -1; // of the whole file, -1 if unknown
+        String            contentType;
+
+        /**
+         * A response read to its end leaves its connection in the keep-alive
+         * pool for the next request to the same server; any other is dropped.
+         */
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+            if (end < 0 || position <= end) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private final BlockCache mCache;
+    private final Stats      mStats = new Stats();
+    private volatile TransferListener mTransferListener;
+    private ServerSocket     mServerSocket;
+    private ExecutorService  mExecutor;
+
+    public CachingProxy(BlockCache cache) {
+        mCache = cache;
+    }
+
+    public void setTransferListener(TransferListener listener) {
+        mTransferListener = listener;
+    }
+
+    /**
+     * Listen on a free loopback port; does nothing if already started.
+     */
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        final ServerSocket serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        mServerSocket = serverSocket;
+        mExecutor = executor;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // closed by stop()
+                    }
+                }
+            }
+        }, "CachingProxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized void stop() {
+        if (mServerSocket == null) {
+            return;
+        }
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+        }
+        mExecutor.shutdownNow();
+        mServerSocket = null;
+        mExecutor = null;
+    }
+
+    public synchronized int getPort() {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * @return the URL to give the player for url; url itself when the proxy
+     *         is not running or cannot handle the scheme
+     */
+    public String getProxyUrl(String url) {
+        int port = getPort();
+        if (port < 0 || url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return url;
+        }
+        try {
+            return "http://127.0.0.1:" + port + PATH + URLEncoder.encode(url, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (mStats) {
+            Stats copy = new Stats();
+            copy.requests        = mStats.requests;
+            copy.blockHits       = mStats.blockHits;
+            copy.blockMisses     = mStats.blockMisses;
+            copy.bytesFromCache  = mStats.bytesFromCache;
+            copy.bytesFromOrigin = mStats.bytesFromOrigin;
+            copy.bytesServed     = mStats.bytesServed;
+            copy.bytesPrefetched = mStats.bytesPrefetched;
+            return copy;
+        }
+    }
+
+    /**
+     * Download the first bytes of url into the cache before the player asks
+     * for them. The response is read to its end, so its connection (DNS
+     * lookup and TCP handshake done) stays in the keep-alive pool for the
+     * proxy's next request to that server. Blocking; stops between blocks
+     * when the calling thread is interrupted.
+     * @return true if the first bytes of url are cached now
+     */
+    public boolean prefetch(String url, long bytes) throws IOException {
+        int blockSize = mCache.getBlockSize();
+        BlockCache.Resource resource = mCache.getResource(url);
+        long total = resource != null ? resource.getLength() : -1;
+        long lastBlock = (bytes - 1) / blockSize;
+        if (total >= 0) {
+            lastBlock = Math.min(lastBlock, (total - 1) / blockSize);
+        }
+        byte[] block = null;
+        for (long index = 0; index <= lastBlock; index++) {
+            if (mCache.hasBlock(url, index)) {
+                continue;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            long from = index * blockSize;
+            Origin origin = openOrigin(url, from,
+                    total >= 0 ? missingRunEnd(url, index, lastBlock * blockSize, total, 0) : (lastBlock + 1) * blockSize - 1);
+            try {
+                if (origin.length < 0) {
+                    return false; // not cacheable
+                }
+                if (total < 0) {
+                    total = origin.length;
+                    mCache.putResource(url, total, origin.contentType);
+                    lastBlock = Math.min(lastBlock, (total - 1) / blockSize);
+                }
+                if (block == null) {
+                    block = new byte[blockSize];
+                }
+                long end = origin.end >= 0 ? origin.end : total - 1;
+                while (origin.position <= end && index <= lastBlock && !Thread.currentThread().isInterrupted()) {
+                    int blockLength = (int) Math.min(blockSize, total - origin.position);
+                    readBlock(origin, block, blockLength);
+                    mCache.putBlock(url, index, block, blockLength);
+                    synchronized (mStats) {
+                        mStats.bytesFromOrigin += blockLength;
+                        mStats.bytesPrefetched += blockLength;
+                    }
+                    index++;
+                }
+                index--;
+            } finally {
+                origin.close();
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Answer one request, then close the connection.
+     */
+    private void serve(Socket socket) {
+        Origin origin = null;
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            String range = null;
+            for (String line = readLine(in); line != null && line.length() > 0; line = readLine(in)) {
+                if (line.regionMatches(true, 0, "Range:", 0, 6)) {
+                    range = line.substring(6).trim();
+                }
+            }
+            String[] parts = requestLine.split(" ");
+            boolean head = parts[0].equals("HEAD");
+            if (parts.length < 2 || !(head || parts[0].equals("GET")) || !parts[1].startsWith(PATH)) {
+                writeStatus(out, "400 Bad Request");
+                return;
+            }
+            synchronized (mStats) {
+                mStats.requests++;
+            }
+            String url = URLDecoder.decode(parts[1].substring(PATH.length()), "UTF-8");
+            long[] bounds = parseRange(range);
+            long start = bounds[0], end = bounds[1];
+
+            BlockCache.Resource resource = mCache.getResource(url);
+            if (resource == null) {
+                // length unknown: the first missing block's download tells it
+                long from = start >= 0 ? start - start % mCache.getBlockSize() : 0;
+                try {
+                    origin = openOrigin(url, from, -1);
+                } catch (IOException e) {
+                    writeStatus(out, "502 Bad Gateway");
+                    return;
+                }
+                if (origin.length < 0) {
+                    passThrough(origin, out, head);
+                    return;
+                }
+                resource = mCache.putResource(url, origin.length, origin.contentType);
+            }
+            long total = resource.getLength();
+            if (start < 0) {
+                // suffix range "bytes=-n": the last n bytes
+                start = Math.max(total + start, 0);
+                end = total - 1;
+            }
+            if (start >= total && total > 0) {
+                writeHeaders(out, "416 Requested Range Not Satisfiable", resource.getContentType(), 0,
+                        "Content-Range: bytes */" + total);
+                out.flush();
+                return;
+            }
+            if (end < 0 || end >= total) {
+                end = total - 1;
+            }
+            if (range != null) {
+                writeHeaders(out, "206 Partial Content", resource.getContentType(), end - start + 1,
+                        "Content-Range: bytes " + start + "-" + end + "/" + total);
+            } else {
+                writeHeaders(out, "200 OK", resource.getContentType(), total, null);
+            }
+            if (!head) {
+                origin = send(url, total, start, end, origin, out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // player went away or the server failed mid-stream: just close
+        } finally {
+            if (origin != null) {
+                origin.close();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Send bytes [start, end] of url, block by block.
+     * @return the origin response still open, if any, for the caller to close
+     */
+    private Origin send(String url, long total, long start, long end, Origin origin, OutputStream out)
+            throws IOException {
+        int blockSize = mCache.getBlockSize();
+        byte[] block = new byte[blockSize];
+        long pos = start;
+        boolean clientGone = false;
+        while (pos <= end && !clientGone) {
+            long index = pos / blockSize;
+            long blockStart = index * blockSize;
+            int blockLength = (int) Math.min(blockSize, total - blockStart);
+            int from = (int) (pos - blockStart);
+            int to = (int) Math.min(blockLength, end - blockStart + 1);
+
+            if (origin == null && sendCached(url, index, from, to, block, out)) {
+                pos = blockStart + to;
+                continue;
+            }
+            if (origin == null || origin.position != blockStart) {
+                if (origin != null) {
+                    origin.close();
+                }
+                origin = openOrigin(url, blockStart, missingRunEnd(url, index, end, total, READ_AHEAD_BLOCKS));
+            }
+            readBlock(origin, block, blockLength);
+            mCache.putBlock(url, index, block, blockLength);
+            synchronized (mStats) {
+                mStats.blockMisses++;
+                mStats.bytesFromOrigin += blockLength;
+            }
+            try {
+                out.write(block, from, to - from);
+                synchronized (mStats) {
+                    mStats.bytesServed += to - from;
+                }
+            } catch (IOException e) {
+                clientGone = true;
+            }
+            pos = blockStart + to;
+            if (pos <= end && mCache.hasBlock(url, index + 1)) {
+                origin.close(); // the rest comes from disk
+                origin = null;
+            }
+        }
+        // read-ahead: fill a few more blocks from the open response into the cache; not once the
+        // player has hung up, which it does on every seek: it is about to ask for another range
+        for (int i = 0; origin != null && !clientGone && i < READ_AHEAD_BLOCKS && origin.position < total; i++) {
+            long index = origin.position / blockSize;
+            if (mCache.hasBlock(url, index)) {
+                break;
+            }
+            int blockLength = (int) Math.min(blockSize, total - origin.position);
+            readBlock(origin, block, blockLength);
+            mCache.putBlock(url, index, block, blockLength);
+            synchronized (mStats) {
+                mStats.bytesFromOrigin += blockLength;
+            }
+        }
+        return origin;
+    }
+
+    /**
+     * Copy bytes [from, to) of a cached block to out.
+     * @return false if the block is not cached (or was just evicted)
+     */
+    private boolean sendCached(String url, long index, int from, int to, byte[] buf, OutputStream out)
+            throws IOException {
+        File file = mCache.getBlock(url, index);
+        if (file == null) {
+            return false;
+        }
+        InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            long skipped = 0;
+            while (skipped < from) {
+                long n = in.skip(from - skipped);
+                if (n <= 0) {
+                    return false;
+                }
+                skipped += n;
+            }
+            int remaining = to - from;
+            while (remaining > 0) {
+                int n = in.read(buf, 0, Math.min(buf.length, remaining));
+                if (n < 0) {
+                    return false; // truncated file; fetch it again
+                }
+                out.write(buf, 0, n);
+                remaining -= n;
+                synchronized (mStats) {
+                    mStats.bytesFromCache += n;
+                    mStats.bytesServed += n;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        synchronized (mStats) {
+            mStats.blockHits++;
+        }
+        return true;
+    }
+
+    /**
+     * Last byte to ask the server for when block index is missing: up to the
+     * next cached block, and readAhead blocks past the requested end.
+     */
+    private long missingRunEnd(String url, long index, long end, long total, int readAhead) {
+        int blockSize = mCache.getBlockSize();
+        long lastBlock = Math.min(end / blockSize + readAhead, (total - 1) / blockSize);
+        long last = index;
+        while (last < lastBlock && !mCache.hasBlock(url, last + 1)) {
+            last++;
+        }
+        return Math.min((last + 1) * blockSize, total) - 1;
+    }
+
+    private void readBlock(Origin origin, byte[] block, int length) throws IOException {
+        long start = System.nanoTime();
+        int n = 0;
+        while (n < length) {
+            int read = origin.in.read(block, n, length - n);
+            if (read < 0) {
+                throw new IOException("Server closed at " + (origin.position + n));
+            }
+            n += read;
+        }
+        origin.position += length;
+        TransferListener listener = mTransferListener;
+        if (listener != null) {
+            listener.onTransfer(length, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * GET bytes [from, to] (to -1: up to the end) of url from the server.
+     */
+    private static Origin openOrigin(String url, long from, long to) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Range", "bytes=" + from + "-" + (to >= 0 ? String.valueOf(to) : ""));
+        Origin origin = new Origin();
+        origin.connection = connection;
+        try {
+            int code = connection.getResponseCode();
+            origin.contentType = connection.getContentType();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                origin.in = connection.getInputStream();
+                origin.position = from;
+                if (contentRange != null && contentRange.lastIndexOf('/') > 0) {
+                    int slash = contentRange.lastIndexOf('/');
+                    String length = contentRange.substring(slash + 1).trim();
+                    origin.length = length.equals("*") ? -1 : Long.parseLong(length);
+                    int dash = contentRange.indexOf('-');
+                    if (dash > 0 && dash < slash) {
+                        origin.end = Long.parseLong(contentRange.substring(dash + 1, slash).trim());
+                    }
+                }
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                // no range support: skip to from ourselves
+                String length = connection.getHeaderField("Content-Length");
+                origin.length = length != null ? Long.parseLong(length.trim()) : -1;
+                origin.end = origin.length - 1;
+                origin.in = connection.getInputStream();
+                long skipped = 0;
+                while (skipped < from) {
+                    long n = origin.in.skip(from - skipped);
+                    if (n <= 0) {
+                        throw new IOException("Short body, wanted offset " + from);
+                    }
+                    skipped += n;
+                }
+                origin.position = from;
+            } else {
+                throw new IOException("HTTP " + code + " for " + url);
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        } catch (NumberFormatException e) {
+            connection.disconnect();
+            throw new IOException("Bad length for " + url);
+        }
+        return origin;
+    }
+
+    /**
+     * The server did not say how long the file is: forward it uncached.
+     */
+    private void passThrough(Origin origin, OutputStream out, boolean head) throws IOException {
+        writeHeaders(out, "200 OK", origin.contentType, -1, null);
+        if (head) {
+            return;
+        }
+        byte[] buf = new byte[16 * 1024];
+        int n;
+        while ((n = origin.in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+            synchronized (mStats) {
+                mStats.bytesFromOrigin += n;
+                mStats.bytesServed += n;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return {start, end} of a "bytes=start-end" header; {0, -1} when there
+     *         is none, {-n, -1} for a suffix range "bytes=-n"
+     */
+    static long[] parseRange(String range) {
+        long[] bounds = { 0, -1 };
+        if (range == null || !range.startsWith("bytes=")) {
+            return bounds;
+        }
+        String spec = range.substring(6);
+        int comma = spec.indexOf(',');
+        if (comma >= 0) {
+            spec = spec.substring(0, comma); // several ranges: serve the first
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return bounds;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.length() == 0) {
+                bounds[0] = -Long.parseLong(last);
+            } else {
+                bounds[0] = Long.parseLong(first);
+                bounds[1] = last.length() > 0 ? Long.parseLong(last) : -1;
+            }
+        } catch (NumberFormatException e) {
+            bounds[0] = 0;
+            bounds[1] = -1;
+        }
+        return bounds;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+            if (sb.length() > MAX_LINE_LENGTH) {
+                throw new IOException("Header line too long");
+            }
+        }
+        return c < 0 && sb.length() == 0 ? null : sb.toString();
+    }
+
+    private static void writeStatus(OutputStream out, String status) throws IOException {
+        writeHeaders(out, status, null, 0, null);
+        out.flush();
+    }
+
+    private static void writeHeaders(OutputStream out, String status, String contentType,
+                                     long contentLength, String extra) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 ").append(status).append("\r\n");
+        sb.append("Accept-Ranges: bytes\r\n");
+        if (contentType != null) {
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (extra != null) {
+            sb.append(extra).append("\r\n");
+        }
+        sb.append("Connection: close\r\n\r\n");
+        out.write(sb.toString().getBytes("US-ASCII"));
+    }
+}
@@ -0,0 +1,156 @@
+package com.yuantops.tvplayer.proxy;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up the title that has D-pad focus in a list: once focus has rested
+ * on it for {@link #DWELL_MS}, the first {@link #PREFETCH_BYTES} of its video
+ * are fetched into the proxy's cache, which also leaves a connection to the
+ * server in the keep-alive pool. When the title is then played through the
+ * proxy, the player's first requests are answered from disk and the rest
+ * continues on the open connection. Moving focus on cancels the warm-up.
+ * Time to first frame is kept separately for warmed and cold starts.
+ * 焦点条目预热：焦点停留片刻后预取视频开头，点击播放时即可快速起播
+ */
+public class WarmStarter {
+    public static final long DWELL_MS       = 700;
+    public static final long PREFETCH_BYTES = 1024 * 1024; // a few seconds of an SD stream
+    private static final int MAX_WARM       = 16;
+
+    /**
+     * Time-to-first-frame counters since process start.
+     */
+    public static class Stats {
+        public long warmStarts;
+        public long coldStarts;
+        public long warmTtffMs; // sum over warm starts
+        public long coldTtffMs; // sum over cold starts
+        public long warmUps;    // prefetches completed
+        public long canceled;   // prefetches abandoned because focus moved
+
+        public long getAverageWarmTtffMs() {
+            return warmStarts == 0 ? 0 : warmTtffMs / warmStarts;
+        }
+
+        public long getAverageColdTtffMs() {
+            return coldStarts == 0 ? 0 : coldTtffMs / coldStarts;
+        }
+
+        @Override
+        public String toString() {
+            return "warmStarts=" + warmStarts + " avgWarmTtffMs=" + getAverageWarmTtffMs()
+                    + " coldStarts=" + coldStarts + " avgColdTtffMs=" + getAverageColdTtffMs()
+                    + " warmUps=" + warmUps + " canceled=" + canceled;
+        }
+    }
+
+    private final CachingProxy             mProxy;
+    private final ScheduledExecutorService mExecutor;
+    private final Stats                    mStats = new Stats();
+    private final Map<String, Boolean>     mWarm  = new LinkedHashMap<String, Boolean>(16, .75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_WARM;
+        }
+    };
+    private String             mFocused;
+    private ScheduledFuture<?> mPending;
+
+    public WarmStarter(CachingProxy proxy) {
+        mProxy = proxy;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "WarmStarter");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Focus moved to the title playing url; cheap, call on every selection change.
+     */
+    public synchronized void onFocus(final String url) {
+        if (url == null || url.equals(mFocused)) {
+            return;
+        }
+        cancel();
+        mFocused = url;
+        if (mWarm.containsKey(url)) {
+            return;
+        }
+        mPending = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                warmUp(url);
+            }
+        }, DWELL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Focus left the list: drop a pending or running warm-up.
+     */
+    public synchronized void cancel() {
+        if (mPending != null && !mPending.isDone()) {
+            mPending.cancel(true);
+            mStats.canceled++;
+        }
+        mPending = null;
+        mFocused = null;
+    }
+
+    public synchronized boolean isWarm(String url) {
+        return mWarm.containsKey(url);
+    }
+
+    /**
+     * The video at url showed its first frame ttffMs after playback was requested.
+     */
+    public synchronized void onFirstFrame(String url, long ttffMs) {
+        if (mWarm.containsKey(url)) {
+            mStats.warmStarts++;
+            mStats.warmTtffMs += ttffMs;
+        } else {
+            mStats.coldStarts++;
+            mStats.coldTtffMs += ttffMs;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        Stats copy = new Stats();
+        copy.warmStarts = mStats.warmStarts;
+        copy.coldStarts = mStats.coldStarts;
+        copy.warmTtffMs = mStats.warmTtffMs;
+        copy.coldTtffMs = mStats.coldTtffMs;
+        copy.warmUps    = mStats.warmUps;
+        copy.canceled   = mStats.canceled;
+        return copy;
+    }
+
+    private void warmUp(String url) {
+        boolean warmed;
+        try {
+            warmed = mProxy.prefetch(url, PREFETCH_BYTES);
+        } catch (IOException e) {
+            warmed = false;
+        }
+        synchronized (this) {
+            if (warmed) {
+                mWarm.put(url, Boolean.TRUE);
+                mStats.warmUps++;
+            }
+            if (url.equals(mFocused)) {
+                mPending = null;
+            }
+        }
+    }
+}
@@ -6,30 +6,33 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import com.actionbarsherlock.app.SherlockFragment;
-import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
 import com.yuantops.tvplayer.R;
 import com.yuantops.tvplayer.adapter.ListviewAdapter;
+import com.yuantops.tvplayer.catalog.CatalogStore;
+import com.yuantops.tvplayer.catalog.PagedCatalog;
+import com.yuantops.tvplayer.util.PosterLoader;
 import com.yuantops.tvplayer.util.VolleySingleton;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by yuan on 9/4/15.
  */
 public class LiveListFragment extends SherlockFragment {
     private static final String TAG = LiveListFragment.class.getSimpleName();
-    private static JSONArray liveList = new JSONArray();
+    private static PagedCatalog liveCatalog;
     private static final String LIVE_API_SUFFIX = "/topstv/debug";
     //private static final String LIVE_API_SUFFIX = "/videos";
     private static String LiveApiUrl;
     private static ListviewAdapter movielistAdapter;
+    private static final int ZAP_CHANNELS = 50; //channels on each side handed to the player for up/down
 
     private ListView listViewLive;
     private AdapterView.OnItemClickListener clickListener;
@@ -51,17 +54,11 @@ public class LiveListFragment extends SherlockFragment {
         View v = inflater.inflate(R.layout.fragment_vod, container, false);
         listViewLive = (ListView) v.findViewById(R.id.listview_vod);
 
-        if (liveList == null || liveList.length() == 0 && LiveApiUrl != null) {
-            JsonArrayRequest request = new JsonArrayRequest(Request.Method.GET, LiveApiUrl, new Response.Listener<JSONArray>() {
+        if (liveCatalog == null) {
+            liveCatalog = new PagedCatalog(VolleySingleton.getInstance(getActivity().getApplicationContext()),
+                    LiveApiUrl, PagedCatalog.DEFAULT_PAGE_SIZE, new PagedCatalog.Listener() {
                 @Override
-                public void onResponse(JSONArray jsonArray) {
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        try {
-                            liveList.put((JSONObject)jsonArray.get(i));
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                public void onCatalogChanged() {
                     movielistAdapter.notifyDataSetChanged();
                 }
             }, new Response.ErrorListener() {
@@ -71,25 +68,67 @@ public class LiveListFragment extends SherlockFragment {
                     volleyError.printStackTrace();
                 }
             });
-            VolleySingleton.getInstance(getActivity().getApplicationContext()).addToRequestQueue(request);
+            liveCatalog.start();
         }
 
-        movielistAdapter = new ListviewAdapter(getActivity(), liveList);
+        movielistAdapter = new ListviewAdapter(getActivity(), liveCatalog);
         listViewLive.setAdapter(movielistAdapter);
 
+        listViewLive.setRecyclerListener(movielistAdapter);
+
+        //Prefetch pages and posters ahead of the rows on screen, whether scrolled or moved by D-pad;
+        //poster loads wait while the list is flung
+        PosterLoader posters = VolleySingleton.getInstance(getActivity().getApplicationContext()).getPosterLoader();
+        listViewLive.setOnScrollListener(posters.pauseOnFling(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                liveCatalog.onViewport(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+                movielistAdapter.onViewport(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+            }
+        }));
+        listViewLive.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                liveCatalog.onViewport(listViewLive.getFirstVisiblePosition(), listViewLive.getLastVisiblePosition());
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
         clickListener = new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                String videoUrl;
-                try {
-                    videoUrl = ((JSONObject) liveList.get(position)).getString("broadcastUrl");
-                } catch (JSONException e) {
-                    videoUrl = null;
-                    e.printStackTrace();
+                CatalogStore store = liveCatalog.getStore(position);
+                if (store == null) {
+                    return;
+                }
+                String videoUrl = store.getBroadcastUrl(liveCatalog.getStoreIndex(position));
+                //Neighbouring channels already loaded, for channel up/down in the player
+                int from = Math.max(0, position - ZAP_CHANNELS);
+                int to = Math.min(liveCatalog.getCount() - 1, position + ZAP_CHANNELS);
+                List<String> channels = new ArrayList<String>(to - from + 1);
+                int channelIndex = 0;
+                for (int i = from; i <= to; i++) {
+                    CatalogStore s = liveCatalog.getStore(i);
+                    String url = s == null ? null : s.getBroadcastUrl(liveCatalog.getStoreIndex(i));
+                    if (i == position) {
+                        channelIndex = channels.size();
+                        channels.add(videoUrl);
+                    } else if (url != null) {
+                        channels.add(url);
+                    }
                 }
                 Intent intent = new Intent(getActivity(), VideoPlayActivity.class);
                 Bundle intentArgs = new Bundle();
                 intentArgs.putString("broadcastUrl", videoUrl);
+                intentArgs.putStringArray("channels", channels.toArray(new String[channels.size()]));
+                intentArgs.putInt("channelIndex", channelIndex);
                 intentArgs.putString("type", "LIVE");
                 intent.putExtras(intentArgs);
                 getActivity().startActivity(intent);
@@ -1,31 +1,51 @@
 package com.yuantops.tvplayer.ui;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
 import com.actionbarsherlock.app.SherlockFragment;
-import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
 import com.yuantops.tvplayer.R;
 import com.yuantops.tvplayer.adapter.ListviewAdapter;
+import com.yuantops.tvplayer.catalog.CatalogIndex;
+import com.yuantops.tvplayer.catalog.CatalogIndexLoader;
+import com.yuantops.tvplayer.catalog.CatalogSearch;
+import com.yuantops.tvplayer.catalog.CatalogSource;
+import com.yuantops.tvplayer.catalog.CatalogStore;
+import com.yuantops.tvplayer.catalog.PagedCatalog;
+import com.yuantops.tvplayer.catalog.StringTable;
+import com.yuantops.tvplayer.download.DownloadManager;
+import com.yuantops.tvplayer.player.AbrController;
+import com.yuantops.tvplayer.proxy.WarmStarter;
+import com.yuantops.tvplayer.util.PosterLoader;
+import com.yuantops.tvplayer.util.UIRobot;
 import com.yuantops.tvplayer.util.VolleySingleton;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by yuan on 9/4/15.
  */
 public class VODListFragment extends SherlockFragment {
     private static final String TAG = VODListFragment.class.getSimpleName();
-    private static JSONArray movieList = new JSONArray();
+    private static PagedCatalog movieCatalog;
+    private static CatalogIndex movieIndex;
+    private static CatalogIndexLoader movieIndexLoader;
+    private static CatalogSearch.Session movieSearch;
+    private static Runnable pendingIndexAction;
     private static final String VOD_API_SUFFIX = "/topstv/debug";
     //private static final String VOD_API_SUFFIX = "/videos";
     private static String VODApiUrl;
@@ -51,17 +71,52 @@ public class VODListFragment extends SherlockFragment {
         View v = inflater.inflate(R.layout.fragment_vod, container, false);
         listViewVOD = (ListView) v.findViewById(R.id.listview_vod);
 
-        if (movieList == null || movieList.length() == 0 && VODApiUrl != null) {
-            JsonArrayRequest request = new JsonArrayRequest(Request.Method.GET, VODApiUrl, new Response.Listener<JSONArray>() {
-                @Override
-                public void onResponse(JSONArray jsonArray) {
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        try {
-                            movieList.put((JSONObject)jsonArray.get(i));
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
+        //Genre filter; the index behind it is only built once it is asked for
+        v.findViewById(R.id.button_filter).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                whenIndexReady(new Runnable() {
+                    @Override
+                    public void run() {
+                        showFilterDialog();
+                    }
+                });
+            }
+        });
+
+        //Search as the viewer types; the list follows each keystroke
+        ((EditText) v.findViewById(R.id.edittext_search)).addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                final String query = s.toString().trim();
+                if (query.length() == 0 && movieSearch == null) {
+                    //Nothing searched yet: no need for the index
+                    pendingIndexAction = null;
+                    showAll();
+                    return;
+                }
+                whenIndexReady(new Runnable() {
+                    @Override
+                    public void run() {
+                        search(query);
                     }
+                });
+            }
+        });
+
+        if (movieCatalog == null) {
+            movieCatalog = new PagedCatalog(VolleySingleton.getInstance(getActivity().getApplicationContext()),
+                    VODApiUrl, PagedCatalog.DEFAULT_PAGE_SIZE, new PagedCatalog.Listener() {
+                @Override
+                public void onCatalogChanged() {
                     movielistAdapter.notifyDataSetChanged();
                 }
             }, new Response.ErrorListener() {
@@ -71,25 +126,78 @@ public class VODListFragment extends SherlockFragment {
                     volleyError.printStackTrace();
                 }
             });
-            VolleySingleton.getInstance(getActivity().getApplicationContext()).addToRequestQueue(request);
+            movieCatalog.start();
         }
 
-        movielistAdapter = new ListviewAdapter(getActivity(), movieList);
+        //Load the resume positions while the viewer is still choosing
+        VolleySingleton.getInstance(getActivity().getApplicationContext()).getResumeStore();
+        //Go on with the downloads a previous run left unfinished
+        VolleySingleton.getInstance(getActivity().getApplicationContext()).getDownloadManager();
+
+        movielistAdapter = new ListviewAdapter(getActivity(), movieCatalog);
         listViewVOD.setAdapter(movielistAdapter);
 
+        listViewVOD.setRecyclerListener(movielistAdapter);
+
+        //Prefetch pages and posters ahead of the rows on screen, whether scrolled or moved by D-pad;
+        //poster loads wait while the list is flung
+        PosterLoader posters = VolleySingleton.getInstance(getActivity().getApplicationContext()).getPosterLoader();
+        listViewVOD.setOnScrollListener(posters.pauseOnFling(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (movielistAdapter.getSource() == movieCatalog) {
+                    movieCatalog.onViewport(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+                }
+                movielistAdapter.onViewport(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+            }
+        }));
+        listViewVOD.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (movielistAdapter.getSource() == movieCatalog) {
+                    movieCatalog.onViewport(listViewVOD.getFirstVisiblePosition(), listViewVOD.getLastVisiblePosition());
+                }
+                //Likely the next title played: prefetch its start once focus rests on it,
+                //at the definition playback would start at
+                VolleySingleton volley = VolleySingleton.getInstance(getActivity().getApplicationContext());
+                WarmStarter warmStarter = volley.getWarmStarter();
+                if (warmStarter != null) {
+                    CatalogSource source = movielistAdapter.getSource();
+                    CatalogStore store = source.getStore(position);
+                    if (store != null) {
+                        String[] tierUrls = tierUrls(store, source.getStoreIndex(position));
+                        warmStarter.onFocus(tierUrls[volley.getAbrController().initialTier(tierUrls)]);
+                    }
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                WarmStarter warmStarter = VolleySingleton.getInstance(getActivity().getApplicationContext()).getWarmStarter();
+                if (warmStarter != null) {
+                    warmStarter.cancel();
+                }
+            }
+        });
+
         clickListener = new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                String videoUrl;
-                try {
-                    videoUrl = ((JSONObject) movieList.get(position)).getString("standardDefiUrl");
-                } catch (JSONException e) {
-                    videoUrl = null;
-                    e.printStackTrace();
+                CatalogSource source = movielistAdapter.getSource();
+                CatalogStore store = source.getStore(position);
+                if (store == null) {
+                    return;
                 }
+                int index = source.getStoreIndex(position);
                 Intent intent = new Intent(getActivity(), VideoPlayActivity.class);
                 Bundle intentArgs = new Bundle();
-                intentArgs.putString("standardDefiUrl", videoUrl);
+                intentArgs.putString("standardDefiUrl", store.getStandardDefiUrl(index));
+                intentArgs.putString("highDefiUrl", store.getHighDefiUrl(index));
+                intentArgs.putString("superDefiUrl", store.getSuperDefiUrl(index));
                 intentArgs.putString("type", "VOD");
                 intent.putExtras(intentArgs);
                 getActivity().startActivity(intent);
@@ -97,6 +205,176 @@ public class VODListFragment extends SherlockFragment {
         };
         listViewVOD.setOnItemClickListener(clickListener);
 
+        //Long press downloads the title for offline viewing, or pauses its download
+        listViewVOD.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                CatalogSource source = movielistAdapter.getSource();
+                CatalogStore store = source.getStore(position);
+                if (store == null) {
+                    return false;
+                }
+                String url = store.getStandardDefiUrl(source.getStoreIndex(position));
+                DownloadManager downloads = VolleySingleton.getInstance(getActivity().getApplicationContext())
+                        .getDownloadManager();
+                DownloadManager.Download download = downloads.get(url);
+                if (downloads.getCompletedFile(url) != null) {
+                    UIRobot.showToast(getActivity(), getString(R.string.download_complete));
+                } else if (download != null && (download.getState() == DownloadManager.STATE_QUEUED
+                        || download.getState() == DownloadManager.STATE_RUNNING)) {
+                    downloads.pause(url);
+                    UIRobot.showToast(getActivity(), getString(R.string.download_paused));
+                } else {
+                    downloads.enqueue(url);
+                    UIRobot.showToast(getActivity(), getString(R.string.download_started));
+                }
+                return true;
+            }
+        });
+
         return v;
     }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        pendingIndexAction = null;
+    }
+
+    /**
+     * Run action once the full catalog has been indexed for filtering and
+     * search, starting the download the first time. It is not started with
+     * the list: it holds the whole catalog in memory, which only viewers who
+     * filter or search need. Only the last action asked for is run.
+     */
+    private void whenIndexReady(Runnable action) {
+        if (movieIndex != null) {
+            action.run();
+            return;
+        }
+        pendingIndexAction = action;
+        if (movieIndexLoader == null) {
+            UIRobot.showToast(getActivity(), getString(R.string.index_loading));
+            movieIndexLoader = new CatalogIndexLoader(VODApiUrl, new CatalogIndexLoader.Listener() {
+                @Override
+                public void onIndexReady(CatalogIndex index, CatalogSearch search) {
+                    movieIndex = index;
+                    movieSearch = search.newSession();
+                    movieIndexLoader = null;
+                    Runnable pending = pendingIndexAction;
+                    pendingIndexAction = null;
+                    if (pending != null && isAdded()) {
+                        pending.run();
+                    }
+                }
+
+                @Override
+                public void onIndexFailed() {
+                    //Asked for again on the next filter or search
+                    movieIndexLoader = null;
+                    pendingIndexAction = null;
+                }
+            });
+            movieIndexLoader.start(VolleySingleton.getInstance(getActivity().getApplicationContext()));
+        }
+    }
+
+    /**
+     * @return definitions of a title by AbrController tier, null where it has none
+     */
+    private static String[] tierUrls(CatalogStore store, int index) {
+        String[] urls = new String[AbrController.SUPER + 1];
+        urls[AbrController.STANDARD] = store.getStandardDefiUrl(index);
+        urls[AbrController.HIGH]     = store.getHighDefiUrl(index);
+        urls[AbrController.SUPER]    = store.getSuperDefiUrl(index);
+        return urls;
+    }
+
+    /**
+     * Pick a genre, each shown with its number of titles.
+     */
+    private void showFilterDialog() {
+        StringTable genreTable = movieIndex.getStore().getGenreTable();
+        int[] counts = movieIndex.genreCounts(movieIndex.all());
+        final List<String> genres = new ArrayList<String>();
+        List<CharSequence> labels = new ArrayList<CharSequence>();
+        genres.add(null);
+        labels.add(getString(R.string.filter_all_genres));
+        for (int id = StringTable.NONE + 1; id < counts.length; id++) {
+            if (counts[id] > 0) {
+                genres.add(genreTable.get(id));
+                labels.add(genreTable.get(id) + " (" + counts[id] + ")");
+            }
+        }
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.filter_genre)
+                .setItems(labels.toArray(new CharSequence[labels.size()]), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String genre = genres.get(which);
+                        if (genre == null) {
+                            showAll();
+                        } else {
+                            showFiltered(new String[] { genre }, 0, 0);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Show only titles of the given genres (any of them) released in
+     * [fromYear, toYear]; years 0 and 0 for any year, including unknown
+     * ones. Does nothing until the index has been built.
+     * @return number of matching titles, or -1 if the index is not ready
+     */
+    public int showFiltered(String[] genres, int fromYear, int toYear) {
+        if (movieIndex == null || movielistAdapter == null) {
+            return -1;
+        }
+        int[] genreIds = null;
+        if (genres != null && genres.length > 0) {
+            genreIds = new int[genres.length];
+            for (int i = 0; i < genres.length; i++) {
+                genreIds[i] = movieIndex.getStore().getGenreTable().lookup(genres[i]);
+            }
+        }
+        long[] rows = fromYear == 0 && toYear == 0 ? movieIndex.genres(genreIds)
+                : movieIndex.match(genreIds, fromYear, toYear);
+        CatalogSource filtered = movieIndex.select(rows);
+        movielistAdapter.setSource(filtered);
+        return filtered.getCount();
+    }
+
+    /**
+     * Show titles matching query, by characters of the name or by pinyin
+     * initials ("dhxy"); meant to be called on every keystroke. An empty
+     * query shows the whole catalog again.
+     * @return number of matching titles, or -1 if the search is not ready
+     */
+    public int search(String query) {
+        if (movieSearch == null || movielistAdapter == null) {
+            return -1;
+        }
+        CatalogSource found = movieSearch.update(query);
+        if (found == null) {
+            showAll();
+            return movieCatalog.getCount();
+        }
+        movielistAdapter.setSource(found);
+        return found.getCount();
+    }
+
+    /**
+     * Back to the unfiltered, paged catalog.
+     */
+    public void showAll() {
+        if (movielistAdapter != null) {
+            movielistAdapter.setSource(movieCatalog);
+        }
+    }
+
+    public static CatalogIndex getIndex() {
+        return movieIndex;
+    }
 }
@@ -3,9 +3,17 @@ package com.yuantops.tvplayer.ui;
 import io.vov.vitamio.LibsChecker;
 
 import com.yuantops.tvplayer.R;
+import com.yuantops.tvplayer.player.AbrController;
+import com.yuantops.tvplayer.player.LiveZapper;
 import com.yuantops.tvplayer.player.VideoPlayer;
 import com.yuantops.tvplayer.player.VideoPlayer_native;
 import com.yuantops.tvplayer.player.VideoPlayer_vitamio;
+import com.yuantops.tvplayer.player.PlayerPools;
+import com.yuantops.tvplayer.player.QoeLog;
+import com.yuantops.tvplayer.player.ResumeStore;
+import com.yuantops.tvplayer.proxy.CachingProxy;
+import com.yuantops.tvplayer.proxy.WarmStarter;
+import com.yuantops.tvplayer.util.VolleySingleton;
 
 import android.app.Activity;
 import android.content.ComponentName;
@@ -17,6 +25,7 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.SurfaceView;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -29,6 +38,8 @@ import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 import android.widget.TextView;
 
+import java.io.File;
+
 /**
  * Activity for playing on-demand/live video streams
  * 播放点播/直播流的Activity
@@ -37,7 +48,6 @@ import android.widget.TextView;
  */
 public class VideoPlayActivity extends Activity{
 	private static final String TAG = VideoPlayActivity.class.getSimpleName();	
-	private static final byte   STANDARD = 1, HIGH = 2, SUPER = 3; //Device resolution for deciding video type
 	
 	private int    viHeight, viWidth;               //Video Player size: height, width
 	private int    initTime, curTime, totTime;      //Video started at, current at, will end at	
@@ -86,13 +96,132 @@ public class VideoPlayActivity extends Activity{
             if (!LibsChecker.checkVitamioLibs(this))
                 return;
 
-            viPlayer = new VideoPlayer_vitamio(surView, viUrl, this);
+            VideoPlayer_vitamio livePlayer = new VideoPlayer_vitamio(surView, viUrl, this);
+            //Keep the neighbouring channels ready for channel up/down, buffered as the player
+            //joins a channel so a zap starts at the target latency
+            String[] channels = intentArgs.getStringArray("channels");
+            if (channels != null && channels.length > 1) {
+                LiveZapper zapper = new LiveZapper(this, LiveZapper.DEFAULT_NEIGHBOURS,
+                        LiveZapper.bufferBytes(livePlayer.getLatencyTargetMs()),
+                        VolleySingleton.getInstance(getApplicationContext()).getBandwidthMeter());
+                zapper.setChannels(channels);
+                livePlayer.setZapper(zapper, intentArgs.getInt("channelIndex"));
+            }
+            viPlayer = livePlayer;
         } else {
             viUrl = intentArgs.getString("standardDefiUrl");
-            viPlayer = new VideoPlayer_native(surView, seekBar, viUrl, curTimeView, totTimeView, 0, this);
+            //Definitions by tier; those the title lacks stay null
+            String[] tierUrls = new String[AbrController.SUPER + 1];
+            tierUrls[AbrController.STANDARD] = viUrl;
+            tierUrls[AbrController.HIGH]     = intentArgs.getString("highDefiUrl");
+            tierUrls[AbrController.SUPER]    = intentArgs.getString("superDefiUrl");
+            AbrController abr = VolleySingleton.getInstance(getApplicationContext()).getAbrController();
+            abr.setScreen(viWidth, viHeight);
+            byte tier = abr.initialTier(tierUrls);
+            //The list warmed the tier picked when the title had focus; if the estimate has
+            //moved since, start there anyway and let the controller switch at the next stall
+            final WarmStarter warmStarter = VolleySingleton.getInstance(getApplicationContext()).getWarmStarter();
+            if (warmStarter != null && !warmStarter.isWarm(tierUrls[tier])) {
+                for (byte t = AbrController.STANDARD; t <= AbrController.SUPER; t++) {
+                    if (tierUrls[t] != null && warmStarter.isWarm(tierUrls[t])) {
+                        tier = t;
+                        break;
+                    }
+                }
+            }
+            viUrl = tierUrls[tier];
+            //Stream through the local caching proxy, so replays and seeks back do not download again
+            String[] playUrls = tierUrls.clone();
+            CachingProxy proxy = VolleySingleton.getInstance(getApplicationContext()).getMediaProxy();
+            //A title downloaded for offline viewing plays from its file, at the definition downloaded
+            File downloaded = VolleySingleton.getInstance(getApplicationContext()).getDownloadManager()
+                    .getCompletedFile(tierUrls[AbrController.STANDARD]);
+            if (downloaded != null) {
+                tier = AbrController.STANDARD;
+                viUrl = tierUrls[tier];
+                playUrls = new String[tierUrls.length];
+                playUrls[tier] = downloaded.getAbsolutePath();
+                proxy = null;
+            }
+            if (proxy != null) {
+                for (int i = 0; i < playUrls.length; i++) {
+                    if (playUrls[i] != null) {
+                        playUrls[i] = proxy.getProxyUrl(playUrls[i]);
+                    }
+                }
+            }
+            String playUrl = playUrls[tier];
+            //Resume where the title was left off, keyed by its standard definition url
+            String titleKey = intentArgs.getString("standardDefiUrl");
+            ResumeStore resumeStore = VolleySingleton.getInstance(getApplicationContext()).getResumeStore();
+            int beginTime = (int) resumeStore.getPosition(titleKey);
+            VideoPlayer_native nativePlayer = new VideoPlayer_native(surView, seekBar, playUrl, curTimeView, totTimeView, beginTime, this);
+            nativePlayer.setResumeStore(resumeStore, titleKey);
+            final String originUrl = viUrl;
+            if (warmStarter != null && downloaded == null) {
+                nativePlayer.setOnFirstFrameListener(new VideoPlayer_native.OnFirstFrameListener() {
+                    @Override
+                    public void onFirstFrame(long ttffMs) {
+                        warmStarter.onFirstFrame(originUrl, ttffMs);
+                        Log.v(TAG, "start " + warmStarter.getStats());
+                    }
+                });
+            }
+            nativePlayer.setAdaptive(playUrls, tier, abr);
+            viPlayer = nativePlayer;
         }
 	}
 	
+	/**
+	 * Stop playback in the background; this also stops the progress clock
+	 */
+	@Override
+	protected void onPause() {
+		super.onPause();
+		if (viPlayer != null && viPlayer.isPlaying()) {
+			viPlayer.pause();
+			playImgBtn.setImageResource(R.drawable.play);
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (viPlayer != null) {
+			viPlayer.stop();
+			QoeLog.record(this, viPlayer.getMetrics());
+			Log.v(TAG, "player pool " + (viPlayer instanceof VideoPlayer_native
+					? PlayerPools.getNativePool(this).getStats() : PlayerPools.getVitamioPool(this).getStats()));
+		}
+		CachingProxy proxy = VolleySingleton.getInstance(getApplicationContext()).getMediaProxy();
+		if (proxy != null) {
+			Log.v(TAG, "media proxy " + proxy.getStats());
+		}
+		Log.v(TAG, "abr " + VolleySingleton.getInstance(getApplicationContext()).getAbrController());
+	}
+	
+	/**
+	 * Channel up/down while watching live
+	 */
+	@Override
+	public boolean onKeyDown(int keyCode, KeyEvent event) {
+		if (viPlayer instanceof VideoPlayer_vitamio) {
+			switch (keyCode) {
+			case KeyEvent.KEYCODE_CHANNEL_UP:
+			case KeyEvent.KEYCODE_DPAD_UP:
+				((VideoPlayer_vitamio) viPlayer).zap(-1);
+				return true;
+			case KeyEvent.KEYCODE_CHANNEL_DOWN:
+			case KeyEvent.KEYCODE_DPAD_DOWN:
+				((VideoPlayer_vitamio) viPlayer).zap(1);
+				return true;
+			default:
+				break;
+			}
+		}
+		return super.onKeyDown(keyCode, event);
+	}
+	
 	/**
 	 * Get references of view components
 	 */
@@ -135,10 +264,12 @@ public class VideoPlayActivity extends Activity{
 		}
 		@Override
 		public void onStartTrackingTouch(SeekBar arg0) {
+			viPlayer.setSeeking(true);
 		}
 		@Override
 		public void onStopTrackingTouch(SeekBar arg0) {
 			viPlayer.seekTo(progress);
+			viPlayer.setSeeking(false);
 			//Log.v(TAG, "onStopTrackingTouch() called");
 		}		
 	};
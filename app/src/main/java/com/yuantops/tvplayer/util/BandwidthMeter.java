@@ -0,0 +1,187 @@
+package com.yuantops.tvplayer.util;
+
+import com.yuantops.tvplayer.proxy.CachingProxy;
+
+/**
+ * Estimates how fast the current network is from the transfers the app makes
+ * anyway: Volley requests, the streamed catalog, the media proxy's block
+ * downloads and the player's buffering progress. Each signal is kept both as
+ * an EWMA, which reacts quickly, and over a sliding window of the last
+ * {@link #WINDOW_MS}, which is steadier. Everything is forgotten on
+ * {@link #reset}, called when the device changes network.
+ * Answers are 0 (or -1 for times) until there is a sample, so callers can
+ * fall back to their defaults.
+ * Plain Java; thread-safe.
+ * 网络带宽/时延估计：汇总各条下载通路的测量值
+ */
+public class BandwidthMeter implements CachingProxy.TransferListener {
+    public static final long WINDOW_MS = 30 * 1000;
+    private static final int    MAX_SAMPLES      = 64;
+    private static final long   MIN_SAMPLE_BYTES = 32 * 1024; // smaller bodies mostly measure latency
+    private static final double EWMA_WEIGHT      = 0.3;
+
+    // transfer samples, a ring of the most recent MAX_SAMPLES
+    private final long[] mBytes     = new long[MAX_SAMPLES];
+    private final long[] mNanos     = new long[MAX_SAMPLES];
+    private final long[] mBytesAt   = new long[MAX_SAMPLES];
+    private int          mBytesNext, mBytesCount;
+    // round trip samples, same layout
+    private final long[] mRtt       = new long[MAX_SAMPLES];
+    private final long[] mRttAt     = new long[MAX_SAMPLES];
+    private int          mRttNext, mRttCount;
+
+    private double mThroughputBps;  // EWMA
+    private double mRttNanos;       // EWMA
+    private double mBufferFillRate; // EWMA of media ms buffered per ms
+    private long   mTotalBytes;
+    private int    mResets;
+
+    /**
+     * bytes arrived in nanos, measured from the first to the last byte.
+     */
+    @Override
+    public synchronized void onTransfer(long bytes, long nanos) {
+        if (bytes < MIN_SAMPLE_BYTES || nanos <= 0) {
+            return;
+        }
+        mTotalBytes += bytes;
+        mBytes[mBytesNext]   = bytes;
+        mNanos[mBytesNext]   = nanos;
+        mBytesAt[mBytesNext] = nowMs();
+        mBytesNext = (mBytesNext + 1) % MAX_SAMPLES;
+        mBytesCount = Math.min(mBytesCount + 1, MAX_SAMPLES);
+        double bps = bytes * 8 * 1e9 / nanos;
+        mThroughputBps = mThroughputBps == 0 ? bps : ewma(mThroughputBps, bps);
+    }
+
+    /**
+     * A request got its response headers nanos after it was sent.
+     */
+    public synchronized void onRtt(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        mRtt[mRttNext]   = nanos;
+        mRttAt[mRttNext] = nowMs();
+        mRttNext = (mRttNext + 1) % MAX_SAMPLES;
+        mRttCount = Math.min(mRttCount + 1, MAX_SAMPLES);
+        mRttNanos = mRttNanos == 0 ? nanos : ewma(mRttNanos, nanos);
+    }
+
+    /**
+     * The player buffered mediaMs more video in nanos. Above 1 the link is
+     * faster than the stream; this works even when the byte count is unknown.
+     */
+    public synchronized void onBufferFill(long mediaMs, long nanos) {
+        if (mediaMs <= 0 || nanos <= 0) {
+            return;
+        }
+        double rate = mediaMs * 1e6 / nanos;
+        mBufferFillRate = mBufferFillRate == 0 ? rate : ewma(mBufferFillRate, rate);
+    }
+
+    /**
+     * Forget everything, e.g. after switching from Wi-Fi to mobile data.
+     */
+    public synchronized void reset() {
+        mBytesNext = mBytesCount = 0;
+        mRttNext = mRttCount = 0;
+        mThroughputBps = 0;
+        mRttNanos = 0;
+        mBufferFillRate = 0;
+        mResets++;
+    }
+
+    /**
+     * @return EWMA throughput in bits/s, 0 if unknown
+     */
+    public synchronized long getThroughputBps() {
+        return (long) mThroughputBps;
+    }
+
+    /**
+     * @return throughput over the samples of the last WINDOW_MS in bits/s, 0 if none
+     */
+    public synchronized long getWindowThroughputBps() {
+        long since = nowMs() - WINDOW_MS;
+        long bytes = 0, nanos = 0;
+        for (int k = 0; k < mBytesCount; k++) {
+            int i = (mBytesNext - 1 - k + MAX_SAMPLES) % MAX_SAMPLES;
+            if (mBytesAt[i] < since) {
+                break; //older ones are older still
+            }
+            bytes += mBytes[i];
+            nanos += mNanos[i];
+        }
+        return nanos == 0 ? 0 : (long) (bytes * 8 * 1e9 / nanos);
+    }
+
+    /**
+     * @return EWMA round trip in ms, -1 if unknown
+     */
+    public synchronized long getRttMs() {
+        return mRttNanos == 0 ? -1 : (long) (mRttNanos / 1000000);
+    }
+
+    /**
+     * @return smallest round trip of the last WINDOW_MS in ms, -1 if none; the
+     *         best guess of the path latency without server time or queueing
+     */
+    public synchronized long getMinRttMs() {
+        long since = nowMs() - WINDOW_MS;
+        long min = Long.MAX_VALUE;
+        for (int k = 0; k < mRttCount; k++) {
+            int i = (mRttNext - 1 - k + MAX_SAMPLES) % MAX_SAMPLES;
+            if (mRttAt[i] < since) {
+                break;
+            }
+            min = Math.min(min, mRtt[i]);
+        }
+        return min == Long.MAX_VALUE ? -1 : min / 1000000;
+    }
+
+    /**
+     * @return media ms buffered per ms of wall time, 0 if unknown
+     */
+    public synchronized double getBufferFillRate() {
+        return mBufferFillRate;
+    }
+
+    /**
+     * @return expected time to fetch bytes in ms, -1 if the throughput is unknown
+     */
+    public synchronized long estimateTransferMs(long bytes) {
+        if (mThroughputBps == 0) {
+            return -1;
+        }
+        long rtt = mRttNanos == 0 ? 0 : (long) (mRttNanos / 1000000);
+        return rtt + (long) (bytes * 8000 / mThroughputBps);
+    }
+
+    /**
+     * A read timeout for a request of about bytes: a few times what it should
+     * take, within [minMs, maxMs]; defaultMs while nothing is known.
+     */
+    public long getTimeoutMs(long bytes, long defaultMs, long minMs, long maxMs) {
+        long expected = estimateTransferMs(bytes);
+        if (expected < 0) {
+            return defaultMs;
+        }
+        return Math.max(minMs, Math.min(maxMs, 3 * expected));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "throughputBps=" + (long) mThroughputBps + " windowThroughputBps=" + getWindowThroughputBps()
+                + " rttMs=" + getRttMs() + " minRttMs=" + getMinRttMs()
+                + " bufferFillRate=" + mBufferFillRate + " totalBytes=" + mTotalBytes + " resets=" + mResets;
+    }
+
+    private static double ewma(double average, double sample) {
+        return EWMA_WEIGHT * sample + (1 - EWMA_WEIGHT) * average;
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,231 @@
+package com.yuantops.tvplayer.util;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.Build;
+import com.yuantops.tvplayer.player.PlaybackMetrics;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Mutable bitmaps no longer shown, kept for the next decode to draw into
+ * (BitmapFactory.Options.inBitmap or a Canvas) instead of allocating, so
+ * scrolling through artwork does not keep the garbage collector busy.
+ * Bitmaps are bucketed by width, height and config. Before KitKat only an
+ * exact bucket can be reused; from KitKat on a larger bitmap of the same
+ * config is reconfigured to fit. At most maxBytes are held; the buckets used
+ * least recently give up their oldest bitmaps first.
+ * Thread safe.
+ * 可复用位图池，按尺寸分桶，减少滚动时的内存分配与GC
+ */
+public class BitmapPool {
+    private static final int MAX_OVERSIZE = 2; // reuse a bitmap at most this many times too large
+
+    /**
+     * Counters since the pool was created.
+     */
+    public static class Stats {
+        public long requests;       // bitmaps asked for
+        public long hits;           // answered from the pool
+        public long puts;           // bitmaps given back and kept
+        public long evictions;      // recycled to stay within the budget
+        public long bytesAllocated; // allocated because the pool had nothing
+        public long pooledBytes;
+        public long maxBytes;
+        public final PlaybackMetrics.Histogram kbPerScroll = new PlaybackMetrics.Histogram();
+
+        public double getHitRate() {
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + " hitRate=" + getHitRate() + " puts=" + puts + " evictions=" + evictions
+                    + " bytesAllocated=" + bytesAllocated + " pooledBytes=" + pooledBytes + "/" + maxBytes
+                    + " kbPerScroll=" + kbPerScroll;
+        }
+    }
+
+    // access ordered: the eldest bucket is the one least recently taken from or given to
+    private final LinkedHashMap<Long, ArrayDeque<Bitmap>> mBuckets =
+            new LinkedHashMap<Long, ArrayDeque<Bitmap>>(8, 0.75f, true);
+    private final Stats mStats = new Stats();
+    private long mMaxBytes;
+    private long mBytes;
+    private long mScrollStartAllocated = -1;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return a mutable width x height bitmap with undefined pixels, or null
+     */
+    public synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        mStats.requests++;
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key(width, height, config));
+        Bitmap bitmap = bucket == null ? null : bucket.pollLast();
+        if (bitmap == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bitmap = takeLarger(width, height, config);
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        mStats.hits++;
+        mBytes -= sizeOf(bitmap);
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return a pooled bitmap as {@link #take}, otherwise a newly allocated one
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            onAllocated(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Count a bitmap that had to be allocated elsewhere, e.g. by a decode.
+     */
+    public synchronized void onAllocated(Bitmap bitmap) {
+        mStats.bytesAllocated += sizeOf(bitmap);
+    }
+
+    /**
+     * Give back a bitmap nothing draws or shows any more. Immutable or
+     * recycled bitmaps are ignored.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+            return;
+        }
+        int size = sizeOf(bitmap);
+        if (size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        Long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.addLast(bitmap);
+        mBytes += size;
+        mStats.puts++;
+        trim(mMaxBytes);
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim(maxBytes);
+    }
+
+    /**
+     * Recycle pooled bitmaps until at most maxBytes are held.
+     */
+    public synchronized void trim(long maxBytes) {
+        Iterator<Map.Entry<Long, ArrayDeque<Bitmap>>> it = mBuckets.entrySet().iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            ArrayDeque<Bitmap> bucket = it.next().getValue();
+            while (mBytes > maxBytes && !bucket.isEmpty()) {
+                Bitmap bitmap = bucket.pollFirst();
+                mBytes -= sizeOf(bitmap);
+                mStats.evictions++;
+                bitmap.recycle();
+            }
+            if (bucket.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Halve the pool when memory gets tight, empty it once the app is low or hidden.
+     */
+    public synchronized void onTrimMemory(int level) {
+        trim(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ? 0 : mMaxBytes / 2);
+    }
+
+    /**
+     * Call as a scroll gesture starts and ends, to measure the bytes it allocated.
+     */
+    public synchronized void onScroll(boolean scrolling) {
+        if (scrolling && mScrollStartAllocated < 0) {
+            mScrollStartAllocated = mStats.bytesAllocated;
+        } else if (!scrolling && mScrollStartAllocated >= 0) {
+            mStats.kbPerScroll.record((mStats.bytesAllocated - mScrollStartAllocated) / 1024);
+            mScrollStartAllocated = -1;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        Stats copy = new Stats();
+        copy.requests       = mStats.requests;
+        copy.hits           = mStats.hits;
+        copy.puts           = mStats.puts;
+        copy.evictions      = mStats.evictions;
+        copy.bytesAllocated = mStats.bytesAllocated;
+        copy.pooledBytes    = mBytes;
+        copy.maxBytes       = mMaxBytes;
+        copy.kbPerScroll.merge(mStats.kbPerScroll);
+        return copy;
+    }
+
+    /**
+     * Smallest pooled bitmap of config with room for width x height, if it is
+     * no more than MAX_OVERSIZE times too large.
+     */
+    private Bitmap takeLarger(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        ArrayDeque<Bitmap> best = null;
+        long bestSize = Long.MAX_VALUE;
+        for (Map.Entry<Long, ArrayDeque<Bitmap>> entry : mBuckets.entrySet()) {
+            Bitmap candidate = entry.getValue().peekLast();
+            if (candidate == null || candidate.getConfig() != config) {
+                continue;
+            }
+            long size = sizeOf(candidate);
+            if (size >= needed && size <= MAX_OVERSIZE * needed && size < bestSize) {
+                best = entry.getValue();
+                bestSize = size;
+            }
+        }
+        return best == null ? null : best.pollLast();
+    }
+
+    private static Long key(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case ARGB_8888:
+                return 4;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * @return bytes of the allocation, which outlives a reconfigure to a smaller size
+     */
+    static int sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
@@ -0,0 +1,175 @@
+package com.yuantops.tvplayer.util;
+
+import android.util.Log;
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.yuantops.tvplayer.player.PlaybackMetrics;
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Volley network that times every request and reports it to a
+ * {@link BandwidthMeter}: the time until the response headers as a round
+ * trip, and the body as a transfer measured from the headers to the last
+ * byte.
+ * Each request is split into DNS (resolving the host, answered from the
+ * system cache when warm), TTFB (request sent to headers in, including the
+ * TCP connect when no kept-alive connection was free; HttpURLConnection does
+ * not expose the two separately) and body. The phases are kept in histograms.
+ * 向BandwidthMeter报告每个Volley请求的时延与吞吐，并统计各阶段耗时
+ */
+public class MeteredNetwork extends BasicNetwork {
+    private static final String TAG = MeteredNetwork.class.getSimpleName();
+    private static final int    LOG_EVERY = 50; // requests between totals in the log
+
+    /**
+     * Phases of the request running on a network dispatcher thread.
+     */
+    private static class Timing {
+        long dnsNanos;
+        long startedAt;
+        long headersAt;
+    }
+
+    /**
+     * Request phase times since the network was created, in ms.
+     */
+    public static class Stats {
+        public long requests;
+        public long failures;
+        public long bytes;
+        public final PlaybackMetrics.Histogram dns  = new PlaybackMetrics.Histogram();
+        public final PlaybackMetrics.Histogram ttfb = new PlaybackMetrics.Histogram();
+        public final PlaybackMetrics.Histogram body = new PlaybackMetrics.Histogram();
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + " failures=" + failures + " bytes=" + bytes
+                    + " dnsMs=" + dns + " ttfbMs=" + ttfb + " bodyMs=" + body;
+        }
+    }
+
+    private static final ThreadLocal<Timing> TIMING = new ThreadLocal<Timing>() {
+        @Override
+        protected Timing initialValue() {
+            return new Timing();
+        }
+    };
+
+    private final BandwidthMeter mMeter;
+    private final NetworkConfig  mConfig;
+    private final Stats          mStats = new Stats();
+
+    public MeteredNetwork(BandwidthMeter meter, NetworkConfig config) {
+        super(new TimedStack(meter, config));
+        mMeter  = meter;
+        mConfig = config;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        Timing timing = TIMING.get();
+        timing.dnsNanos  = 0;
+        timing.headersAt = 0;
+        NetworkResponse response;
+        try {
+            response = super.performRequest(request);
+        } catch (VolleyError e) {
+            synchronized (mStats) {
+                mStats.requests++;
+                mStats.failures++;
+            }
+            throw e;
+        }
+        long now = System.nanoTime();
+        if (timing.headersAt != 0) {
+            long bodyNanos = now - timing.headersAt;
+            int bytes = response.data == null ? 0 : response.data.length;
+            // a 304 carries the cached body, which did not cross the network
+            if (!response.notModified) {
+                mMeter.onTransfer(bytes, bodyNanos);
+            }
+            record(request, timing, bytes, bodyNanos);
+        }
+        return response;
+    }
+
+    public Stats getStats() {
+        synchronized (mStats) {
+            Stats copy = new Stats();
+            copy.requests = mStats.requests;
+            copy.failures = mStats.failures;
+            copy.bytes    = mStats.bytes;
+            copy.dns.merge(mStats.dns);
+            copy.ttfb.merge(mStats.ttfb);
+            copy.body.merge(mStats.body);
+            return copy;
+        }
+    }
+
+    private void record(Request<?> request, Timing timing, int bytes, long bodyNanos) {
+        long dnsMs  = timing.dnsNanos / 1000000;
+        long ttfbMs = (timing.headersAt - timing.startedAt - timing.dnsNanos) / 1000000;
+        long bodyMs = bodyNanos / 1000000;
+        boolean logTotals;
+        synchronized (mStats) {
+            mStats.requests++;
+            mStats.bytes += bytes;
+            mStats.dns.record(dnsMs);
+            mStats.ttfb.record(ttfbMs);
+            mStats.body.record(bodyMs);
+            logTotals = mStats.requests % LOG_EVERY == 0;
+        }
+        if (mConfig.logEachRequest) {
+            Log.v(TAG, request.getUrl() + " dns=" + dnsMs + "ms ttfb=" + ttfbMs + "ms body=" + bodyMs
+                    + "ms bytes=" + bytes);
+        }
+        if (logTotals) {
+            Log.v(TAG, getStats().toString());
+        }
+    }
+
+    private static class TimedStack extends HurlStack {
+        private final BandwidthMeter meter;
+        private final NetworkConfig  config;
+
+        TimedStack(BandwidthMeter meter, NetworkConfig config) {
+            this.meter  = meter;
+            this.config = config;
+        }
+
+        @Override
+        public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+                throws IOException, AuthFailureError {
+            Timing timing = TIMING.get();
+            timing.startedAt = System.nanoTime();
+            HttpResponse response = super.performRequest(request, additionalHeaders);
+            long now = System.nanoTime();
+            meter.onRtt(now - timing.startedAt - timing.dnsNanos);
+            timing.headersAt = now;
+            return response;
+        }
+
+        @Override
+        protected HttpURLConnection createConnection(URL url) throws IOException {
+            // resolve up front to time it; the connection then hits the warm cache
+            long start = System.nanoTime();
+            InetAddress.getAllByName(url.getHost());
+            TIMING.get().dnsNanos = System.nanoTime() - start;
+            HttpURLConnection connection = super.createConnection(url);
+            if (!config.gzip) {
+                connection.setRequestProperty("Accept-Encoding", "identity");
+            }
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.yuantops.tvplayer.util;
+
+/**
+ * Tuning of the network stack behind {@link VolleySingleton}. Set the fields
+ * and pass it to {@link VolleySingleton#setNetworkConfig} before the first
+ * {@link VolleySingleton#getInstance}; the defaults are Volley's own, except
+ * for a larger response cache.
+ * 网络层参数：分发线程数、缓存大小、长连接池、gzip、请求计时日志
+ */
+public class NetworkConfig {
+    /** Volley network dispatcher threads: requests running at once. */
+    public int     dispatcherThreads  = 4;
+    /** Bytes of responses kept by Volley's disk cache. */
+    public int     cacheBytes         = 10 * 1024 * 1024;
+    /** Reuse connections to the same server between requests. */
+    public boolean keepAlive          = true;
+    /** Idle connections kept open per server for reuse. */
+    public int     maxIdleConnections = 5;
+    /**
+     * Ask for gzip bodies. HttpURLConnection on Android requests and inflates
+     * gzip by itself as long as no Accept-Encoding is set; false sends
+     * "identity" instead, e.g. for a server whose gzip is broken.
+     */
+    public boolean gzip               = true;
+    /** Log the phases of every request, not only the running totals. */
+    public boolean logEachRequest     = false;
+    /** Connections offline downloads use at once, over all titles. */
+    public int     downloadConnections    = 3;
+    /** Bytes per second offline downloads may take together, 0 for no limit. */
+    public long    downloadBytesPerSecond = 0;
+
+    /**
+     * Connection reuse is configured process-wide through system properties
+     * read by HttpURLConnection; they cover the catalog and media proxy
+     * connections as well.
+     */
+    void applyConnectionPool() {
+        System.setProperty("http.keepAlive", String.valueOf(keepAlive));
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+    }
+
+    @Override
+    public String toString() {
+        return "dispatcherThreads=" + dispatcherThreads + " cacheBytes=" + cacheBytes + " keepAlive=" + keepAlive
+                + " maxIdleConnections=" + maxIdleConnections + " gzip=" + gzip
+                + " downloadConnections=" + downloadConnections + " downloadBytesPerSecond=" + downloadBytesPerSecond;
+    }
+}
@@ -0,0 +1,102 @@
+package com.yuantops.tvplayer.util;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * 汉字拼音首字母工具
+ * Pinyin initials of Chinese characters, without a dictionary: level-1
+ * characters of GB2312 (the 3755 most common ones) are ordered by pinyin,
+ * so the GB2312 code point alone gives the initial letter.
+ * Level-2 characters are not ordered and have no initial here.
+ */
+public class PinyinUtils {
+	private static final char   CJK_FIRST = '\u4e00';
+	private static final char   CJK_LAST  = '\u9fa5';
+
+	// first GB2312 area/position code of each initial, plus the end of level 1
+	private static final int[]  LETTER_START = { 1601, 1637, 1833, 2078, 2274,
+			2302, 2433, 2594, 2787, 3106, 3212, 3472, 3635, 3722, 3730, 3858,
+			4027, 4086, 4390, 4558, 4684, 4925, 5249, 5590 };
+	private static final char[] LETTERS = { 'a', 'b', 'c', 'd', 'e', 'f', 'g',
+			'h', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'w',
+			'x', 'y', 'z' };
+
+	private static volatile char[] initialTable;
+
+	/**
+	 * 取单个字符的拼音首字母
+	 * @param c
+	 * @return lowercase initial for Chinese characters, lowercase c for ASCII
+	 *         letters and digits, 0 otherwise
+	 */
+	public static char getInitial(char c) {
+		if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+			return c;
+		}
+		if (c >= 'A' && c <= 'Z') {
+			return (char) (c + ('a' - 'A'));
+		}
+		if (c < CJK_FIRST || c > CJK_LAST) {
+			return 0;
+		}
+		return table()[c - CJK_FIRST];
+	}
+
+	/**
+	 * 取字符串的拼音首字母，如"大话西游"返回"dhxy"
+	 * @param s
+	 * @return
+	 */
+	public static String getInitials(CharSequence s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = getInitial(s.charAt(i));
+			if (c != 0) {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Initials of every CJK unified ideograph, computed once (about 20k entries).
+	 */
+	private static char[] table() {
+		char[] table = initialTable;
+		if (table == null) {
+			synchronized (PinyinUtils.class) {
+				table = initialTable;
+				if (table == null) {
+					table = new char[CJK_LAST - CJK_FIRST + 1];
+					for (char c = CJK_FIRST; c <= CJK_LAST; c++) {
+						table[c - CJK_FIRST] = initialOf(c);
+					}
+					initialTable = table;
+				}
+			}
+		}
+		return table;
+	}
+
+	private static char initialOf(char c) {
+		byte[] bytes;
+		try {
+			bytes = String.valueOf(c).getBytes("GB2312");
+		} catch (UnsupportedEncodingException e) {
+			return 0;
+		}
+		if (bytes.length != 2) {
+			return 0;
+		}
+		int code = ((bytes[0] & 0xff) - 160) * 100 + ((bytes[1] & 0xff) - 160);
+		if (code < LETTER_START[0] || code >= LETTER_START[LETTERS.length]) {
+			return 0;
+		}
+		for (int i = LETTERS.length - 1; i >= 0; i--) {
+			if (code >= LETTER_START[i]) {
+				return LETTERS[i];
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,132 @@
+package com.yuantops.tvplayer.util;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.view.View;
+import com.nostra13.universalimageloader.cache.memory.MemoryCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Memory cache of decoded posters, least recently used first out once more
+ * than maxBytes are held. An evicted bitmap goes to the {@link BitmapPool}
+ * for reuse as soon as no view shows it: {@link PosterLoader} reports what
+ * each view shows through {@link #onShown}.
+ * A decoded poster is shown right after being cached, while only the eldest
+ * entries are evicted, so a bitmap is not pooled between the two.
+ * 海报内存缓存，淘汰的位图在不再显示后交给BitmapPool复用
+ */
+class PosterCache implements MemoryCache {
+    private final LinkedHashMap<String, Bitmap> mMap = new LinkedHashMap<String, Bitmap>(0, 0.75f, true);
+    // weak: rows of a list that is gone must not keep their bitmaps; Bitmap compares by identity
+    private final Map<View, Bitmap> mViews   = new WeakHashMap<View, Bitmap>();
+    private final Set<Bitmap>       mEvicted = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    private final BitmapPool mPool;
+    private final int        mMaxBytes;
+    private int              mBytes;
+
+    PosterCache(int maxBytes, BitmapPool pool) {
+        mMaxBytes = maxBytes;
+        mPool     = pool;
+    }
+
+    @Override
+    public synchronized boolean put(String key, Bitmap value) {
+        if (key == null || value == null) {
+            return false;
+        }
+        mBytes += BitmapPool.sizeOf(value);
+        Bitmap previous = mMap.put(key, value);
+        if (previous != null) {
+            mBytes -= BitmapPool.sizeOf(previous);
+            if (previous != value) {
+                release(previous);
+            }
+        }
+        trimToSize(mMaxBytes, true);
+        return true;
+    }
+
+    @Override
+    public synchronized Bitmap get(String key) {
+        return key == null ? null : mMap.get(key);
+    }
+
+    /**
+     * The caller takes the bitmap over, so it is not pooled.
+     */
+    @Override
+    public synchronized Bitmap remove(String key) {
+        Bitmap bitmap = mMap.remove(key);
+        if (bitmap != null) {
+            mBytes -= BitmapPool.sizeOf(bitmap);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public synchronized Collection<String> keys() {
+        return new ArrayList<String>(mMap.keySet());
+    }
+
+    @Override
+    public synchronized void clear() {
+        trimToSize(0, false);
+    }
+
+    public synchronized int getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Halve the cache when memory gets tight, empty it once the app is hidden.
+     * What is dropped is left to the garbage collector, not pooled: a load may
+     * be about to show it.
+     */
+    synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            trimToSize(0, false);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxBytes / 2, false);
+        }
+    }
+
+    /**
+     * view now shows bitmap, or nothing if null; the bitmap it showed before
+     * may be pooled.
+     */
+    synchronized void onShown(View view, Bitmap bitmap) {
+        Bitmap old = bitmap == null ? mViews.remove(view) : mViews.put(view, bitmap);
+        if (old != null && old != bitmap && mEvicted.contains(old) && !mViews.containsValue(old)) {
+            mEvicted.remove(old);
+            mPool.put(old);
+        }
+    }
+
+    private void trimToSize(int maxBytes, boolean reuse) {
+        Iterator<Bitmap> it = mMap.values().iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            Bitmap bitmap = it.next();
+            it.remove();
+            mBytes -= BitmapPool.sizeOf(bitmap);
+            if (reuse) {
+                release(bitmap);
+            }
+        }
+    }
+
+    private void release(Bitmap bitmap) {
+        if (mViews.containsValue(bitmap)) {
+            mEvicted.add(bitmap);
+        } else {
+            mPool.put(bitmap);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.yuantops.tvplayer.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+import com.nostra13.universalimageloader.core.assist.ImageScaleType;
+import com.nostra13.universalimageloader.core.assist.ImageSize;
+import com.nostra13.universalimageloader.core.decode.BaseImageDecoder;
+import com.nostra13.universalimageloader.core.decode.ImageDecodingInfo;
+import com.nostra13.universalimageloader.utils.ImageSizeUtils;
+import com.nostra13.universalimageloader.utils.IoUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The library's decoder, drawing from a {@link BitmapPool} instead of
+ * allocating: the subsampled decode goes into a pooled bitmap through
+ * inBitmap, and the exact downscale is drawn into another pooled bitmap, the
+ * first one going back to the pool. Before KitKat inBitmap needs the exact
+ * decoded size, so it is only tried when no subsampling is needed.
+ * Rotated or flipped images are left to the library.
+ * 从BitmapPool取位图进行解码与缩放的解码器
+ */
+class PosterDecoder extends BaseImageDecoder {
+    private static final String TAG = PosterDecoder.class.getSimpleName();
+
+    private final BitmapPool mPool;
+    private final Paint      mPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    PosterDecoder(BitmapPool pool) {
+        super(false);
+        mPool = pool;
+    }
+
+    @Override
+    public Bitmap decode(ImageDecodingInfo info) throws IOException {
+        InputStream in = getImageStream(info);
+        if (in == null) {
+            Log.w(TAG, "no stream for " + info.getImageKey());
+            return null;
+        }
+        ImageFileInfo file;
+        Bitmap reuse = null;
+        Bitmap decoded;
+        try {
+            file = defineImageSizeAndRotation(in, info);
+            in = resetStream(in, info);
+            BitmapFactory.Options options = prepareDecodingOptions(file.imageSize, info);
+            options.inMutable = true;
+            reuse = takeFor(file.imageSize, options);
+            options.inBitmap = reuse;
+            try {
+                decoded = BitmapFactory.decodeStream(in, null, options);
+            } catch (IllegalArgumentException e) {
+                // the pooled bitmap did not fit the decode after all: start over without it
+                IoUtils.closeSilently(in);
+                in = getImageStream(info);
+                options.inBitmap = null;
+                decoded = BitmapFactory.decodeStream(in, null, options);
+            }
+        } finally {
+            IoUtils.closeSilently(in);
+        }
+        if (reuse != null && decoded != reuse) {
+            mPool.put(reuse);
+        }
+        if (decoded == null) {
+            Log.w(TAG, "cannot decode " + info.getImageKey());
+            return null;
+        }
+        if (decoded != reuse) {
+            mPool.onAllocated(decoded);
+        }
+        return considerExactScaleAndOrientatiton(decoded, info, file.exif.rotation, file.exif.flipHorizontal);
+    }
+
+    @Override
+    protected Bitmap considerExactScaleAndOrientatiton(Bitmap subsampled, ImageDecodingInfo info,
+                                                       int rotation, boolean flipHorizontal) {
+        if (rotation != 0 || flipHorizontal || subsampled.getConfig() == null
+                || info.getImageScaleType() != ImageScaleType.EXACTLY) {
+            return super.considerExactScaleAndOrientatiton(subsampled, info, rotation, flipHorizontal);
+        }
+        ImageSize source = new ImageSize(subsampled.getWidth(), subsampled.getHeight());
+        float scale = ImageSizeUtils.computeImageScale(source, info.getTargetSize(), info.getViewScaleType(), false);
+        if (scale >= 1) {
+            return subsampled;
+        }
+        int width  = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+        Bitmap scaled = mPool.get(width, height, subsampled.getConfig());
+        synchronized (mPaint) {
+            new Canvas(scaled).drawBitmap(subsampled, null, new Rect(0, 0, width, height), mPaint);
+        }
+        mPool.put(subsampled);
+        return scaled;
+    }
+
+    /**
+     * @return a pooled bitmap the decode can go into, or null
+     */
+    private Bitmap takeFor(ImageSize imageSize, BitmapFactory.Options options) {
+        Bitmap.Config config = options.inPreferredConfig;
+        int sample = Math.max(1, options.inSampleSize);
+        if (config == null || (sample > 1 && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)) {
+            return null;
+        }
+        // decoders round the subsampled size either way; the larger one fits both from KitKat on
+        int width  = (imageSize.getWidth() + sample - 1) / sample;
+        int height = (imageSize.getHeight() + sample - 1) / sample;
+        return mPool.take(width, height, config);
+    }
+}
@@ -0,0 +1,238 @@
+package com.yuantops.tvplayer.util;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ImageView;
+import com.nostra13.universalimageloader.cache.disc.impl.ext.LruDiscCache;
+import com.nostra13.universalimageloader.cache.disc.naming.Md5FileNameGenerator;
+import com.nostra13.universalimageloader.core.DisplayImageOptions;
+import com.nostra13.universalimageloader.core.ImageLoader;
+import com.nostra13.universalimageloader.core.ImageLoaderConfiguration;
+import com.nostra13.universalimageloader.core.assist.ImageScaleType;
+import com.nostra13.universalimageloader.core.assist.ImageSize;
+import com.nostra13.universalimageloader.core.assist.LoadedFrom;
+import com.nostra13.universalimageloader.core.display.BitmapDisplayer;
+import com.nostra13.universalimageloader.core.imageaware.ImageAware;
+import com.nostra13.universalimageloader.core.imageaware.ImageViewAware;
+import com.nostra13.universalimageloader.core.listener.PauseOnScrollListener;
+import com.nostra13.universalimageloader.utils.MemoryCacheUtils;
+import com.yuantops.tvplayer.R;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Poster art for the catalog rows, on top of universal-image-loader.
+ * Posters are decoded straight to the row's poster size (R.dimen.poster_width
+ * x poster_height) as RGB_565, kept in a memory LRU bounded in bytes to
+ * 1/{@link #MEMORY_SHARE} of the app heap, and the downloaded files in an LRU
+ * disk cache of {@link #DISK_CACHE_BYTES}. Display and prefetch use the same
+ * target size, so a prefetched poster is a memory hit once its row shows up.
+ * Decodes draw into bitmaps from a {@link BitmapPool} of
+ * 1/{@link #POOL_SHARE} of the heap, refilled with posters evicted from
+ * memory once their rows no longer show them; both shrink on onTrimMemory.
+ * Call on the main thread.
+ * 海报加载：按行尺寸解码，内存与磁盘LRU缓存，支持预取
+ */
+public class PosterLoader {
+    private static final String TAG = PosterLoader.class.getSimpleName();
+    public static final int     PREFETCH_ROWS    = 6;  // rows beyond the viewport loaded ahead
+    private static final int    MEMORY_SHARE     = 8;
+    private static final int    POOL_SHARE       = 32;
+    private static final String DISK_CACHE_DIR   = "posters";
+    private static final long   DISK_CACHE_BYTES = 30 * 1024 * 1024;
+    private static final int    THREADS          = 2;  // leave the cores to the UI thread while scrolling
+
+    private final ImageLoader         mLoader;
+    private final PosterCache         mMemoryCache;
+    private final BitmapPool          mPool;
+    private final DisplayImageOptions mOptions;
+    private final ImageSize           mRowSize;
+
+    PosterLoader(Context context) {
+        Context app = context.getApplicationContext();
+        Resources res = app.getResources();
+        mRowSize = new ImageSize(res.getDimensionPixelSize(R.dimen.poster_width),
+                res.getDimensionPixelSize(R.dimen.poster_height));
+
+        ActivityManager am = (ActivityManager) app.getSystemService(Context.ACTIVITY_SERVICE);
+        int heapBytes = am.getMemoryClass() * 1024 * 1024;
+        mPool = new BitmapPool(heapBytes / POOL_SHARE);
+        mMemoryCache = new PosterCache(heapBytes / MEMORY_SHARE, mPool);
+
+        mOptions = new DisplayImageOptions.Builder()
+                .cacheInMemory(true)
+                .cacheOnDisk(true)
+                .resetViewBeforeLoading(true)
+                .imageScaleType(ImageScaleType.EXACTLY)
+                .bitmapConfig(Bitmap.Config.RGB_565)
+                .displayer(new BitmapDisplayer() {
+                    @Override
+                    public void display(Bitmap bitmap, ImageAware imageAware, LoadedFrom loadedFrom) {
+                        imageAware.setImageBitmap(bitmap);
+                        View view = imageAware.getWrappedView();
+                        if (view != null) {
+                            mMemoryCache.onShown(view, bitmap);
+                        }
+                    }
+                })
+                .build();
+
+        ImageLoaderConfiguration.Builder config = new ImageLoaderConfiguration.Builder(app)
+                .threadPoolSize(THREADS)
+                .memoryCache(mMemoryCache)
+                .imageDecoder(new PosterDecoder(mPool))
+                .defaultDisplayImageOptions(mOptions);
+        try {
+            config.diskCache(new LruDiscCache(new File(app.getCacheDir(), DISK_CACHE_DIR),
+                    new Md5FileNameGenerator(), DISK_CACHE_BYTES));
+        } catch (IOException e) {
+            // fall back to the library's default disk cache
+            Log.w(TAG, "poster disk cache not opened: " + e);
+        }
+        mLoader = ImageLoader.getInstance();
+        mLoader.init(config.build());
+        app.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                PosterLoader.this.onTrimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                PosterLoader.this.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+        Log.v(TAG, "posters " + mRowSize + " memory=" + heapBytes / MEMORY_SHARE + " pool=" + heapBytes / POOL_SHARE);
+    }
+
+    /**
+     * @return the size posters are decoded to
+     */
+    public ImageSize getRowSize() {
+        return mRowSize;
+    }
+
+    /**
+     * Show url in view, replacing whatever load the view had running.
+     * @param url null clears the view
+     */
+    public void display(String url, ImageView view) {
+        if (url == null) {
+            cancel(view);
+            return;
+        }
+        // the layout size, not the measured one: a recycled row may not be laid out yet
+        mLoader.displayImage(url, new ImageViewAware(view, false), mOptions);
+    }
+
+    /**
+     * Stop loading into view, e.g. when its row is recycled.
+     */
+    public void cancel(ImageView view) {
+        mLoader.cancelDisplayTask(view);
+        view.setImageDrawable(null);
+        mMemoryCache.onShown(view, null);
+    }
+
+    /**
+     * Decode url into the memory cache ahead of its row.
+     */
+    public void prefetch(String url) {
+        if (mMemoryCache.get(MemoryCacheUtils.generateKey(url, mRowSize)) != null) {
+            return;
+        }
+        mLoader.loadImage(url, mRowSize, mOptions, null);
+    }
+
+    /**
+     * @return listener that holds back poster loads during a fling and counts
+     * the bitmap bytes each scroll allocates, then calls listener
+     */
+    public AbsListView.OnScrollListener pauseOnFling(AbsListView.OnScrollListener listener) {
+        return new ScrollTracker(new PauseOnScrollListener(mLoader, false, true, listener));
+    }
+
+    /**
+     * Delimits scrolls for {@link BitmapPool#onScroll}: a touch scroll or
+     * fling by the list's scroll state, a run of D-pad moves, which leaves the
+     * state idle, by SCROLL_IDLE_MS without the first visible row changing.
+     */
+    private class ScrollTracker implements AbsListView.OnScrollListener, Runnable {
+        private static final long SCROLL_IDLE_MS = 500;
+
+        private final AbsListView.OnScrollListener next;
+        private boolean touching;
+        private int     lastFirst = -1;
+
+        ScrollTracker(AbsListView.OnScrollListener next) {
+            this.next = next;
+        }
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            view.removeCallbacks(this);
+            touching = scrollState != SCROLL_STATE_IDLE;
+            if (touching) {
+                mPool.onScroll(true);
+            } else {
+                run();
+            }
+            next.onScrollStateChanged(view, scrollState);
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            if (firstVisibleItem != lastFirst) {
+                if (lastFirst >= 0 && !touching) {
+                    mPool.onScroll(true);
+                    view.removeCallbacks(this);
+                    view.postDelayed(this, SCROLL_IDLE_MS);
+                }
+                lastFirst = firstVisibleItem;
+            }
+            next.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+
+        /** the scroll ended */
+        @Override
+        public void run() {
+            mPool.onScroll(false);
+            Log.v(TAG, "bitmap pool " + mPool.getStats());
+        }
+    }
+
+    /**
+     * Bitmaps held for reuse by the decoder; its budget can be changed at any time.
+     */
+    public BitmapPool getBitmapPool() {
+        return mPool;
+    }
+
+    /**
+     * @return bytes of decoded posters in the memory cache
+     */
+    public int getMemoryBytes() {
+        return mMemoryCache.getBytes();
+    }
+
+    /**
+     * Shrink the memory cache and the bitmap pool as memory gets tight.
+     */
+    public void onTrimMemory(int level) {
+        mMemoryCache.onTrimMemory(level);
+        mPool.onTrimMemory(level);
+        Log.v(TAG, "trim " + level + ": memory=" + mMemoryCache.getBytes() + " pool " + mPool.getStats());
+    }
+}
@@ -0,0 +1,224 @@
+package com.yuantops.tvplayer.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Reads an InputStream to its end as bytes or as text, in one piece or
+ * streamed chunk by chunk to a parser. Text is decoded with a
+ * CharsetDecoder in the charset given, bytes that are not valid in it
+ * becoming U+FFFD as InputStreamReader does; line breaks are kept.
+ * The working buffers are heap ByteBuffers and CharBuffers taken from a
+ * small pool, so reading a body allocates little more than the result.
+ * Heap rather than direct buffers: InputStream reads into a byte[], and the
+ * decoders' fast paths work on backing arrays.
+ * Streams are read but never closed; that is up to the caller.
+ * Plain Java; thread-safe.
+ * 输入流读取工具：复用缓冲区，按指定字符集解码，支持分块回调
+ */
+public class StreamText {
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int POOL_SIZE   = 4;
+
+    /**
+     * Receives the text of a stream as it is decoded.
+     */
+    public interface ChunkListener {
+        /**
+         * The next length chars of text, in buffer from offset. buffer is
+         * reused once this returns: copy what has to be kept.
+         */
+        void onChunk(char[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Working buffers of one read, with the decoder used last.
+     */
+    private static class Buffers {
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        CharsetDecoder decoder;
+    }
+
+    private static final ArrayDeque<Buffers> sPool = new ArrayDeque<Buffers>(POOL_SIZE);
+
+    private StreamText() {
+    }
+
+    /**
+     * @param sizeHint expected length of the stream, e.g. its Content-Length,
+     *                 to allocate the result once; 0 or less if unknown
+     * @return all the bytes left in is
+     */
+    public static byte[] readBytes(InputStream is, int sizeHint) throws IOException {
+        if (sizeHint > 0) {
+            // read straight into the result, which needs no copy when the hint was right
+            byte[] result = new byte[sizeHint];
+            int length = readFully(is, result, 0);
+            if (length < sizeHint) {
+                return Arrays.copyOf(result, length);
+            }
+            int next = is.read();
+            if (next < 0) {
+                return result;
+            }
+            result = Arrays.copyOf(result, sizeHint * 2);
+            result[length++] = (byte) next;
+            return readRest(is, result, length);
+        }
+        Buffers buffers = obtain();
+        try {
+            byte[] buffer = buffers.bytes.array();
+            int length = readFully(is, buffer, 0);
+            if (length < buffer.length) {
+                return Arrays.copyOf(buffer, length);
+            }
+            return readRest(is, Arrays.copyOf(buffer, buffer.length * 2), length);
+        } finally {
+            recycle(buffers);
+        }
+    }
+
+    /**
+     * @param sizeHint expected length of the stream in bytes; 0 or less if unknown
+     * @return the text of is in charset
+     */
+    public static String readString(InputStream is, Charset charset, int sizeHint) throws IOException {
+        final StringBuilder sb = new StringBuilder(sizeHint > 0 ? sizeHint : BUFFER_SIZE);
+        decode(is, charset, new ChunkListener() {
+            @Override
+            public void onChunk(char[] buffer, int offset, int length) {
+                sb.append(buffer, offset, length);
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * @return the text of is in UTF-8
+     */
+    public static String readString(InputStream is) throws IOException {
+        return readString(is, UTF_8, 0);
+    }
+
+    /**
+     * Decode is in charset and hand the text to listener a chunk at a time,
+     * never holding more than a buffer of it.
+     * @return number of chars decoded
+     */
+    public static long decode(InputStream is, Charset charset, ChunkListener listener) throws IOException {
+        Buffers buffers = obtain();
+        try {
+            ByteBuffer bytes = buffers.bytes;
+            CharBuffer chars = buffers.chars;
+            CharsetDecoder decoder = decoder(buffers, charset);
+            byte[] array = bytes.array();
+            long total = 0;
+            boolean eof = false;
+            while (!eof) {
+                // bytes holds the tail of a character split between two reads, if any
+                int n = is.read(array, bytes.position(), bytes.remaining());
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    bytes.position(bytes.position() + n);
+                }
+                bytes.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytes, chars, eof);
+                    total += drain(chars, listener);
+                } while (result.isOverflow());
+                bytes.compact();
+            }
+            while (decoder.flush(chars).isOverflow()) {
+                total += drain(chars, listener);
+            }
+            total += drain(chars, listener);
+            return total;
+        } finally {
+            recycle(buffers);
+        }
+    }
+
+    private static int drain(CharBuffer chars, ChunkListener listener) throws IOException {
+        int length = chars.position();
+        if (length > 0) {
+            listener.onChunk(chars.array(), 0, length);
+            chars.clear();
+        }
+        return length;
+    }
+
+    /**
+     * Read into buffer from offset until it is full or the stream ends.
+     * @return offset past the last byte read
+     */
+    private static int readFully(InputStream is, byte[] buffer, int offset) throws IOException {
+        while (offset < buffer.length) {
+            int n = is.read(buffer, offset, buffer.length - offset);
+            if (n < 0) {
+                break;
+            }
+            offset += n;
+        }
+        return offset;
+    }
+
+    /**
+     * Read the rest of is after the length bytes already in buffer, doubling it as needed.
+     */
+    private static byte[] readRest(InputStream is, byte[] buffer, int length) throws IOException {
+        while (true) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int end = readFully(is, buffer, length);
+            if (end < buffer.length) {
+                return Arrays.copyOf(buffer, end);
+            }
+            length = end;
+        }
+    }
+
+    private static CharsetDecoder decoder(Buffers buffers, Charset charset) {
+        CharsetDecoder decoder = buffers.decoder;
+        if (decoder == null || !decoder.charset().equals(charset)) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            buffers.decoder = decoder;
+        }
+        return decoder.reset();
+    }
+
+    private static Buffers obtain() {
+        Buffers buffers;
+        synchronized (sPool) {
+            buffers = sPool.pollFirst();
+        }
+        if (buffers == null) {
+            return new Buffers();
+        }
+        buffers.bytes.clear();
+        buffers.chars.clear();
+        return buffers;
+    }
+
+    private static void recycle(Buffers buffers) {
+        synchronized (sPool) {
+            if (sPool.size() < POOL_SIZE) {
+                sPool.addFirst(buffers);
+            }
+        }
+    }
+}
@@ -1,17 +1,12 @@
 package com.yuantops.tvplayer.util;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Locale;
 import java.util.regex.Pattern;
 
 /**
@@ -245,36 +240,25 @@ public class StringUtils {
 	
 	/**
 	 * 将一个InputStream流转换成字符串
+	 * Reads is to its end as UTF-8, line breaks included, and closes it.
+	 * On a read error, the text read until then is returned.
 	 * @param is
 	 * @return
 	 */
 	public static String toConvertString(InputStream is) {
-		StringBuffer res = new StringBuffer();
-		InputStreamReader isr = new InputStreamReader(is);
-		BufferedReader read = new BufferedReader(isr);
+		final StringBuilder res = new StringBuilder();
 		try {
-			String line;
-			line = read.readLine();
-			while (line != null) {
-				res.append(line);
-				line = read.readLine();
-			}
+			StreamText.decode(is, StreamText.UTF_8, new StreamText.ChunkListener() {
+				@Override
+				public void onChunk(char[] buffer, int offset, int length) {
+					res.append(buffer, offset, length);
+				}
+			});
 		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
 			try {
-				if (null != isr) {
-					isr.close();
-					isr.close();
-				}
-				if (null != read) {
-					read.close();
-					read = null;
-				}
-				if (null != is) {
-					is.close();
-					is = null;
-				}
+				is.close();
 			} catch (IOException e) {
 			}
 		}
@@ -289,26 +273,62 @@ public class StringUtils {
 	 * @return formated string (hh:)mm:ss
 	 */
 	public static String millisToString(long millis) {
-		boolean negative = millis < 0;
-		millis = java.lang.Math.abs(millis);
+		char[] buf = new char[TIME_CHARS];
+		return new String(buf, 0, millisToChars(millis, buf));
+	}
 
-		millis /= 1000;
-		int sec = (int) (millis % 60);
-		millis /= 60;
-		int min = (int) (millis % 60);
-		millis /= 60;
-		int hours = (int) millis;
+	/**
+	 * Longest output of {@link #millisToChars}
+	 */
+	public static final int TIME_CHARS = 20;
 
-		String time;
-		DecimalFormat format = (DecimalFormat) NumberFormat
-				.getInstance(Locale.US);
-		format.applyPattern("00");
-		if (millis > 0) {
-			time = (negative ? "-" : "") + hours + ":" + format.format(min)
-					+ ":" + format.format(sec);
+	/**
+	 * Same format as {@link #millisToString}, written into buf without
+	 * allocating; meant for playback clocks updated several times a second.
+	 * 
+	 * @param millis
+	 * @param buf
+	 *            at least {@link #TIME_CHARS} long
+	 * @return number of chars written from buf[0]
+	 */
+	public static int millisToChars(long millis, char[] buf) {
+		boolean negative = millis < 0;
+		long secs = millis / 1000;
+		if (negative) {
+			secs = -secs;
+		}
+		int sec = (int) (secs % 60);
+		secs /= 60;
+		int min = (int) (secs % 60);
+		long hours = secs / 60;
+
+		int n = 0;
+		if (negative) {
+			buf[n++] = '-';
+		}
+		if (hours > 0) {
+			n = appendLong(buf, n, hours);
+			buf[n++] = ':';
+			buf[n++] = (char) ('0' + min / 10);
+			buf[n++] = (char) ('0' + min % 10);
 		} else {
-			time = (negative ? "-" : "") + min + ":" + format.format(sec);
+			n = appendLong(buf, n, min);
+		}
+		buf[n++] = ':';
+		buf[n++] = (char) ('0' + sec / 10);
+		buf[n++] = (char) ('0' + sec % 10);
+		return n;
+	}
+
+	private static int appendLong(char[] buf, int n, long value) {
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		for (int i = n + digits - 1; i >= n; i--) {
+			buf[i] = (char) ('0' + value % 10);
+			value /= 10;
 		}
-		return time;
+		return n + digits;
 	}
 }
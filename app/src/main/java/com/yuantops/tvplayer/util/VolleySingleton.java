@@ -1,20 +1,62 @@
 package com.yuantops.tvplayer.util;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.Volley;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.yuantops.tvplayer.catalog.CatalogCache;
+import com.yuantops.tvplayer.catalog.CatalogCoalescer;
+import com.yuantops.tvplayer.catalog.CatalogRequest;
+import com.yuantops.tvplayer.download.DownloadManager;
+import com.yuantops.tvplayer.player.AbrController;
+import com.yuantops.tvplayer.player.ResumeStore;
+import com.yuantops.tvplayer.proxy.BlockCache;
+import com.yuantops.tvplayer.proxy.CachingProxy;
+import com.yuantops.tvplayer.proxy.WarmStarter;
 import org.apache.http.protocol.RequestExpectContinue;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * Created by yuan on 9/5/15.
  */
 public class VolleySingleton {
     private static final String TAG = VolleySingleton.class.getSimpleName();
+    private static final String VOLLEY_CACHE_DIR    = "volley";
+    private static final String CATALOG_CACHE_DIR   = "catalog";
+    private static final long   CATALOG_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final String MEDIA_CACHE_DIR     = "media";
+    private static final long   MEDIA_CACHE_BYTES   = 200 * 1024 * 1024;
+    private static final String DOWNLOAD_DIR        = "downloads";
 
     private static VolleySingleton mInstance;
+    private static NetworkConfig mNetworkConfig = new NetworkConfig();
     private RequestQueue mRequestQueue;
+    private MeteredNetwork mNetwork;
+    private ExecutorService mCatalogExecutor;
+    private ExecutorService mIndexExecutor;
+    private CatalogCache mCatalogCache;
+    private CatalogCoalescer mCatalogCoalescer;
+    private CachingProxy mMediaProxy;
+    private WarmStarter mWarmStarter;
+    private AbrController mAbrController;
+    private BandwidthMeter mBandwidthMeter;
+    private PosterLoader mPosterLoader;
+    private ResumeStore mResumeStore;
+    private DownloadManager mDownloadManager;
+    private int mNetworkType = -1;
     private Context mCtx;
 
     private VolleySingleton(Context context) {
@@ -22,6 +64,17 @@ public class VolleySingleton {
         mRequestQueue = getRequestQueue();
     }
 
+    /**
+     * Tune the network stack; only takes effect before the first getInstance().
+     */
+    public static synchronized void setNetworkConfig(NetworkConfig config) {
+        if (mInstance != null) {
+            Log.w(TAG, "network config ignored, the request queue is already running");
+            return;
+        }
+        mNetworkConfig = config;
+    }
+
     public static synchronized VolleySingleton getInstance(Context context) {
         if (mInstance == null) {
             mInstance = new VolleySingleton(context);
@@ -31,7 +84,15 @@ public class VolleySingleton {
 
     private RequestQueue getRequestQueue() {
         if (mRequestQueue == null) {
-            mRequestQueue = Volley.newRequestQueue(mCtx.getApplicationContext());
+            // as Volley.newRequestQueue, but tuned by mNetworkConfig and every request is measured
+            mNetworkConfig.applyConnectionPool();
+            mNetwork = new MeteredNetwork(getBandwidthMeter(), mNetworkConfig);
+            mRequestQueue = new RequestQueue(
+                    new DiskBasedCache(new File(mCtx.getApplicationContext().getCacheDir(), VOLLEY_CACHE_DIR),
+                            mNetworkConfig.cacheBytes),
+                    mNetwork, mNetworkConfig.dispatcherThreads);
+            mRequestQueue.start();
+            Log.v(TAG, "network " + mNetworkConfig);
         }
         return mRequestQueue;
     }
@@ -39,4 +100,195 @@ public class VolleySingleton {
     public <T> void addToRequestQueue(Request<T> req) {
         getRequestQueue().add(req);
     }
+
+    /**
+     * @return DNS, time to first byte and body times of the Volley requests so far
+     */
+    public MeteredNetwork.Stats getNetworkStats() {
+        return mNetwork.getStats();
+    }
+
+    /**
+     * Catalog requests stream their body, so they run on their own thread
+     * instead of the Volley network dispatchers, which buffer every response.
+     * Responses are kept in the catalog cache across process restarts.
+     * Identical requests in flight or just completed share one download;
+     * call on the main thread.
+     */
+    public void addToCatalogQueue(CatalogRequest req) {
+        getCatalogCoalescer().submit(req);
+    }
+
+    public CatalogCoalescer getCatalogCoalescer() {
+        if (mCatalogCoalescer == null) {
+            mCatalogCoalescer = new CatalogCoalescer(new CatalogCoalescer.Launcher() {
+                @Override
+                public void launch(CatalogRequest request) {
+                    if (mCatalogExecutor == null) {
+                        mCatalogExecutor = Executors.newSingleThreadExecutor();
+                    }
+                    request.setCache(getCatalogCache());
+                    request.setBandwidthMeter(getBandwidthMeter());
+                    mCatalogExecutor.execute(request);
+                    Log.v(TAG, "catalog requests " + mCatalogCoalescer.getStats());
+                }
+            });
+        }
+        return mCatalogCoalescer;
+    }
+
+    /**
+     * Downloads of the whole catalog, for the filter and search index, run
+     * on a low priority thread of their own, so the page requests of the
+     * lists never wait behind them. They go through the catalog cache too.
+     */
+    public void addToIndexQueue(CatalogRequest req) {
+        if (mIndexExecutor == null) {
+            mIndexExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "CatalogIndex");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        req.setCache(getCatalogCache());
+        req.setBandwidthMeter(getBandwidthMeter());
+        mIndexExecutor.execute(req);
+    }
+
+    public CatalogCache getCatalogCache() {
+        if (mCatalogCache == null) {
+            mCatalogCache = new CatalogCache(
+                    new File(mCtx.getApplicationContext().getCacheDir(), CATALOG_CACHE_DIR), CATALOG_CACHE_BYTES);
+        }
+        return mCatalogCache;
+    }
+
+    /**
+     * Loopback proxy the players stream through, started on first use.
+     * @return null if it could not be started; play from the server directly then
+     */
+    public synchronized CachingProxy getMediaProxy() {
+        if (mMediaProxy == null) {
+            CachingProxy proxy = new CachingProxy(new BlockCache(
+                    new File(mCtx.getApplicationContext().getCacheDir(), MEDIA_CACHE_DIR),
+                    CachingProxy.DEFAULT_BLOCK_SIZE, MEDIA_CACHE_BYTES));
+            try {
+                proxy.start();
+            } catch (IOException e) {
+                Log.e(TAG, "media proxy not started: " + e);
+                return null;
+            }
+            proxy.setTransferListener(getBandwidthMeter());
+            mMediaProxy = proxy;
+        }
+        return mMediaProxy;
+    }
+
+    /**
+     * Prefetches the start of the focused title through the media proxy.
+     * @return null if the proxy is not available
+     */
+    public synchronized WarmStarter getWarmStarter() {
+        if (mWarmStarter == null) {
+            CachingProxy proxy = getMediaProxy();
+            if (proxy == null) {
+                return null;
+            }
+            mWarmStarter = new WarmStarter(proxy);
+        }
+        return mWarmStarter;
+    }
+
+    /**
+     * Chooses the definition to play; fed by every block the media proxy
+     * downloads, so the throughput estimate carries over between titles.
+     * Knows the screen from the start, so the list can tell which definition
+     * a title would start at before it is played.
+     */
+    public synchronized AbrController getAbrController() {
+        if (mAbrController == null) {
+            mAbrController = new AbrController(getBandwidthMeter());
+            DisplayMetrics dm = mCtx.getResources().getDisplayMetrics();
+            mAbrController.setScreen(dm.widthPixels, dm.heightPixels);
+        }
+        return mAbrController;
+    }
+
+    /**
+     * Loads the catalog's poster art, with its own memory and disk caches.
+     */
+    public synchronized PosterLoader getPosterLoader() {
+        if (mPosterLoader == null) {
+            mPosterLoader = new PosterLoader(mCtx);
+        }
+        return mPosterLoader;
+    }
+
+    /**
+     * Where each title was left off; the first call starts loading it in the
+     * background, so call early, e.g. when the catalog is shown.
+     */
+    public synchronized ResumeStore getResumeStore() {
+        if (mResumeStore == null) {
+            mResumeStore = new ResumeStore(
+                    new File(mCtx.getApplicationContext().getFilesDir(), ResumeStore.FILE_NAME));
+            mResumeStore.open();
+        }
+        return mResumeStore;
+    }
+
+    /**
+     * Titles downloaded for offline playback, on external storage when there
+     * is some. The first call resumes the downloads left unfinished, so call
+     * early, e.g. when the catalog is shown.
+     */
+    public synchronized DownloadManager getDownloadManager() {
+        if (mDownloadManager == null) {
+            Context app = mCtx.getApplicationContext();
+            File dir = app.getExternalFilesDir(DOWNLOAD_DIR);
+            if (dir == null) {
+                dir = new File(app.getFilesDir(), DOWNLOAD_DIR);
+            }
+            mDownloadManager = new DownloadManager(dir, mNetworkConfig.downloadConnections,
+                    mNetworkConfig.downloadBytesPerSecond);
+            mDownloadManager.restore();
+        }
+        return mDownloadManager;
+    }
+
+    /**
+     * How fast the network is, measured on all of the app's downloads;
+     * starts over whenever the device moves to another network.
+     */
+    public synchronized BandwidthMeter getBandwidthMeter() {
+        if (mBandwidthMeter == null) {
+            mBandwidthMeter = new BandwidthMeter();
+            mCtx.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    onConnectivityChanged();
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+        return mBandwidthMeter;
+    }
+
+    private synchronized void onConnectivityChanged() {
+        ConnectivityManager cm = (ConnectivityManager) mCtx.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        int type = info != null && info.isConnected() ? info.getType() : -1;
+        // the sticky broadcast delivered on registration changes nothing
+        if (type != mNetworkType) {
+            if (mNetworkType != -1 || type == -1) {
+                Log.v(TAG, "network changed, was " + mBandwidthMeter);
+                mBandwidthMeter.reset();
+            }
+            mNetworkType = type;
+        }
+    }
 }
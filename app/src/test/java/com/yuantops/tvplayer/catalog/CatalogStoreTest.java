@@ -0,0 +1,126 @@
+package com.yuantops.tvplayer.catalog;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Memory per row of a 100k-row catalog shaped like the server's: short
+ * Chinese names, three definition urls, a poster url and no broadcast url.
+ * The heap a store retains is measured from the runtime's used memory after
+ * collecting garbage, and the store's own estimate is checked against it.
+ * 目录存储每行内存占用测试
+ */
+public class CatalogStoreTest {
+    private static final int ROWS = 100000;
+    /**
+     * Target for rows shaped like the server's, about half of what one
+     * VideoItem with its eight Strings costs.
+     */
+    private static final long TARGET_BYTES_PER_ROW = 400;
+    private static final String[] GENRES = {"动作", "喜剧", "爱情", "科幻", "动画", "悬疑", "纪录片", "武侠"};
+    private static final String NAME_CHARS = "大话西游天下无双春光乍泄重庆森林花样年华英雄十面埋伏霸王别姬";
+
+    private static List<VideoItem> sItems;
+    private static long sChars; // of names and urls, over all rows
+
+    @BeforeClass
+    public static void generate() {
+        Random random = new Random(1);
+        sItems = new ArrayList<VideoItem>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            String id = Integer.toString(100000 + i);
+            char[] name = new char[2 + random.nextInt(7)];
+            for (int c = 0; c < name.length; c++) {
+                name[c] = NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length()));
+            }
+            VideoItem item = new VideoItem(new String(name), GENRES[random.nextInt(GENRES.length)],
+                    (1985 + random.nextInt(31)) + "-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10),
+                    "http://10.0.0.2:8080/vod/sd/" + id + ".mp4",
+                    "http://10.0.0.2:8080/vod/hd/" + id + ".mp4",
+                    "http://10.0.0.2:8080/vod/shd/" + id + ".mp4",
+                    "",
+                    "http://10.0.0.2:8080/poster/" + id + ".jpg");
+            sChars += item.getVideoNameCn().length() + item.getStandardDefiUrl().length()
+                    + item.getHighDefiUrl().length() + item.getSuperDefiUrl().length()
+                    + item.getPosterUrl().length();
+            sItems.add(item);
+        }
+    }
+
+    private static CatalogStore build() {
+        CatalogStore.Builder builder = new CatalogStore.Builder(new StringTable(), 0);
+        for (VideoItem item : sItems) {
+            builder.add(item);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return bytes in use on the heap once garbage is collected, as far as
+     *         System.gc() goes: until two collections in a row agree
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            System.gc();
+            Thread.sleep(20);
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (Math.abs(now - used) < 16 * 1024) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    @Test
+    public void bytesPerRowUnderTarget() throws InterruptedException {
+        long before = usedHeap();
+        CatalogStore store = build();
+        long retained = usedHeap() - before;
+        assertEquals(ROWS, store.size());
+        long perRow = retained / ROWS;
+        assertTrue(perRow + " bytes per row retained", perRow <= TARGET_BYTES_PER_ROW);
+        // the store's own estimate, which the app logs, is within a tenth of what it retains
+        long estimate = store.estimateBytes();
+        assertTrue("estimated " + estimate + " bytes, retained " + retained,
+                Math.abs(estimate - retained) <= retained / 10);
+    }
+
+    @Test
+    public void overheadIsFixedPerRow() {
+        // besides 2 bytes per character, only the fixed arrays: build() trims the slack of growing
+        CatalogStore store = build();
+        long overhead = store.estimateBytes() - 2 * sChars;
+        assertTrue(overhead + " bytes of overhead", overhead <= (long) CatalogStore.FIXED_BYTES_PER_ITEM * ROWS + 8);
+    }
+
+    @Test
+    public void rowsReadBack() {
+        CatalogStore store = build();
+        for (int i = 0; i < ROWS; i += 9973) {
+            VideoItem expected = sItems.get(i);
+            assertEquals(expected.getVideoNameCn(), store.getVideoNameCn(i));
+            assertEquals(expected.getGenre(), store.getGenre(i));
+            assertEquals(expected.getReleaseDate(), store.getReleaseDateText(i));
+            assertEquals(expected.getSuperDefiUrl(), store.getSuperDefiUrl(i));
+            assertEquals(expected.getPosterUrl(), store.getPosterUrl(i));
+        }
+    }
+
+    @Test
+    public void appendKeepsTheCostPerRow() {
+        CatalogStore first = new CatalogStore.Builder(new StringTable(), 0).build();
+        CatalogStore all = first.append(sItems);
+        assertEquals(ROWS, all.size());
+        assertEquals(build().estimateBytes(), all.estimateBytes());
+    }
+}
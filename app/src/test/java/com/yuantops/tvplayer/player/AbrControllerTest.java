@@ -0,0 +1,142 @@
+package com.yuantops.tvplayer.player;
+
+import com.yuantops.tvplayer.util.BandwidthMeter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The definition AbrController starts at and switches to, with the
+ * throughput scripted instead of measured: the screen and throughput caps,
+ * the gates on going up, the hysteresis between going up and down, and a
+ * session over a link that is throttled for a while.
+ * 码率自适应测试
+ */
+public class AbrControllerTest {
+	private static final String[] ALL = { null, "sd", "hd", "shd" };
+
+	/**
+	 * Throughput set by the test.
+	 */
+	private static class ScriptedMeter extends BandwidthMeter {
+		long bps;
+
+		@Override
+		public synchronized long getThroughputBps() {
+			return bps;
+		}
+	}
+
+	private ScriptedMeter meter;
+	private AbrController abr;
+
+	@Before
+	public void createController() {
+		meter = new ScriptedMeter();
+		abr = new AbrController(meter);
+		abr.setScreen(1920, 1080);
+	}
+
+	@Test
+	public void startsAtStandardUntilThroughputIsKnown() {
+		assertEquals(AbrController.STANDARD, abr.initialTier(ALL));
+	}
+
+	@Test
+	public void startsAtWhatTheLinkAndScreenAllow() {
+		meter.bps = 4000000; //HIGH needs 2.5 Mb/s in 70% of it, SUPER 5 Mb/s
+		assertEquals(AbrController.HIGH, abr.initialTier(ALL));
+		meter.bps = 100000000;
+		assertEquals(AbrController.SUPER, abr.initialTier(ALL));
+		abr.setScreen(1280, 720);
+		assertEquals(AbrController.HIGH, abr.initialTier(ALL));
+		abr.setScreen(720, 576);
+		assertEquals(AbrController.STANDARD, abr.initialTier(ALL));
+	}
+
+	@Test
+	public void startSkipsMissingDefinitions() {
+		String[] noHigh = { null, "sd", null, "shd" };
+		meter.bps = 4000000;
+		assertEquals(AbrController.STANDARD, abr.initialTier(noHigh));
+		meter.bps = 8000000;
+		assertEquals(AbrController.SUPER, abr.initialTier(noHigh));
+		String[] onlyHigh = { null, null, "hd", null };
+		meter.bps = 0;
+		assertEquals(AbrController.HIGH, abr.initialTier(onlyHigh));
+	}
+
+	@Test
+	public void goesUpOneStepWithBufferTimeAndThroughput() {
+		meter.bps = 100000000;
+		assertEquals(AbrController.HIGH, abr.decide(AbrController.STANDARD, ALL, 15000, 20000));
+		//each gate alone holds it
+		assertEquals(AbrController.STANDARD, abr.decide(AbrController.STANDARD, ALL, 14999, 20000));
+		assertEquals(AbrController.STANDARD, abr.decide(AbrController.STANDARD, ALL, 15000, 19999));
+		meter.bps = 3000000;
+		assertEquals(AbrController.STANDARD, abr.decide(AbrController.STANDARD, ALL, 15000, 20000));
+	}
+
+	@Test
+	public void holdsBetweenTheThresholds() {
+		//HIGH: down below 2.5 Mb/s with a low buffer, up to SUPER above 7.1 Mb/s
+		for (long bps = 2500000; bps <= 7100000; bps += 100000) {
+			meter.bps = bps;
+			assertEquals(AbrController.HIGH, abr.decide(AbrController.HIGH, ALL, 1000, 60000));
+			assertEquals(AbrController.HIGH, abr.decide(AbrController.HIGH, ALL, 30000, 60000));
+		}
+		//slower than the bitrate, but the buffer is healthy
+		meter.bps = 2000000;
+		assertEquals(AbrController.HIGH, abr.decide(AbrController.HIGH, ALL, 4000, 0));
+	}
+
+	@Test
+	public void goesDownToWhatTheLinkSustains() {
+		meter.bps = 4000000;
+		assertEquals(AbrController.HIGH, abr.decide(AbrController.SUPER, ALL, 3999, 0));
+		meter.bps = 3000000;
+		assertEquals(AbrController.STANDARD, abr.decide(AbrController.SUPER, ALL, 3999, 0));
+		//never below the lowest definition, nor without a measurement
+		meter.bps = 100000;
+		assertEquals(AbrController.STANDARD, abr.decide(AbrController.STANDARD, ALL, 0, 0));
+		meter.bps = 0;
+		assertEquals(AbrController.SUPER, abr.decide(AbrController.SUPER, ALL, 0, 0));
+	}
+
+	/**
+	 * A session deciding once a second over a 6 Mb/s link that is throttled
+	 * to 1.5 Mb/s for two minutes, longer than a full buffer lasts: the buffer
+	 * fills at the link's rate over the tier's bitrate and drains at one
+	 * second a second.
+	 */
+	@Test
+	public void followsAThrottledLinkWithoutFlapping() {
+		abr.setScreen(1280, 720);
+		meter.bps = 6000000;
+		byte tier = abr.initialTier(ALL);
+		assertEquals(AbrController.HIGH, tier);
+		double bufferMs = 0;
+		long lastSwitchMs = 0;
+		int switches = 0;
+		byte lowest = tier;
+		for (long nowMs = 0; nowMs < 360000; nowMs += 1000) {
+			meter.bps = nowMs >= 60000 && nowMs < 180000 ? 1500000 : 6000000;
+			bufferMs += 1000.0 * meter.bps / AbrController.getBitrate(tier) - 1000;
+			bufferMs = Math.max(0, Math.min(30000, bufferMs));
+			byte next = abr.decide(tier, ALL, (long) bufferMs, nowMs - lastSwitchMs);
+			if (next != tier) {
+				switches++;
+				lastSwitchMs = nowMs;
+				tier = next;
+				lowest = (byte) Math.min(lowest, tier);
+			}
+		}
+		assertEquals("went down while throttled", AbrController.STANDARD, lowest);
+		assertEquals("back up once the link recovered", AbrController.HIGH, tier);
+		assertEquals(2, switches);
+		assertTrue(abr.toString().contains("switchesUp=1 switchesDown=1"));
+	}
+}
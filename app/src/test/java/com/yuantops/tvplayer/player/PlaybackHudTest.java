@@ -0,0 +1,128 @@
+package com.yuantops.tvplayer.player;
+
+import com.yuantops.tvplayer.util.StringUtils;
+
+import android.content.Context;
+import android.widget.SeekBar;
+import android.widget.TextView;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated by the playback clock, measured with the JVM's per-thread
+ * allocation counter: formatting a time once warmed up, and the HUD being
+ * given positions that change nothing on screen, as it is several times a
+ * second during playback, must allocate nothing at all.
+ * Runs with unitTests.returnDefaultValues, the views doing nothing.
+ * 播放进度显示内存分配测试
+ */
+public class PlaybackHudTest {
+	private static final int WARMUP = 50000;
+	private static final int CALLS  = 10000;
+	private static final int MAX    = 1000;
+	private static final int DURATION = 2 * 3600 * 1000;
+
+	private static com.sun.management.ThreadMXBean sThreads;
+
+	/**
+	 * Seek bar with a max, counting the calls that would redraw it.
+	 */
+	private static class CountingSeekBar extends SeekBar {
+		int progressCalls;
+
+		CountingSeekBar() {
+			super((Context) null);
+		}
+
+		@Override
+		public int getMax() {
+			return MAX;
+		}
+
+		@Override
+		public void setProgress(int progress) {
+			progressCalls++;
+		}
+	}
+
+	@BeforeClass
+	public static void enableCounter() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		sThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(sThreads.isThreadAllocatedMemorySupported());
+		sThreads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * @return bytes allocated by this thread running work, less those of
+	 *         reading the counter
+	 */
+	private static long allocatedBytes(Runnable work) {
+		long id = Thread.currentThread().getId();
+		long before  = sThreads.getThreadAllocatedBytes(id);
+		long started = sThreads.getThreadAllocatedBytes(id);
+		work.run();
+		long ended = sThreads.getThreadAllocatedBytes(id);
+		return (ended - started) - (started - before);
+	}
+
+	@Test
+	public void millisToCharsFormats() {
+		char[] buf = new char[StringUtils.TIME_CHARS];
+		assertEquals("0:00", new String(buf, 0, StringUtils.millisToChars(0, buf)));
+		assertEquals("1:05", new String(buf, 0, StringUtils.millisToChars(65999, buf)));
+		assertEquals("1:01:05", new String(buf, 0, StringUtils.millisToChars(3665000, buf)));
+		assertEquals("-0:07", new String(buf, 0, StringUtils.millisToChars(-7000, buf)));
+		assertEquals(StringUtils.millisToString(DURATION), new String(buf, 0, StringUtils.millisToChars(DURATION, buf)));
+	}
+
+	@Test
+	public void millisToCharsAllocatesNothing() {
+		final char[] buf = new char[StringUtils.TIME_CHARS];
+		Runnable format = new Runnable() {
+			@Override
+			public void run() {
+				// every second of two hours, past the hour and negative ones included
+				for (int i = 0; i < CALLS; i++) {
+					StringUtils.millisToChars((long) (i - 100) * 1000 * 7, buf);
+				}
+			}
+		};
+		for (int i = 0; i < WARMUP / CALLS; i++) {
+			format.run();
+		}
+		assertEquals(0, allocatedBytes(format));
+	}
+
+	@Test
+	public void unchangedUpdatesAllocateNothing() {
+		final CountingSeekBar seekBar = new CountingSeekBar();
+		final PlaybackHud hud = new PlaybackHud(new TextView((Context) null), new TextView((Context) null), seekBar);
+		// the clock ticks on and the bar moves, to warm up the paths that draw
+		for (int position = 0; position < WARMUP * 100; position += 100) {
+			hud.update(position, DURATION);
+		}
+		final int position = 60 * 60 * 1000;
+		hud.update(position, DURATION);
+		final int calls = seekBar.progressCalls;
+		Runnable sameSecond = new Runnable() {
+			@Override
+			public void run() {
+				// same second on the clock, same pixel on the bar, same buffered percent
+				for (int i = 0; i < CALLS; i++) {
+					hud.update(position + i % 1000, DURATION);
+					hud.setBufferedPercent(50);
+				}
+			}
+		};
+		sameSecond.run();
+		assertEquals(0, allocatedBytes(sameSecond));
+		assertEquals("the bar was redrawn", calls, seekBar.progressCalls);
+	}
+}
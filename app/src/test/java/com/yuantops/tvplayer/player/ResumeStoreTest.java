@@ -0,0 +1,237 @@
+package com.yuantops.tvplayer.player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recovery of the resume log after what a crash or bad storage leaves
+ * behind: a last record whose CRC was never written, damage in the middle
+ * of the log, and a log that filled up and was compacted. The damage is
+ * made by writing the file directly, in the record layout of ResumeStore:
+ * CRC, key length, UTF-8 key, position, duration.
+ * 续播位置存储恢复测试
+ */
+public class ResumeStoreTest {
+	private static final Charset UTF_8    = Charset.forName("UTF-8");
+	private static final int     HEADER   = 4;
+	private static final int     FIXED    = 4 + 2 + 4 + 4;
+	private static final int     DURATION = 2 * 3600 * 1000;
+	private static final long    TIMEOUT_MS = 5000;
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("resume", ".log");
+		file.delete();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+	/**
+	 * @return a store with the log loaded
+	 */
+	private ResumeStore open() throws InterruptedException {
+		ResumeStore store = new ResumeStore(file);
+		store.open();
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!store.isLoaded()) {
+			assertTrue("log not loaded", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+		return store;
+	}
+
+	private static String key(int i) {
+		return "http://10.0.0.2:8080/vod/sd/" + (100000 + i) + ".mp4";
+	}
+
+	/**
+	 * Offset of the record after the last one in the log, found by its key lengths.
+	 */
+	private int endOfLog() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			int offset = HEADER;
+			while (offset + FIXED <= ResumeStore.CAPACITY) {
+				raf.seek(offset + 4);
+				int keyLength = raf.readUnsignedShort();
+				if (keyLength == 0) {
+					break;
+				}
+				offset += FIXED + keyLength;
+			}
+			return offset;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Everything of a record but its CRC, as a crash between the two leaves it.
+	 */
+	private void writeBodyWithoutCrc(int offset, String key, int positionMs) throws IOException {
+		byte[] keyBytes = key.getBytes(UTF_8);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(offset + 4);
+			raf.writeShort(keyBytes.length);
+			raf.write(keyBytes);
+			raf.writeInt(positionMs);
+			raf.writeInt(DURATION);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void flipByte(int offset) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(offset);
+			int b = raf.read();
+			raf.seek(offset);
+			raf.write(b ^ 0xff);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void reopenRestoresPositions() throws Exception {
+		ResumeStore store = open();
+		for (int i = 0; i < 3; i++) {
+			store.put(key(i), 60000 + i * 1000, DURATION);
+		}
+		store.put(key(1), 5000, DURATION); //too early to resume: forgotten
+		store.close(TIMEOUT_MS);
+
+		store = open();
+		assertEquals(60000, store.getPosition(key(0)));
+		assertEquals(0, store.getPosition(key(1)));
+		assertEquals(62000, store.getPosition(key(2)));
+		assertFalse(store.getStats().torn);
+		assertEquals(ResumeStore.CAPACITY, file.length());
+		store.close(TIMEOUT_MS);
+	}
+
+	@Test
+	public void tornFinalRecordIsDropped() throws Exception {
+		ResumeStore store = open();
+		store.put(key(0), 60000, DURATION);
+		store.put(key(1), 61000, DURATION);
+		store.close(TIMEOUT_MS);
+		writeBodyWithoutCrc(endOfLog(), key(2), 62000);
+
+		store = open();
+		assertEquals(60000, store.getPosition(key(0)));
+		assertEquals(61000, store.getPosition(key(1)));
+		assertEquals(0, store.getPosition(key(2)));
+		ResumeStore.Stats stats = store.getStats();
+		assertTrue(stats.torn);
+		assertEquals(2, stats.recovered);
+		store.put(key(3), 63000, DURATION);
+		store.close(TIMEOUT_MS);
+
+		//the damage was rewritten on load: records appended since are read back
+		store = open();
+		assertEquals(60000, store.getPosition(key(0)));
+		assertEquals(61000, store.getPosition(key(1)));
+		assertEquals(63000, store.getPosition(key(3)));
+		assertFalse(store.getStats().torn);
+		assertEquals(3, store.getStats().recovered);
+		assertEquals(ResumeStore.CAPACITY, file.length());
+		store.close(TIMEOUT_MS);
+	}
+
+	@Test
+	public void corruptRecordEndsTheLog() throws Exception {
+		ResumeStore store = open();
+		for (int i = 0; i < 3; i++) {
+			store.put(key(i), 60000 + i * 1000, DURATION);
+		}
+		store.close(TIMEOUT_MS);
+		//a byte of the second record's key
+		flipByte(HEADER + FIXED + key(0).length() + 6);
+
+		//read up to the bad record only
+		store = open();
+		assertEquals(60000, store.getPosition(key(0)));
+		assertEquals(0, store.getPosition(key(1)));
+		assertEquals(0, store.getPosition(key(2)));
+		ResumeStore.Stats stats = store.getStats();
+		assertTrue(stats.torn);
+		assertEquals(1, stats.recovered);
+		store.put(key(2), 70000, DURATION);
+		store.close(TIMEOUT_MS);
+
+		store = open();
+		assertEquals(60000, store.getPosition(key(0)));
+		assertEquals(0, store.getPosition(key(1)));
+		assertEquals(70000, store.getPosition(key(2)));
+		assertFalse(store.getStats().torn);
+		assertEquals(ResumeStore.CAPACITY, file.length());
+		store.close(TIMEOUT_MS);
+	}
+
+	@Test
+	public void fullLogIsCompacted() throws Exception {
+		final int keys = 50;
+		int recordBytes = keys * (FIXED + key(0).length());
+		int second = 60;
+		boolean compacted = false;
+		//a session per round, each reopening the log the last one left
+		for (int round = 0; !compacted; round++) {
+			assertTrue("never compacted", round * recordBytes < 2 * ResumeStore.CAPACITY);
+			ResumeStore store = open();
+			ResumeStore.Stats stats = store.getStats();
+			assertFalse(stats.torn);
+			if (round > 0) {
+				for (int i = 0; i < keys; i++) {
+					assertEquals(key(i), (second - 1) * 1000, store.getPosition(key(i)));
+				}
+			}
+			//never more than the log holds
+			assertTrue(HEADER + stats.recovered * (FIXED + key(0).length()) <= ResumeStore.CAPACITY);
+			for (int i = 0; i < keys; i++) {
+				store.put(key(i), second * 1000, DURATION);
+			}
+			second++;
+			store.close(TIMEOUT_MS);
+			compacted = store.getStats().compactions > 0;
+			assertEquals(ResumeStore.CAPACITY, file.length());
+		}
+
+		//the compacted log holds one record per title, and is appended to again
+		ResumeStore store = open();
+		assertEquals(keys, store.getStats().recovered);
+		for (int i = 0; i < keys; i++) {
+			assertEquals((second - 1) * 1000, store.getPosition(key(i)));
+			store.put(key(i), second * 1000, DURATION);
+		}
+		store.close(TIMEOUT_MS);
+		assertEquals(0, store.getStats().compactions);
+
+		store = open();
+		assertEquals(2 * keys, store.getStats().recovered);
+		for (int i = 0; i < keys; i++) {
+			assertEquals(second * 1000, store.getPosition(key(i)));
+		}
+		assertFalse(store.getStats().torn);
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+		store.close(TIMEOUT_MS);
+	}
+}
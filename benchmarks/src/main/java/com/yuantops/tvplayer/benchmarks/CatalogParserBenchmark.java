@@ -0,0 +1,79 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import com.yuantops.tvplayer.catalog.CatalogParser;
+import com.yuantops.tvplayer.catalog.CatalogStore;
+import com.yuantops.tvplayer.catalog.StringTable;
+import com.yuantops.tvplayer.catalog.VideoItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A catalog response from its bytes, the way CatalogRequest reads it: UTF-8
+ * decoding plus {@link CatalogParser}, then the batches appended to a
+ * {@link CatalogStore}.
+ * 目录JSON解析基准测试
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogParserBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Titles in the response. */
+    @Param({"100", "1000", "10000"})
+    public int items;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = SyntheticCatalog.json(items, 1).getBytes(UTF_8);
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        final int[] count = new int[1];
+        new CatalogParser(20, 200).parse(new InputStreamReader(new ByteArrayInputStream(body), UTF_8),
+                new CatalogParser.Callback() {
+                    @Override
+                    public void onBatch(List<VideoItem> batch) {
+                        count[0] += batch.size();
+                    }
+                });
+        return count[0];
+    }
+
+    @Benchmark
+    public CatalogStore parseIntoStore() throws IOException {
+        final CatalogStore.Builder builder = new CatalogStore.Builder(new StringTable(), 0);
+        new CatalogParser(20, 200).parse(new InputStreamReader(new ByteArrayInputStream(body), UTF_8),
+                new CatalogParser.Callback() {
+                    @Override
+                    public void onBatch(List<VideoItem> batch) {
+                        for (VideoItem item : batch) {
+                            builder.add(item);
+                        }
+                    }
+                });
+        return builder.build();
+    }
+}
@@ -0,0 +1,86 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import com.yuantops.tvplayer.catalog.CatalogIndex;
+import com.yuantops.tvplayer.catalog.CatalogSource;
+import com.yuantops.tvplayer.catalog.CatalogStore;
+import com.yuantops.tvplayer.catalog.VideoItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The data side of ListviewAdapter.getView for one row, walking down the
+ * list as a scroll does: what bind() reads from the store, and the
+ * VideoItem getItem() materialises for comparison. The text of a row
+ * allocates nothing; bind()'s bytes are the poster url String handed to
+ * the image loader. The source is either the
+ * whole catalog or a genre filter of it, as the list shows both.
+ * 列表每行数据读取的基准测试
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogRowBenchmark {
+    private static final int DATE_CHARS = 32;
+
+    @Param({"1000", "100000"})
+    public int items;
+
+    /** Bind from the whole catalog, or from the rows of one genre. */
+    @Param({"false", "true"})
+    public boolean filtered;
+
+    private CatalogSource source;
+    private int count;
+    private int position;
+    private final char[] dateChars = new char[DATE_CHARS];
+
+    @Setup
+    public void setUp() throws IOException {
+        CatalogStore store = SyntheticCatalog.store(SyntheticCatalog.json(items, 1));
+        CatalogIndex index = CatalogIndex.build(store);
+        source = index.select(filtered ? index.genres(1) : index.all());
+        count = source.getCount();
+    }
+
+    @Benchmark
+    public void bind(Blackhole bh) {
+        int p = nextPosition();
+        CatalogStore store = source.getStore(p);
+        int i = source.getStoreIndex(p);
+        bh.consume(store.getNameChars());
+        bh.consume(store.getNameStart(i));
+        bh.consume(store.getNameLength(i));
+        bh.consume(store.getGenre(i));
+        bh.consume(store.formatReleaseDate(i, dateChars));
+        bh.consume(store.getPosterUrl(i));
+    }
+
+    @Benchmark
+    public VideoItem getItem() {
+        int p = nextPosition();
+        return source.getStore(p).getItem(source.getStoreIndex(p));
+    }
+
+    private int nextPosition() {
+        if (++position == count) {
+            position = 0;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,119 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import com.yuantops.tvplayer.catalog.CatalogSearch;
+import com.yuantops.tvplayer.catalog.CatalogStore;
+import com.yuantops.tvplayer.catalog.FilteredCatalog;
+import com.yuantops.tvplayer.util.PinyinUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One keystroke in the search box over a 100k-title catalog: the session
+ * has seen the keystrokes before it, as while typing, and
+ * {@link CatalogSearch.Session#update} answers the next character or a
+ * backspace. The query is the start of a title in the catalog, typed as
+ * Chinese characters or as pinyin initials.
+ * 搜索框每次按键的延迟基准测试
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogSearchBenchmark {
+    private static final int ITEMS = 100000;
+    private static final int QUERY_LENGTH = 4;
+
+    /** Typing the title's characters, or its pinyin initials. */
+    @Param({"false", "true"})
+    public boolean initials;
+
+    private CatalogSearch search;
+    private String query;
+
+    /**
+     * A session that has seen the keystrokes before this one.
+     */
+    @State(Scope.Thread)
+    public static class BeforeKeystroke {
+        /** Characters typed once this keystroke is made. */
+        @Param({"1", "2", "3", "4"})
+        public int keystroke;
+
+        CatalogSearch.Session session;
+        String next;
+
+        @Setup(Level.Invocation)
+        public void type(CatalogSearchBenchmark catalog) {
+            session = catalog.typed(keystroke - 1);
+            next = catalog.query.substring(0, keystroke);
+        }
+    }
+
+    /**
+     * A session that has seen this many keystrokes, about to take the last back.
+     */
+    @State(Scope.Thread)
+    public static class BeforeBackspace {
+        /** Characters typed before the backspace. */
+        @Param({"1", "2", "3", "4"})
+        public int keystroke;
+
+        CatalogSearch.Session session;
+        String next;
+
+        @Setup(Level.Invocation)
+        public void type(CatalogSearchBenchmark catalog) {
+            session = catalog.typed(keystroke);
+            next = catalog.query.substring(0, keystroke - 1);
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        CatalogStore store = SyntheticCatalog.store(SyntheticCatalog.json(ITEMS, 1));
+        search = CatalogSearch.build(store);
+        for (int i = 0; query == null; i++) {
+            String name = store.getVideoNameCn(i);
+            String typed = initials ? PinyinUtils.getInitials(name) : name;
+            if (typed != null && typed.length() >= QUERY_LENGTH) {
+                query = typed.substring(0, QUERY_LENGTH);
+            }
+        }
+    }
+
+    /**
+     * @return a session that has seen the first characters of the query typed one by one
+     */
+    CatalogSearch.Session typed(int characters) {
+        CatalogSearch.Session session = search.newSession();
+        for (int i = 1; i <= characters; i++) {
+            session.update(query.substring(0, i));
+        }
+        return session;
+    }
+
+    @Benchmark
+    public FilteredCatalog addCharacter(BeforeKeystroke state) {
+        return state.session.update(state.next);
+    }
+
+    @Benchmark
+    public FilteredCatalog backspace(BeforeBackspace state) {
+        return state.session.update(state.next);
+    }
+}
@@ -0,0 +1,470 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import com.yuantops.tvplayer.catalog.CatalogParser;
+import com.yuantops.tvplayer.catalog.VideoItem;
+import com.yuantops.tvplayer.download.DownloadManager;
+import com.yuantops.tvplayer.player.PlaybackMetrics;
+import com.yuantops.tvplayer.proxy.BlockCache;
+import com.yuantops.tvplayer.proxy.CachingProxy;
+import com.yuantops.tvplayer.util.BandwidthMeter;
+import com.yuantops.tvplayer.util.NetworkConfig;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts load on a {@link LocalApiServer} through the app's network code and
+ * reports throughput and latency percentiles:
+ * <ul>
+ * <li>catalog: clients page through the catalog as PagedCatalog does, each
+ * page requested and streamed into {@link CatalogParser} the way
+ * CatalogRequest does, then revalidate every page with its ETag</li>
+ * <li>proxy: players start titles and seek in them through
+ * {@link CachingProxy}, once with a cold cache and once again warm, every
+ * byte checked against the server's</li>
+ * <li>download: titles downloaded at once by {@link DownloadManager}, every
+ * file checked</li>
+ * </ul>
+ * Volley needs an Android runtime, so requests go out over HttpURLConnection
+ * with the app's timeouts and headers instead of through VolleySingleton.
+ * 负载测试：通过应用的网络代码访问本地模拟服务器，统计吞吐量与延迟分位数
+ */
+public class LoadHarness {
+    private static final String HOST               = "127.0.0.1";
+    private static final int    CONNECT_TIMEOUT_MS = 5000;  // as CatalogRequest
+    private static final int    READ_TIMEOUT_MS    = 10000;
+    private static final int    FIRST_BATCH_SIZE   = 20;
+    private static final int    BATCH_SIZE         = 200;
+    private static final int    PAGE_ATTEMPTS      = 3;
+    private static final int    STARTUP_BYTES      = 1024 * 1024;
+    private static final int    SEEK_BYTES         = 256 * 1024;
+    private static final long   DOWNLOAD_TIMEOUT_MS = 10 * 60 * 1000L;
+
+    /**
+     * Latencies of one kind of request, in microseconds, and the bytes they moved.
+     */
+    static class Measure {
+        private final String name;
+        private final PlaybackMetrics.Histogram mHistogram = new PlaybackMetrics.Histogram();
+        private long mBytes;
+        private long mErrors;
+
+        Measure(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long nanos, long bytes) {
+            mHistogram.record(nanos / 1000);
+            mBytes += bytes;
+        }
+
+        synchronized void error() {
+            mErrors++;
+        }
+
+        synchronized String report(long wallNanos) {
+            double seconds = wallNanos / 1e9;
+            return String.format("%-20s n=%-6d errors=%-4d %8.1f req/s %8.2f MB/s"
+                            + "   ms: p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                    name, mHistogram.getCount(), mErrors, mHistogram.getCount() / seconds,
+                    mBytes / seconds / (1024 * 1024), ms(mHistogram.getPercentile(0.5)),
+                    ms(mHistogram.getPercentile(0.9)), ms(mHistogram.getPercentile(0.99)), ms(mHistogram.getMax()));
+        }
+
+        private static double ms(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
+    /**
+     * One of the threads a scenario runs at once.
+     */
+    private interface Worker {
+        void run(int index) throws IOException;
+    }
+
+    private final LocalApiServer mServer;
+    private final LocalApiServer.Config mConfig;
+    private final Options mOptions;
+
+    LoadHarness(LocalApiServer server, LocalApiServer.Config config, Options options) {
+        mServer = server;
+        mConfig = config;
+        mOptions = options;
+    }
+
+    /**
+     * Clients page through the catalog, then revalidate the pages they got.
+     */
+    void runCatalog() {
+        final int clients = mOptions.getInt("clients", 8);
+        final int rounds = mOptions.getInt("rounds", 3);
+        final int pageSize = mOptions.getInt("pageSize", 50);
+        final String base = mServer.getBaseUrl(HOST) + LocalApiServer.CATALOG_PATH;
+        final Measure ttfb = new Measure("catalog ttfb");
+        final Measure firstBatch = new Measure("catalog first batch");
+        final Measure page = new Measure("catalog page");
+        final Measure notModified = new Measure("catalog 304");
+        System.out.println("catalog: clients=" + clients + " rounds=" + rounds + " pageSize=" + pageSize);
+        long wall = runAll(clients, new Worker() {
+            @Override
+            public void run(int index) {
+                for (int round = 0; round < rounds; round++) {
+                    Map<String, String> etags = new HashMap<String, String>();
+                    int offset = 0, attempts = 0;
+                    while (attempts < PAGE_ATTEMPTS) {
+                        String url = base + "?offset=" + offset + "&limit=" + pageSize;
+                        String[] etag = new String[1];
+                        int items = fetchPage(url, null, etag, ttfb, firstBatch, page);
+                        if (items < 0) {
+                            attempts++;
+                            continue;
+                        }
+                        attempts = 0;
+                        if (etag[0] != null) {
+                            etags.put(url, etag[0]);
+                        }
+                        offset += items;
+                        if (items < pageSize) {
+                            break; // end of the catalog
+                        }
+                    }
+                    for (Map.Entry<String, String> entry : etags.entrySet()) {
+                        fetchPage(entry.getKey(), entry.getValue(), null, ttfb, firstBatch, notModified);
+                    }
+                }
+            }
+        });
+        System.out.println(ttfb.report(wall));
+        System.out.println(firstBatch.report(wall));
+        System.out.println(page.report(wall));
+        System.out.println(notModified.report(wall));
+    }
+
+    /**
+     * Request a catalog page and parse it as CatalogRequest does.
+     * @param ifNoneMatch ETag of the copy the client holds, or null
+     * @param etagOut where to put the response's ETag, or null
+     * @param done records the whole request: a page or a 304
+     * @return titles in the page, 0 if not modified, -1 on error
+     */
+    private int fetchPage(String url, String ifNoneMatch, String[] etagOut, Measure ttfb, final Measure firstBatch,
+                          Measure done) {
+        final long start = System.nanoTime();
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            if (ifNoneMatch != null) {
+                conn.setRequestProperty("If-None-Match", ifNoneMatch);
+            }
+            int status = conn.getResponseCode();
+            ttfb.record(System.nanoTime() - start, 0);
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && ifNoneMatch != null) {
+                done.record(System.nanoTime() - start, 0);
+                return 0;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                done.error();
+                return -1;
+            }
+            final boolean[] first = {true};
+            InputStream is = conn.getInputStream();
+            int items;
+            try {
+                items = new CatalogParser(FIRST_BATCH_SIZE, BATCH_SIZE).parse(new InputStreamReader(is, "UTF-8"),
+                        new CatalogParser.Callback() {
+                            @Override
+                            public void onBatch(List<VideoItem> batch) {
+                                if (first[0]) {
+                                    first[0] = false;
+                                    firstBatch.record(System.nanoTime() - start, 0);
+                                }
+                            }
+                        });
+            } finally {
+                is.close();
+            }
+            done.record(System.nanoTime() - start, Math.max(0, conn.getContentLength()));
+            if (etagOut != null) {
+                etagOut[0] = conn.getHeaderField("ETag");
+            }
+            return items;
+        } catch (IOException e) {
+            done.error();
+            return -1;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Players start a title each and seek around in it through the media
+     * proxy, with an empty cache and then again with the same seeks.
+     */
+    void runProxy() throws IOException {
+        final int players = mOptions.getInt("players", 4);
+        final int seeks = mOptions.getInt("seeks", 20);
+        File dir = tempDir("proxy");
+        BlockCache cache = new BlockCache(dir, CachingProxy.DEFAULT_BLOCK_SIZE, Long.MAX_VALUE);
+        final CachingProxy proxy = new CachingProxy(cache);
+        BandwidthMeter meter = new BandwidthMeter();
+        proxy.setTransferListener(meter);
+        proxy.start();
+        System.out.println("proxy: players=" + players + " seeks=" + seeks + " blockSize=" + cache.getBlockSize());
+        try {
+            for (String pass : new String[] {"cold", "warm"}) {
+                final Measure startup = new Measure("proxy startup " + pass);
+                final Measure seek = new Measure("proxy seek " + pass);
+                long wall = runAll(players, new Worker() {
+                    @Override
+                    public void run(int index) throws IOException {
+                        Random random = new Random(mConfig.seed + index);
+                        String url = proxy.getProxyUrl(mServer.getVideoUrl(HOST, index));
+                        readVideo(url, -1, STARTUP_BYTES, startup);
+                        long last = mConfig.videoBytes - SEEK_BYTES;
+                        for (int i = 0; i < seeks; i++) {
+                            readVideo(url, (long) (random.nextDouble() * last), SEEK_BYTES, seek);
+                        }
+                    }
+                });
+                System.out.println(startup.report(wall));
+                System.out.println(seek.report(wall));
+                System.out.println("  proxy " + proxy.getStats());
+            }
+            System.out.println("  " + meter);
+        } finally {
+            proxy.stop();
+            delete(dir);
+        }
+    }
+
+    /**
+     * Read bytes of the video at url as a player would: a request from
+     * position, dropped once it has what it needs.
+     * @param position -1 to request the whole file, as a player starting does
+     */
+    private void readVideo(String url, long position, int bytes, Measure measure) {
+        long start = System.nanoTime();
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            if (position >= 0) {
+                conn.setRequestProperty("Range", "bytes=" + position + "-");
+            }
+            int status = conn.getResponseCode();
+            if (status != (position >= 0 ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK)) {
+                measure.error();
+                return;
+            }
+            long from = Math.max(0, position);
+            InputStream in = conn.getInputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read = 0;
+            while (read < bytes) {
+                int n = in.read(buffer, 0, Math.min(buffer.length, bytes - read));
+                if (n < 0) {
+                    throw new IOException("short body at " + (from + read));
+                }
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != mServer.videoByte(from + read + i)) {
+                        throw new IOException("wrong byte at " + (from + read + i));
+                    }
+                }
+                read += n;
+            }
+            measure.record(System.nanoTime() - start, bytes);
+        } catch (IOException e) {
+            System.err.println("  " + url + ": " + e);
+            measure.error();
+        } finally {
+            if (conn != null) {
+                conn.disconnect(); // the player moves on; the rest of the response is not wanted
+            }
+        }
+    }
+
+    /**
+     * Titles downloaded at once, each timed from enqueue to its file being complete.
+     */
+    void runDownload() throws IOException, InterruptedException {
+        NetworkConfig network = new NetworkConfig();
+        int downloads = mOptions.getInt("downloads", 4);
+        int connections = mOptions.getInt("connections", network.downloadConnections);
+        long bytesPerSecond = mOptions.getLong("downloadBytesPerSecond", network.downloadBytesPerSecond);
+        File dir = tempDir("download");
+        DownloadManager manager = new DownloadManager(dir, connections, bytesPerSecond);
+        final Measure download = new Measure("download");
+        final Map<String, Long> startedAt = new ConcurrentHashMap<String, Long>();
+        final CountDownLatch left = new CountDownLatch(downloads);
+        manager.setListener(new DownloadManager.Listener() {
+            @Override
+            public void onProgress(DownloadManager.Download d) {
+            }
+
+            @Override
+            public void onComplete(DownloadManager.Download d, File file) {
+                download.record(System.nanoTime() - startedAt.get(d.getUrl()), d.getLength());
+                left.countDown();
+            }
+
+            @Override
+            public void onError(DownloadManager.Download d, IOException e) {
+                System.err.println("  " + d.getUrl() + ": " + e);
+                download.error();
+                left.countDown();
+            }
+        });
+        System.out.println("download: downloads=" + downloads + " connections=" + connections
+                + " bytesPerSecond=" + bytesPerSecond + " chunkSize=" + DownloadManager.CHUNK_SIZE);
+        List<String> urls = new ArrayList<String>();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < downloads; i++) {
+                String url = mServer.getVideoUrl(HOST, i);
+                urls.add(url);
+                startedAt.put(url, System.nanoTime());
+                manager.enqueue(url);
+            }
+            if (!left.await(DOWNLOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                System.err.println("  timed out");
+            }
+            long wall = System.nanoTime() - start;
+            for (String url : urls) {
+                File file = manager.getCompletedFile(url);
+                if (file != null && !verify(file)) {
+                    System.err.println("  " + url + ": file differs from the server's");
+                    download.error();
+                }
+            }
+            System.out.println(download.report(wall));
+            System.out.println("  downloads " + manager.getStats());
+        } finally {
+            manager.shutdown();
+            delete(dir);
+        }
+    }
+
+    private boolean verify(File file) throws IOException {
+        if (file.length() != mConfig.videoBytes) {
+            return false;
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        try {
+            for (long position = 0; position < mConfig.videoBytes; position++) {
+                if ((byte) in.read() != mServer.videoByte(position)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Run worker on threads at once and wait for all of them.
+     * @return nanos from the start of the first to the end of the last
+     */
+    private static long runAll(int threads, final Worker worker) {
+        Thread[] running = new Thread[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            running[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        worker.run(index);
+                    } catch (IOException e) {
+                        System.err.println("  worker " + index + ": " + e);
+                    }
+                }
+            }, LoadHarness.class.getSimpleName() + "-" + i);
+            running[i].start();
+        }
+        for (Thread thread : running) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static File tempDir(String name) throws IOException {
+        File dir = File.createTempFile("loadharness-" + name, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Start a server and run the scenarios against it. Options, all optional:
+     * --scenario=all|catalog|proxy|download, --clients=8 --rounds=3
+     * --pageSize=50, --players=4 --seeks=20, --downloads=4 --connections=3
+     * --downloadBytesPerSecond=0, --keepAlive=true --maxIdleConnections=5,
+     * and those of {@link LocalApiServer#main} but --port.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+        // connection reuse as VolleySingleton sets it up
+        NetworkConfig network = new NetworkConfig();
+        System.setProperty("http.keepAlive", options.getString("keepAlive", String.valueOf(network.keepAlive)));
+        System.setProperty("http.maxConnections",
+                String.valueOf(options.getInt("maxIdleConnections", network.maxIdleConnections)));
+
+        LocalApiServer.Config config = options.serverConfig();
+        LocalApiServer server = new LocalApiServer(config);
+        server.start(0);
+        System.out.println("server: " + config);
+        LoadHarness harness = new LoadHarness(server, config, options);
+        String scenario = options.getString("scenario", "all");
+        try {
+            if (scenario.equals("all") || scenario.equals("catalog")) {
+                harness.runCatalog();
+            }
+            if (scenario.equals("all") || scenario.equals("proxy")) {
+                harness.runProxy();
+            }
+            if (scenario.equals("all") || scenario.equals("download")) {
+                harness.runDownload();
+            }
+        } finally {
+            System.out.println("  server " + server.getStats());
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Stand-in for TopsAPIServer and the media server, to run the app's network
+ * code without them:
+ * <ul>
+ * <li>{@link #CATALOG_PATH} answers a synthetic catalog of
+ * {@link Config#catalogItems} titles, paged by "?offset=&amp;limit=" as
+ * PagedCatalog asks, with an ETag honoured by If-None-Match</li>
+ * <li>{@link #VIDEO_PATH}... answers {@link Config#videoBytes} of video with
+ * Range support, the byte at each position given by {@link #videoByte}</li>
+ * <li>{@link #POSTER_PATH}... answers a 1x1 PNG</li>
+ * </ul>
+ * Every response can be delayed, all of them share one link of
+ * {@link Config#bytesPerSecond}, and a share of them fail with a 503 or
+ * have their body cut off. Connections are kept alive as HTTP/1.1 allows.
+ * Run it alone with {@link #main} to point the app or a device at it.
+ * 本地模拟服务器：合成目录与支持Range的视频流，可注入延迟、限速与错误
+ */
+public class LocalApiServer {
+    public static final String CATALOG_PATH = "/topstv/debug";
+    public static final String VIDEO_PATH   = "/vod/";
+    public static final String POSTER_PATH  = "/poster/";
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8      = Charset.forName("UTF-8");
+    private static final int  PATTERN_BYTES = 1024 * 1024;
+    private static final int  WRITE_BYTES   = 16 * 1024;
+    private static final int  IDLE_TIMEOUT_MS = 30000;
+    private static final long BURST_NANOS   = 100 * 1000000L;
+    private static final byte[] PNG_1X1 = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0x0d, 'I', 'H', 'D', 'R',
+            0, 0, 0, 1, 0, 0, 0, 1, 8, 6, 0, 0, 0, 0x1f, 0x15, (byte) 0xc4,
+            (byte) 0x89, 0, 0, 0, 0x0d, 'I', 'D', 'A', 'T', 0x78, (byte) 0x9c, 0x63, (byte) 0xf8, 0x0f, 0x00, 0x01,
+            0x01, 0x01, 0x00, 0x18, (byte) 0xdd, (byte) 0x8d, (byte) 0xb0, 0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xae,
+            0x42, 0x60, (byte) 0x82
+    };
+
+    /**
+     * What the server answers and how badly. Set before {@link #start}.
+     */
+    public static class Config {
+        /** Host the catalog's urls point at: the address clients reach this machine at. */
+        public String host           = "127.0.0.1";
+        /** Titles in the catalog. */
+        public int    catalogItems   = 1000;
+        /** Seed of the catalog and of the video bytes. */
+        public long   seed           = 1;
+        /** Bytes of every video. */
+        public long   videoBytes     = 32L * 1024 * 1024;
+        /** Cache-Control max-age of catalog responses, in seconds. */
+        public int    maxAgeSeconds  = 60;
+        /** Delay before every response, in ms. */
+        public int    latencyMs      = 0;
+        /** Random extra delay of up to this many ms. */
+        public int    jitterMs       = 0;
+        /** Bytes per second shared by all responses, 0 for no limit. */
+        public long   bytesPerSecond = 0;
+        /** Share of requests answered 503 Service Unavailable. */
+        public double errorRate      = 0;
+        /** Share of responses whose body is cut off halfway, closing the connection. */
+        public double dropRate       = 0;
+
+        @Override
+        public String toString() {
+            return "host=" + host + " catalogItems=" + catalogItems + " videoBytes=" + videoBytes
+                    + " latencyMs=" + latencyMs + " jitterMs=" + jitterMs + " bytesPerSecond=" + bytesPerSecond
+                    + " errorRate=" + errorRate + " dropRate=" + dropRate;
+        }
+    }
+
+    /**
+     * Counters since the server was started.
+     */
+    public static class Stats {
+        public long connections;
+        public long requests;
+        public long catalogRequests;
+        public long notModified;
+        public long videoRequests;
+        public long errors;      // injected 503s
+        public long drops;       // injected cut offs
+        public long bytes;       // body bytes sent
+
+        @Override
+        public String toString() {
+            return "connections=" + connections + " requests=" + requests + " catalogRequests=" + catalogRequests
+                    + " notModified=" + notModified + " videoRequests=" + videoRequests + " errors=" + errors
+                    + " drops=" + drops + " bytes=" + bytes;
+        }
+    }
+
+    /**
+     * Body cut off on purpose.
+     */
+    private static class DropException extends IOException {
+    }
+
+    private final Config  mConfig;
+    private final Stats   mStats = new Stats();
+    private final byte[]  mPattern = new byte[PATTERN_BYTES];
+    private final Set<Socket> mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private final Random  mRandom;
+    private byte[]        mCatalog;    // UTF-8 JSON array, a line per title
+    private int[]         mItemStart;  // byte offset of each title, catalogItems + 1 entries
+    private long          mNextFree;   // nanoTime from which the link is free again
+    private ServerSocket  mServerSocket;
+    private ExecutorService mExecutor;
+
+    public LocalApiServer(Config config) {
+        mConfig = config;
+        mRandom = new Random(config.seed);
+        new Random(config.seed).nextBytes(mPattern);
+    }
+
+    /**
+     * Listen on port, 0 for any free one, on all interfaces so a device
+     * on the same network can connect.
+     */
+    public synchronized void start(int port) throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        mServerSocket = new ServerSocket(port, 64);
+        prepareCatalog(getBaseUrl(mConfig.host));
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, LocalApiServer.class.getSimpleName());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final ServerSocket serverSocket = mServerSocket;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        synchronized (mStats) {
+                            mStats.connections++;
+                        }
+                        mSockets.add(socket);
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // closed by stop()
+                    }
+                }
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (mServerSocket == null) {
+            return;
+        }
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        mExecutor.shutdownNow();
+        mServerSocket = null;
+    }
+
+    public synchronized int getPort() {
+        return mServerSocket == null ? -1 : mServerSocket.getLocalPort();
+    }
+
+    /**
+     * @return the url to enter as the server address, e.g. in WebAPIServerActivity
+     */
+    public String getBaseUrl(String host) {
+        return "http://" + host + ":" + getPort();
+    }
+
+    /**
+     * @return url of video title
+     */
+    public String getVideoUrl(String host, int title) {
+        return getBaseUrl(host) + VIDEO_PATH + "sd/" + (100000 + title) + ".mp4";
+    }
+
+    /**
+     * @return the byte at position of every video
+     */
+    public byte videoByte(long position) {
+        // the pattern repeats every megabyte, each time with other bits flipped
+        return (byte) (mPattern[(int) (position % PATTERN_BYTES)] ^ (position / PATTERN_BYTES));
+    }
+
+    public Stats getStats() {
+        synchronized (mStats) {
+            Stats copy = new Stats();
+            copy.connections     = mStats.connections;
+            copy.requests        = mStats.requests;
+            copy.catalogRequests = mStats.catalogRequests;
+            copy.notModified     = mStats.notModified;
+            copy.videoRequests   = mStats.videoRequests;
+            copy.errors          = mStats.errors;
+            copy.drops           = mStats.drops;
+            copy.bytes           = mStats.bytes;
+            return copy;
+        }
+    }
+
+    private void prepareCatalog(String baseUrl) {
+        String json = SyntheticCatalog.json(mConfig.catalogItems, mConfig.seed, baseUrl);
+        mCatalog = json.getBytes(UTF_8);
+        // titles are separated by ",\n" and no string holds a line break
+        mItemStart = new int[mConfig.catalogItems + 1];
+        int item = 0;
+        mItemStart[item++] = 1;
+        for (int i = 0; i < mCatalog.length && item < mConfig.catalogItems; i++) {
+            if (mCatalog[i] == '\n') {
+                mItemStart[item++] = i + 1;
+            }
+        }
+        // past the end of the last title: as if followed by ",\n"
+        mItemStart[mConfig.catalogItems] = mCatalog.length + 1;
+    }
+
+    /**
+     * Answer the requests of one connection until it closes or is not kept alive.
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BYTES);
+            boolean keepAlive = true;
+            while (keepAlive) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    return;
+                }
+                String range = null, ifNoneMatch = null;
+                keepAlive = requestLine.endsWith("HTTP/1.1");
+                for (String line = readLine(in); line != null && line.length() > 0; line = readLine(in)) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    String name = line.substring(0, colon).trim();
+                    String value = line.substring(colon + 1).trim();
+                    if (name.equalsIgnoreCase("Range")) {
+                        range = value;
+                    } else if (name.equalsIgnoreCase("If-None-Match")) {
+                        ifNoneMatch = value;
+                    } else if (name.equalsIgnoreCase("Connection")) {
+                        keepAlive = !value.equalsIgnoreCase("close");
+                    }
+                }
+                String[] parts = requestLine.split(" ");
+                if (parts.length < 2) {
+                    return;
+                }
+                synchronized (mStats) {
+                    mStats.requests++;
+                }
+                delay();
+                if (chance(mConfig.errorRate)) {
+                    synchronized (mStats) {
+                        mStats.errors++;
+                    }
+                    writeHeaders(out, "503 Service Unavailable", "text/plain", 0, keepAlive, null);
+                    out.flush();
+                    continue;
+                }
+                boolean head = parts[0].equals("HEAD");
+                String path = parts[1];
+                String query = null;
+                int question = path.indexOf('?');
+                if (question >= 0) {
+                    query = path.substring(question + 1);
+                    path = path.substring(0, question);
+                }
+                if (path.equals(CATALOG_PATH)) {
+                    serveCatalog(out, query, ifNoneMatch, head, keepAlive);
+                } else if (path.startsWith(VIDEO_PATH)) {
+                    serveVideo(out, range, head, keepAlive);
+                } else if (path.startsWith(POSTER_PATH)) {
+                    writeHeaders(out, "200 OK", "image/png", PNG_1X1.length, keepAlive, null);
+                    if (!head) {
+                        out.write(PNG_1X1);
+                    }
+                } else {
+                    writeHeaders(out, "404 Not Found", "text/plain", 0, keepAlive, null);
+                }
+                out.flush();
+            }
+        } catch (DropException e) {
+            // the connection is closed below, mid-body
+        } catch (SocketException e) {
+            // the client went away
+        } catch (IOException e) {
+            // idle timeout or a broken connection
+        } finally {
+            mSockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void serveCatalog(OutputStream out, String query, String ifNoneMatch, boolean head, boolean keepAlive)
+            throws IOException {
+        synchronized (mStats) {
+            mStats.catalogRequests++;
+        }
+        int items = mConfig.catalogItems;
+        int offset = Math.min(Math.max(0, queryInt(query, "offset", 0)), items);
+        int limit = Math.min(Math.max(0, queryInt(query, "limit", items)), items - offset);
+        String etag = "\"" + mConfig.seed + "-" + items + "-" + offset + "-" + limit + "\"";
+        String cacheHeaders = "ETag: " + etag + "\r\nCache-Control: max-age=" + mConfig.maxAgeSeconds + "\r\n";
+        if (etag.equals(ifNoneMatch)) {
+            synchronized (mStats) {
+                mStats.notModified++;
+            }
+            writeHeaders(out, "304 Not Modified", null, -1, keepAlive, cacheHeaders);
+            return;
+        }
+        int from = mItemStart[offset];
+        int to = limit == 0 ? from : mItemStart[offset + limit] - 2; // without the trailing ",\n"
+        writeHeaders(out, "200 OK", "application/json; charset=UTF-8", 2 + to - from, keepAlive, cacheHeaders);
+        if (head) {
+            return;
+        }
+        out.write('[');
+        writeBody(out, mCatalog, from, to - from, 2 + to - from);
+        out.write(']');
+    }
+
+    private void serveVideo(OutputStream out, String range, boolean head, boolean keepAlive) throws IOException {
+        synchronized (mStats) {
+            mStats.videoRequests++;
+        }
+        long total = mConfig.videoBytes;
+        long start = 0, end = total - 1;
+        if (range != null && range.startsWith("bytes=")) {
+            String spec = range.substring(6);
+            int dash = spec.indexOf('-');
+            try {
+                if (dash == 0) {
+                    start = Math.max(0, total - Long.parseLong(spec.substring(1).trim()));
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash).trim());
+                    String last = spec.substring(dash + 1).trim();
+                    if (last.length() > 0) {
+                        end = Math.min(end, Long.parseLong(last));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                writeHeaders(out, "400 Bad Request", "text/plain", 0, keepAlive, null);
+                return;
+            }
+            if (start >= total || start > end) {
+                writeHeaders(out, "416 Requested Range Not Satisfiable", "text/plain", 0, keepAlive,
+                        "Content-Range: bytes */" + total + "\r\n");
+                return;
+            }
+            writeHeaders(out, "206 Partial Content", "video/mp4", end - start + 1, keepAlive,
+                    "Accept-Ranges: bytes\r\nContent-Range: bytes " + start + "-" + end + "/" + total + "\r\n");
+        } else {
+            writeHeaders(out, "200 OK", "video/mp4", total, keepAlive, "Accept-Ranges: bytes\r\n");
+        }
+        if (head) {
+            return;
+        }
+        long length = end - start + 1;
+        long cutAt = chance(mConfig.dropRate) ? length / 2 : -1;
+        byte[] buffer = new byte[WRITE_BYTES];
+        long position = start;
+        while (position <= end) {
+            int n = (int) Math.min(buffer.length, end - position + 1);
+            if (cutAt >= 0 && position - start + n > cutAt) {
+                n = (int) (cutAt - (position - start));
+            }
+            for (int i = 0; i < n; i++) {
+                buffer[i] = videoByte(position + i);
+            }
+            pace(n);
+            out.write(buffer, 0, n);
+            position += n;
+            synchronized (mStats) {
+                mStats.bytes += n;
+            }
+            if (cutAt >= 0 && position - start >= cutAt) {
+                drop(out);
+            }
+        }
+    }
+
+    /**
+     * Write length bytes of data, paced and possibly cut off.
+     * @param responseLength of the whole body, to decide where to cut
+     */
+    private void writeBody(OutputStream out, byte[] data, int offset, int length, long responseLength)
+            throws IOException {
+        long cutAt = chance(mConfig.dropRate) ? responseLength / 2 : -1;
+        int written = 0;
+        while (written < length) {
+            int n = Math.min(WRITE_BYTES, length - written);
+            if (cutAt >= 0 && written + n > cutAt) {
+                n = (int) (cutAt - written);
+            }
+            pace(n);
+            out.write(data, offset + written, n);
+            written += n;
+            synchronized (mStats) {
+                mStats.bytes += n;
+            }
+            if (cutAt >= 0 && written >= cutAt) {
+                drop(out);
+            }
+        }
+    }
+
+    private void drop(OutputStream out) throws IOException {
+        synchronized (mStats) {
+            mStats.drops++;
+        }
+        out.flush();
+        throw new DropException();
+    }
+
+    /**
+     * Wait until bytes fit the link's rate; every response shares it.
+     */
+    private void pace(int bytes) throws IOException {
+        long rate = mConfig.bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(mNextFree, now - BURST_NANOS);
+            mNextFree = start + bytes * 1000000000L / rate;
+            waitNanos = start - now;
+        }
+        sleep(waitNanos / 1000000);
+    }
+
+    private void delay() throws IOException {
+        int ms = mConfig.latencyMs;
+        if (mConfig.jitterMs > 0) {
+            synchronized (mRandom) {
+                ms += mRandom.nextInt(mConfig.jitterMs + 1);
+            }
+        }
+        sleep(ms);
+    }
+
+    private boolean chance(double rate) {
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (mRandom) {
+            return mRandom.nextDouble() < rate;
+        }
+    }
+
+    private static void sleep(long ms) throws IOException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            throw new IOException("stopped");
+        }
+    }
+
+    private static void writeHeaders(OutputStream out, String status, String contentType, long length,
+                                     boolean keepAlive, String extra) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 ").append(status).append("\r\n");
+        if (contentType != null) {
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (length >= 0) {
+            sb.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (extra != null) {
+            sb.append(extra);
+        }
+        sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        out.write(sb.toString().getBytes(ISO_8859_1));
+    }
+
+    private static int queryInt(String query, String name, int defValue) {
+        if (query == null) {
+            return defValue;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                try {
+                    return Integer.parseInt(pair.substring(name.length() + 1));
+                } catch (NumberFormatException e) {
+                    return defValue;
+                }
+            }
+        }
+        return defValue;
+    }
+
+    /**
+     * @return a header line without its CRLF, null at the end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(128);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /**
+     * Serve until killed. Options, all optional: --port=8080 --host=127.0.0.1 --items=1000
+     * --videoBytes=33554432 --latencyMs=0 --jitterMs=0 --bytesPerSecond=0
+     * --maxAgeSeconds=60 --errorRate=0 --dropRate=0 --seed=1
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+        Config config = options.serverConfig();
+        LocalApiServer server = new LocalApiServer(config);
+        server.start(options.getInt("port", 8080));
+        System.out.println("Serving " + config + " at " + server.getBaseUrl(config.host));
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
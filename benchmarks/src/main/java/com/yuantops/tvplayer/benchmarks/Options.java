@@ -0,0 +1,60 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the form "--name=value".
+ * 命令行参数解析
+ */
+class Options {
+    private final Map<String, String> mValues = new HashMap<String, String>();
+
+    Options(String[] args) {
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("expected --name=value: " + arg);
+            }
+            mValues.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+    }
+
+    String getString(String name, String defValue) {
+        String value = mValues.get(name);
+        return value != null ? value : defValue;
+    }
+
+    int getInt(String name, int defValue) {
+        String value = mValues.get(name);
+        return value != null ? Integer.parseInt(value) : defValue;
+    }
+
+    long getLong(String name, long defValue) {
+        String value = mValues.get(name);
+        return value != null ? Long.parseLong(value) : defValue;
+    }
+
+    double getDouble(String name, double defValue) {
+        String value = mValues.get(name);
+        return value != null ? Double.parseDouble(value) : defValue;
+    }
+
+    /**
+     * @return the server options, defaults where not given
+     */
+    LocalApiServer.Config serverConfig() {
+        LocalApiServer.Config config = new LocalApiServer.Config();
+        config.host           = getString("host", config.host);
+        config.catalogItems   = getInt("items", config.catalogItems);
+        config.seed           = getLong("seed", config.seed);
+        config.videoBytes     = getLong("videoBytes", config.videoBytes);
+        config.maxAgeSeconds  = getInt("maxAgeSeconds", config.maxAgeSeconds);
+        config.latencyMs      = getInt("latencyMs", config.latencyMs);
+        config.jitterMs       = getInt("jitterMs", config.jitterMs);
+        config.bytesPerSecond = getLong("bytesPerSecond", config.bytesPerSecond);
+        config.errorRate      = getDouble("errorRate", config.errorRate);
+        config.dropRate       = getDouble("dropRate", config.dropRate);
+        return config;
+    }
+}
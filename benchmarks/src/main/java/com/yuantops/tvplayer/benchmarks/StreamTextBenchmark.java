@@ -0,0 +1,105 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import com.yuantops.tvplayer.util.StreamText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StreamText} reading the catalog bodies of
+ * {@link StringUtilsBenchmark.Body}, next to the line by line
+ * StringUtils.toConvertString it replaced.
+ * 输入流读取基准测试：新旧实现对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamTextBenchmark {
+    private long checksum;
+
+    private final StreamText.ChunkListener mSumming = new StreamText.ChunkListener() {
+        @Override
+        public void onChunk(char[] buffer, int offset, int length) {
+            // stands in for a parser scanning the chunk
+            for (int i = offset; i < offset + length; i++) {
+                checksum += buffer[i];
+            }
+        }
+    };
+
+    /**
+     * StringUtils.toConvertString as it was: line by line through a
+     * BufferedReader into a StringBuffer, line breaks dropped.
+     */
+    private static String legacyToConvertString(InputStream is) {
+        StringBuffer res = new StringBuffer();
+        InputStreamReader isr = new InputStreamReader(is);
+        BufferedReader read = new BufferedReader(isr);
+        try {
+            String line;
+            line = read.readLine();
+            while (line != null) {
+                res.append(line);
+                line = read.readLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                isr.close();
+                isr.close();
+                read.close();
+                is.close();
+            } catch (IOException e) {
+            }
+        }
+        return res.toString();
+    }
+
+    @Benchmark
+    public String legacyToConvertString(StringUtilsBenchmark.Body body) {
+        return legacyToConvertString(new ByteArrayInputStream(body.bytes));
+    }
+
+    @Benchmark
+    public String readString(StringUtilsBenchmark.Body body) throws IOException {
+        return StreamText.readString(new ByteArrayInputStream(body.bytes), StreamText.UTF_8, 0);
+    }
+
+    @Benchmark
+    public String readStringSized(StringUtilsBenchmark.Body body) throws IOException {
+        return StreamText.readString(new ByteArrayInputStream(body.bytes), StreamText.UTF_8, body.bytes.length);
+    }
+
+    @Benchmark
+    public byte[] readBytes(StringUtilsBenchmark.Body body) throws IOException {
+        return StreamText.readBytes(new ByteArrayInputStream(body.bytes), 0);
+    }
+
+    @Benchmark
+    public byte[] readBytesSized(StringUtilsBenchmark.Body body) throws IOException {
+        return StreamText.readBytes(new ByteArrayInputStream(body.bytes), body.bytes.length);
+    }
+
+    @Benchmark
+    public long decodeChunks(StringUtilsBenchmark.Body body) throws IOException {
+        StreamText.decode(new ByteArrayInputStream(body.bytes), StreamText.UTF_8, mSumming);
+        return checksum;
+    }
+}
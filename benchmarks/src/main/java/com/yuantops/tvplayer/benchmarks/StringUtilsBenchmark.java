@@ -0,0 +1,119 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import com.yuantops.tvplayer.util.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StringUtils} as the app calls it: dates of the catalog, the
+ * playback clock, the server address check and response bodies read whole.
+ * 字符串工具类基准测试
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilsBenchmark {
+    private static final long HOUR_MS = 3600 * 1000L;
+
+    private String minutesAgo;
+    private String yesterday;
+    private String lastYear;
+    private final char[] clock = new char[StringUtils.TIME_CHARS];
+    private long millis = 5025 * 1000L;
+
+    /**
+     * A catalog response body, a line per title.
+     */
+    @State(Scope.Thread)
+    public static class Body {
+        @Param({"1024", "65536"})
+        public int bodyBytes;
+
+        byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            byte[] all = SyntheticCatalog.json(bodyBytes / 100 + 1, 1).getBytes(Charset.forName("UTF-8"));
+            int end = Math.min(bodyBytes, all.length);
+            while (end < all.length && (all[end] & 0xc0) == 0x80) {
+                end++; // not in the middle of a character
+            }
+            bytes = Arrays.copyOf(all, end);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long now = System.currentTimeMillis();
+        minutesAgo = format.format(new Date(now - 5 * 60 * 1000L));
+        yesterday  = format.format(new Date(now - 26 * HOUR_MS));
+        lastYear   = format.format(new Date(now - 400 * 24 * HOUR_MS));
+    }
+
+    @Benchmark
+    public Date toDate() {
+        return StringUtils.toDate(lastYear);
+    }
+
+    @Benchmark
+    public String friendlyTimeMinutes() {
+        return StringUtils.friendly_time(minutesAgo);
+    }
+
+    @Benchmark
+    public String friendlyTimeYesterday() {
+        return StringUtils.friendly_time(yesterday);
+    }
+
+    @Benchmark
+    public String friendlyTimeDate() {
+        return StringUtils.friendly_time(lastYear);
+    }
+
+    @Benchmark
+    public String millisToString() {
+        millis += 250; // the clock advances a quarter second per update
+        return StringUtils.millisToString(millis);
+    }
+
+    @Benchmark
+    public int millisToChars() {
+        millis += 250;
+        return StringUtils.millisToChars(millis, clock);
+    }
+
+    @Benchmark
+    public boolean isValidIPAddress() {
+        return StringUtils.isValidIPAddress("192.168.100.254");
+    }
+
+    @Benchmark
+    public boolean isValidIPAddressInvalid() {
+        return StringUtils.isValidIPAddress("192.168.100.256");
+    }
+
+    @Benchmark
+    public String toConvertString(Body body) {
+        return StringUtils.toConvertString(new ByteArrayInputStream(body.bytes));
+    }
+}
@@ -0,0 +1,96 @@
+package com.yuantops.tvplayer.benchmarks;
+
+import com.yuantops.tvplayer.catalog.CatalogParser;
+import com.yuantops.tvplayer.catalog.CatalogStore;
+import com.yuantops.tvplayer.catalog.StringTable;
+import com.yuantops.tvplayer.catalog.VideoItem;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Catalog bodies shaped like the ones served at "/topstv/debug": Chinese
+ * titles of 2 to 8 characters, a dozen genres, release dates over thirty
+ * years and the five urls of each title. The same seed gives the same body.
+ * 生成与服务器格式相同的合成目录JSON
+ */
+public class SyntheticCatalog {
+    private static final String[] GENRES = {
+            "动作", "喜剧", "爱情", "科幻", "动画", "悬疑", "惊悚", "恐怖", "纪录片", "战争", "剧情", "武侠"
+    };
+    private static final String TITLE_CHARS =
+            "大话西游天下无双春光乍泄重庆森林花样年华英雄十面埋伏霸王别姬活着红高粱卧虎藏龙功夫少林足球"
+            + "喜剧之王唐山大地震让子弹飞无间道阿飞正传东邪西毒一代宗师金陵十三钗满城尽带黄金甲";
+
+    private SyntheticCatalog() {
+    }
+
+    /**
+     * @return a JSON array of items titles
+     */
+    public static String json(int items, long seed) {
+        return json(items, seed, "http://10.0.0.2:8080");
+    }
+
+    /**
+     * @param baseUrl server the urls of the titles point at, without a trailing "/"
+     * @return a JSON array of items titles
+     */
+    public static String json(int items, long seed, String baseUrl) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(items * 420);
+        sb.append('[');
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            String id = Integer.toString(100000 + i);
+            sb.append("{\"id\":").append(id);
+            sb.append(",\"videoNameCn\":\"").append(title(random)).append('"');
+            sb.append(",\"genre\":\"").append(GENRES[random.nextInt(GENRES.length)]).append('"');
+            sb.append(",\"releaseDate\":\"").append(1985 + random.nextInt(31)).append('-')
+                    .append(twoDigits(1 + random.nextInt(12))).append('-')
+                    .append(twoDigits(1 + random.nextInt(28))).append('"');
+            sb.append(",\"standardDefiUrl\":\"").append(baseUrl).append("/vod/sd/").append(id).append(".mp4\"");
+            sb.append(",\"highDefiUrl\":\"").append(baseUrl).append("/vod/hd/").append(id).append(".mp4\"");
+            sb.append(",\"superDefiUrl\":\"").append(baseUrl).append("/vod/shd/").append(id).append(".mp4\"");
+            sb.append(",\"broadcastUrl\":\"\"");
+            sb.append(",\"posterUrl\":\"").append(baseUrl).append("/poster/").append(id).append(".jpg\"");
+            sb.append(",\"rating\":").append(random.nextInt(100) / 10.0);
+            sb.append(",\"tags\":[\"").append(GENRES[random.nextInt(GENRES.length)]).append("\"]}");
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    /**
+     * @return the store the app builds from json
+     */
+    public static CatalogStore store(String json) throws IOException {
+        final CatalogStore.Builder builder = new CatalogStore.Builder(new StringTable(), 0);
+        new CatalogParser(20, 200).parse(new StringReader(json), new CatalogParser.Callback() {
+            @Override
+            public void onBatch(List<VideoItem> batch) {
+                for (VideoItem item : batch) {
+                    builder.add(item);
+                }
+            }
+        });
+        return builder.build();
+    }
+
+    private static String title(Random random) {
+        int length = 2 + random.nextInt(7);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = TITLE_CHARS.charAt(random.nextInt(TITLE_CHARS.length()));
+        }
+        return new String(chars);
+    }
+
+    private static String twoDigits(int value) {
+        return value < 10 ? "0" + value : Integer.toString(value);
+    }
+}